@@ -0,0 +1,54 @@
+package com.antwerkz.lariat.jmh;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * The MongoDB a benchmark runs against, chosen with the {@value #PROPERTY} system property: a {@code host[:port]} to
+ * use a running mongod, {@code localhost} by default, or {@value #IN_PROCESS} to start an in-memory stand-in in the
+ * benchmark's JVM.  The stand-in has none of a real server's disk and replication costs so its numbers only compare
+ * Lariat's own overhead between builds.
+ */
+final class BenchmarkMongo implements AutoCloseable {
+    static final String PROPERTY = "lariat.mongo";
+
+    static final String IN_PROCESS = "in-process";
+
+    static final String DB_NAME = "lariat_jmh";
+
+    private final MongoServer server;
+
+    private final MongoClient client;
+
+    private BenchmarkMongo(final MongoServer server, final MongoClient client) {
+        this.server = server;
+        this.client = client;
+    }
+
+    static BenchmarkMongo connect() throws UnknownHostException {
+        final String target = System.getProperty(PROPERTY, "localhost");
+        if (IN_PROCESS.equals(target)) {
+            final MongoServer server = new MongoServer(new MemoryBackend());
+            final InetSocketAddress address = server.bind();
+            return new BenchmarkMongo(server, new MongoClient(new ServerAddress(address)));
+        }
+        return new BenchmarkMongo(null, new MongoClient(target));
+    }
+
+    MongoClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.antwerkz.lariat.jmh;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+import java.util.Arrays;
+
+/**
+ * The entities saved by the benchmarks: the same document unarchived and archived with different retention.
+ */
+final class Documents {
+    private Documents() {
+    }
+
+    /**
+     * @return a new, unsaved document of the given type with a payload of {@code size} characters
+     */
+    static Document create(final String type, final int size) {
+        final Document document;
+        switch (type) {
+            case "none":
+                document = new Plain();
+                break;
+            case "3":
+                document = new Count3();
+                break;
+            case "30":
+                document = new Count30();
+                break;
+            case "deep":
+                document = new Deep();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown document type " + type);
+        }
+        final char[] payload = new char[size];
+        Arrays.fill(payload, 'x');
+        document.payload = new String(payload);
+        return document;
+    }
+
+    abstract static class Document {
+        @Id
+        private ObjectId id;
+
+        private String payload;
+
+        private long revision;
+
+        ObjectId getId() {
+            return id;
+        }
+
+        /**
+         * Changes the document so each save writes a new version.
+         */
+        Document touch() {
+            revision++;
+            return this;
+        }
+
+        abstract long getVersion();
+    }
+
+    @Entity(value = "plain", noClassnameStored = true)
+    static class Plain extends Document {
+        @Version
+        private long version;
+
+        @Override
+        long getVersion() {
+            return version;
+        }
+    }
+
+    @Entity(value = "count3", noClassnameStored = true)
+    static class Count3 extends Document {
+        @Version
+        @Archived(count = 3)
+        private long version;
+
+        @Override
+        long getVersion() {
+            return version;
+        }
+    }
+
+    @Entity(value = "count30", noClassnameStored = true)
+    static class Count30 extends Document {
+        @Version
+        @Archived(count = 30)
+        private long version;
+
+        @Override
+        long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Keeps deep histories for the read benchmarks.
+     */
+    @Entity(value = "deep", noClassnameStored = true)
+    static class Deep extends Document {
+        @Version
+        @Archived(count = 100_000, pruneEvery = 0)
+        private long version;
+
+        @Override
+        long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.antwerkz.lariat.jmh;
+
+import com.antwerkz.lariat.ArchiveDispatcher;
+import com.antwerkz.lariat.ArchiveInterceptor;
+import com.antwerkz.lariat.jmh.Documents.Count3;
+import com.antwerkz.lariat.jmh.Documents.Document;
+import com.antwerkz.lariat.jmh.Documents.Plain;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per save cost of finding an entity's archive metadata, without touching the database: the lookup of an
+ * archived entity and the dispatch of an unarchived entity's save, which should stay close to free.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private BenchmarkMongo mongo;
+
+    private ArchiveInterceptor<Document, ObjectId> interceptor;
+
+    private ArchiveDispatcher dispatcher;
+
+    private Mapper mapper;
+
+    private final Plain plain = (Plain) Documents.create("none", 16);
+
+    private final DBObject dbObject = new BasicDBObject();
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        mongo = BenchmarkMongo.connect();
+        final Morphia morphia = new Morphia();
+        final Datastore datastore = new DatastoreImpl(morphia, mongo.getClient(), BenchmarkMongo.DB_NAME);
+        interceptor = new ArchiveInterceptor<>(datastore, morphia, Document.class);
+        dispatcher = new ArchiveDispatcher(datastore, morphia);
+        mapper = morphia.getMapper();
+        morphia.map(Plain.class, Count3.class);
+        interceptor.getArchivedEntity(Count3.class);
+        dispatcher.preSave(plain, dbObject, mapper);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.close();
+    }
+
+    @Benchmark
+    public Object archivedEntity() {
+        return interceptor.getArchivedEntity(Count3.class);
+    }
+
+    @Benchmark
+    public Object unarchivedEntity() {
+        return interceptor.getArchivedEntity(Plain.class);
+    }
+
+    @Benchmark
+    public DBObject dispatchUnarchived() {
+        dispatcher.preSave(plain, dbObject, mapper);
+        return dbObject;
+    }
+}
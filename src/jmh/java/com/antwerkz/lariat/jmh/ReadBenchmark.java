@@ -0,0 +1,89 @@
+package com.antwerkz.lariat.jmh;
+
+import com.antwerkz.lariat.ArchiveInterceptor;
+import com.antwerkz.lariat.jmh.Documents.Deep;
+import com.antwerkz.lariat.jmh.Documents.Document;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of reading an entity's history at different depths: finding and reverting to the version half way back
+ * and counting the versions.  Each revert saves a new version so the history of the revert benchmark grows by the
+ * number of operations measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    private BenchmarkMongo mongo;
+
+    private ArchiveInterceptor<Document, ObjectId> interceptor;
+
+    private Document document;
+
+    private long target;
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        mongo = BenchmarkMongo.connect();
+        mongo.getClient().getDB(BenchmarkMongo.DB_NAME).dropDatabase();
+        final Morphia morphia = new Morphia();
+        final Datastore datastore = new DatastoreImpl(morphia, mongo.getClient(), BenchmarkMongo.DB_NAME);
+        interceptor = new ArchiveInterceptor<>(datastore, morphia, Document.class);
+        morphia.getMapper().addInterceptor(interceptor);
+        morphia.map(Deep.class);
+        interceptor.warmUp(1, TimeUnit.MINUTES);
+
+        document = Documents.create("deep", 1024);
+        datastore.save(document);
+        for (int i = 0; i < depth; i++) {
+            datastore.save(document.touch());
+        }
+        target = document.getVersion() - depth / 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.close();
+    }
+
+    @Benchmark
+    public Document findArchivedVersion() {
+        return interceptor.findArchivedVersion(document, target);
+    }
+
+    @Benchmark
+    public Document revertToVersion() {
+        document = interceptor.revertToVersion(document, target);
+        return document;
+    }
+
+    @Benchmark
+    public long countVersions() {
+        return interceptor.countVersions(document);
+    }
+}
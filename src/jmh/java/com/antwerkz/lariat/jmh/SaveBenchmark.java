@@ -0,0 +1,77 @@
+package com.antwerkz.lariat.jmh;
+
+import com.antwerkz.lariat.ArchiveDispatcher;
+import com.antwerkz.lariat.jmh.Documents.Document;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Key;
+import org.mongodb.morphia.Morphia;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput and latency of saving a changed document, unarchived and through the {@link ArchiveDispatcher} with a
+ * retention of 3 and 30 versions, for payloads of different sizes.  The gap between {@code archive=none} and the
+ * archived runs is the cost Lariat adds to each save.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveBenchmark {
+    @Param({"256", "4096", "65536"})
+    public int size;
+
+    @Param({"none", "3", "30"})
+    public String archive;
+
+    private BenchmarkMongo mongo;
+
+    private Datastore datastore;
+
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        mongo = BenchmarkMongo.connect();
+        mongo.getClient().getDB(BenchmarkMongo.DB_NAME).dropDatabase();
+        final Morphia morphia = new Morphia();
+        datastore = new DatastoreImpl(morphia, mongo.getClient(), BenchmarkMongo.DB_NAME);
+        document = Documents.create(archive, size);
+        if (!archive.equals("none")) {
+            final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+            morphia.getMapper().addInterceptor(dispatcher);
+            morphia.map(document.getClass());
+            dispatcher.warmUp(1, TimeUnit.MINUTES);
+        } else {
+            morphia.map(document.getClass());
+        }
+        datastore.save(document);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.close();
+    }
+
+    @Benchmark
+    public Key<Document> save() {
+        return datastore.save(document.touch());
+    }
+}
@@ -0,0 +1,80 @@
+package com.antwerkz.lariat.jmh;
+
+import com.antwerkz.lariat.ArchiveInterceptor;
+import com.antwerkz.lariat.jmh.Documents.Count3;
+import com.antwerkz.lariat.jmh.Documents.Document;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Key;
+import org.mongodb.morphia.Morphia;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of saving a changed document whose prior version is copied into the archive through the client against
+ * copying it with {@code $merge} on the server, for payloads of different sizes.  The server side runs need MongoDB
+ * 4.2 or later and fail their setup on servers, such as the in-process stand-in, which do not support {@code $merge}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerSideCopyBenchmark {
+    @Param({"1024", "10240", "102400", "1048576"})
+    public int size;
+
+    @Param({"client", "server"})
+    public String copy;
+
+    private BenchmarkMongo mongo;
+
+    private Datastore datastore;
+
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        mongo = BenchmarkMongo.connect();
+        mongo.getClient().getDB(BenchmarkMongo.DB_NAME).dropDatabase();
+        final Morphia morphia = new Morphia();
+        datastore = new DatastoreImpl(morphia, mongo.getClient(), BenchmarkMongo.DB_NAME);
+        final ArchiveInterceptor<Document, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia,
+                Document.class);
+        if (copy.equals("server") && !interceptor.withServerSideCopy().isServerSideCopy()) {
+            mongo.close();
+            throw new IllegalStateException("The server does not support $merge");
+        }
+        morphia.getMapper().addInterceptor(interceptor);
+        morphia.map(Count3.class);
+        document = Documents.create("3", size);
+        datastore.save(document);
+        datastore.save(document.touch());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.close();
+    }
+
+    @Benchmark
+    public Key<Document> save() {
+        return datastore.save(document.touch());
+    }
+}
@@ -0,0 +1,221 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.EntityInterceptor;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappedField;
+import org.mongodb.morphia.mapping.Mapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single interceptor archiving every entity type.  Register it once with {@link Mapper#addInterceptor} instead of an
+ * {@link ArchiveInterceptor} per archived type:
+ * <pre>
+ *     ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+ *     morphia.getMapper().addInterceptor(dispatcher);
+ *     ArchiveInterceptor&lt;Record, ObjectId&gt; records = dispatcher.forClass(Record.class);
+ * </pre>
+ * Each callback is routed with one map lookup on the entity's class.  The first time a class is seen it is resolved to
+ * the interceptor registered for it or its nearest registered superclass, or to a new interceptor if it has an
+ * {@link Archived} field.  Classes without one resolve to a no-op so saving them costs nothing after that.
+ */
+public class ArchiveDispatcher implements EntityInterceptor {
+    private static final EntityInterceptor NOT_ARCHIVED = new EntityInterceptor() {
+        @Override
+        public void prePersist(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        }
+
+        @Override
+        public void preSave(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        }
+
+        @Override
+        public void postPersist(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        }
+
+        @Override
+        public void preLoad(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        }
+
+        @Override
+        public void postLoad(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        }
+    };
+
+    private final Datastore datastore;
+
+    private final Morphia morphia;
+
+    private final Map<Class<?>, ArchiveInterceptor<?, ?>> interceptors = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>, EntityInterceptor> dispatch = new ConcurrentHashMap<>();
+
+    private volatile ArchiveListener listener = ArchiveListener.NONE;
+
+    private volatile Executor executor;
+
+    static {
+        MappedField.addInterestingAnnotation(Archived.class);
+    }
+
+    public ArchiveDispatcher(final Datastore datastore, final Morphia morphia) {
+        this.datastore = datastore;
+        this.morphia = morphia;
+    }
+
+    /**
+     * Returns the interceptor archiving the given type, creating it if needed.  The interceptor is not registered with
+     * the mapper itself; the dispatcher routes the type's callbacks to it.  Use it to configure the type's archiving or
+     * as the {@link ArchivedDao#getArchiver() archiver} of its DAO.  Subclasses without an interceptor of their own are
+     * archived by it as well; only their cached routes are dropped when it is created.
+     *
+     * @param type the entity type
+     * @return the type's interceptor
+     */
+    @SuppressWarnings("unchecked")
+    public <T, K> ArchiveInterceptor<T, K> forClass(final Class<T> type) {
+        ArchiveInterceptor<T, K> interceptor = (ArchiveInterceptor<T, K>) interceptors.get(type);
+        if (interceptor == null) {
+            interceptor = (ArchiveInterceptor<T, K>) interceptors.computeIfAbsent(type, this::create);
+            dispatch.put(type, interceptor);
+            dispatch.keySet().removeIf(cached -> cached != type && type.isAssignableFrom(cached)
+                                                 && !interceptors.containsKey(cached));
+        }
+        return interceptor;
+    }
+
+    /**
+     * Sets the listener of every interceptor, including those created later.
+     *
+     * @param listener the listener or null for none
+     * @return this
+     * @see ArchiveInterceptor#withArchiveListener(ArchiveListener)
+     */
+    public ArchiveDispatcher withArchiveListener(final ArchiveListener listener) {
+        this.listener = listener != null ? listener : ArchiveListener.NONE;
+        interceptors.values().forEach(interceptor -> interceptor.withArchiveListener(this.listener));
+        return this;
+    }
+
+    /**
+     * Sets the executor of every interceptor, including those created later, and the executor classes are registered
+     * on by {@link #warmUp(long, TimeUnit)}.
+     *
+     * @param executor the executor or null to use the default
+     * @return this
+     * @see ArchiveInterceptor#withExecutor(Executor)
+     */
+    public ArchiveDispatcher withExecutor(final Executor executor) {
+        this.executor = executor;
+        interceptors.values().forEach(interceptor -> interceptor.withExecutor(executor));
+        return this;
+    }
+
+    /**
+     * @return the executor set with {@link #withExecutor(Executor)} or the default
+     */
+    public Executor getExecutor() {
+        final Executor configured = executor;
+        return configured != null ? configured : DefaultExecutor.get();
+    }
+
+    /**
+     * @return the interceptors created so far
+     */
+    public List<ArchiveInterceptor<?, ?>> getInterceptors() {
+        return new ArrayList<>(interceptors.values());
+    }
+
+    /**
+     * Creates the archive indexes of every mapped class with an {@link Archived} field.
+     */
+    public void createIndexes() {
+        WarmUp.archivedClasses(morphia.getMapper()).forEach(this::forClass);
+        interceptors.values().forEach(ArchiveInterceptor::createIndexes);
+    }
+
+    /**
+     * Registers every mapped class with an {@link Archived} field with the interceptor which will archive it,
+     * validating the class and creating its archive indexes, all classes in parallel on the {@link #getExecutor()
+     * executor}.  Once it completes the save path only looks up the registered configuration.
+     *
+     * @param timeout how long to wait for the classes to be registered
+     * @return the time taken per archive collection along with any failures and classes still being registered at the
+     * timeout
+     * @see ArchiveInterceptor#warmUp(long, TimeUnit)
+     */
+    public WarmUpReport warmUp(final long timeout, final TimeUnit unit) {
+        return WarmUp.run(WarmUp.archivedClasses(morphia.getMapper()),
+                type -> ((ArchiveInterceptor<?, ?>) dispatch.computeIfAbsent(type, this::resolve)).warm(type),
+                getExecutor(), timeout, unit);
+    }
+
+    /**
+     * Waits for the queued versions of every interceptor to be written.
+     */
+    public void flush() {
+        interceptors.values().forEach(ArchiveInterceptor::flush);
+    }
+
+    /**
+     * Closes every interceptor.
+     */
+    public void close() {
+        interceptors.values().forEach(ArchiveInterceptor::close);
+    }
+
+    private EntityInterceptor dispatch(final Object ent) {
+        final Class<?> type = ent.getClass();
+        final EntityInterceptor interceptor = dispatch.get(type);
+        return interceptor != null ? interceptor : dispatch.computeIfAbsent(type, this::resolve);
+    }
+
+    private EntityInterceptor resolve(final Class<?> type) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            final ArchiveInterceptor<?, ?> interceptor = interceptors.get(current);
+            if (interceptor != null) {
+                return interceptor;
+            }
+        }
+        if (!morphia.getMapper().getMappedClass(type).getFieldsAnnotatedWith(Archived.class).isEmpty()) {
+            return interceptors.computeIfAbsent(type, this::create);
+        }
+        return NOT_ARCHIVED;
+    }
+
+    private ArchiveInterceptor<?, ?> create(final Class<?> type) {
+        return new ArchiveInterceptor<>(datastore, morphia, type).withArchiveListener(listener).withExecutor(executor);
+    }
+
+    @Override
+    public void prePersist(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        dispatch(ent).prePersist(ent, dbObj, mapper);
+    }
+
+    @Override
+    public void preSave(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        dispatch(ent).preSave(ent, dbObj, mapper);
+    }
+
+    @Override
+    public void postPersist(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        dispatch(ent).postPersist(ent, dbObj, mapper);
+    }
+
+    @Override
+    public void preLoad(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        dispatch(ent).preLoad(ent, dbObj, mapper);
+    }
+
+    @Override
+    public void postLoad(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        dispatch(ent).postLoad(ent, dbObj, mapper);
+    }
+}
@@ -1,27 +1,61 @@
 package com.antwerkz.lariat;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
 import org.mongodb.morphia.Datastore;
 import org.mongodb.morphia.EntityInterceptor;
+import org.mongodb.morphia.Key;
 import org.mongodb.morphia.Morphia;
-import org.mongodb.morphia.annotations.Version;
-import org.mongodb.morphia.mapping.MappedClass;
 import org.mongodb.morphia.mapping.MappedField;
 import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.TypeVariable;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static java.lang.String.format;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 
 public class ArchiveInterceptor<T, K> implements EntityInterceptor {
     public static final String ARCHIVE_ID = "_aid";
 
+    /**
+     * When a version was archived, i.e. when it was superseded by the next version.
+     */
+    public static final String ARCHIVED_AT = "_at";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveInterceptor.class);
+
+    private static final int PREFETCH_BATCH_SIZE = 1000;
+
+    private static final int DEFAULT_HISTORY_BATCH_SIZE = 100;
+
     private final Class<T> clazz;
 
     private final Datastore datastore;
@@ -30,7 +64,37 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
 
     private final Mapper mapper;
 
-    private final Map<MappedClass, ArchivedEntity> mappings = new HashMap<>();
+    private final Map<Class<?>, ArchivedEntity> registry = new ConcurrentHashMap<>();
+
+    private ArchiveStore store;
+
+    private SnapshotStore snapshots;
+
+    private VersionCache versionCache;
+
+    private AsyncArchiver async;
+
+    private volatile Executor executor;
+
+    private volatile ArchiveListener listener = ArchiveListener.NONE;
+
+    private boolean serverSideCopy;
+
+    private int historyBatchSize = DEFAULT_HISTORY_BATCH_SIZE;
+
+    private final CompressionStats compressionStats = new CompressionStats();
+
+    private final AtomicLong unchanged = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final ThreadLocal<Map<Object, ArchiveTask>> batches = new ThreadLocal<>();
+
+    /**
+     * Delta encoded versions waiting on the save of the entity they were encoded against.  A save which fails never
+     * reaches postPersist so its task is discarded by the next save on the thread.
+     */
+    private final ThreadLocal<Map<Object, ArchiveTask>> unsaved = ThreadLocal.withInitial(IdentityHashMap::new);
 
     static {
         MappedField.addInterestingAnnotation(Archived.class);
@@ -41,78 +105,903 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
         this.morphia = morphia;
         this.mapper = morphia.getMapper();
         this.clazz = clazz;
+        this.store = new MongoArchiveStore(datastore.getDB());
+    }
+
+    /**
+     * Sets where archived versions are stored.  By default they are stored in the datastore's database.  Server side
+     * copies are only made while new versions are written to a {@link MongoArchiveStore} in that same database,
+     * directly or as the hot store of a {@link TieredArchiveStore}.
+     *
+     * @param store the archive store
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withArchiveStore(final ArchiveStore store) {
+        this.store = store;
+        registry.values().stream()
+                .filter(ArchivedEntity::isArchived)
+                .forEach(store::prepare);
+        if (serverSideCopy) {
+            withServerSideCopy();
+        }
+        return this;
+    }
+
+    /**
+     * @return where archived versions are stored
+     */
+    public ArchiveStore getArchiveStore() {
+        return store;
+    }
+
+    /**
+     * Enables snapshot-on-load.  The persisted state of entities loaded or saved through Morphia is held (up to
+     * {@code capacity} snapshots and only while the entity itself is reachable) and archived directly on the next save
+     * instead of being read back from the database.  Saves without a snapshot fall back to reading the prior version.
+     *
+     * @param capacity the maximum number of snapshots to hold
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withSnapshots(final int capacity) {
+        snapshots = new SnapshotStore(capacity);
+        return this;
+    }
+
+    /**
+     * @return the number of saves archived from a snapshot rather than a read
+     */
+    public long getSnapshotHits() {
+        return snapshots != null ? snapshots.getHits() : 0;
+    }
+
+    /**
+     * @return the number of saves which found no snapshot and had to read the prior version
+     */
+    public long getSnapshotMisses() {
+        return snapshots != null ? snapshots.getMisses() : 0;
+    }
+
+    /**
+     * Enables a read-through cache of archived versions and version counts.  Versions read by
+     * {@link #findArchivedVersion(Object, long)}, {@link #revert(Object)} and the other single version lookups are
+     * cached in document form, keyed by archive, id and version, as are the results of {@link #countVersions(Object)}.
+     * Archived versions never change so cached versions are only removed once an archive write may have pruned them
+     * and cached counts whenever a version of their id is archived.  The least recently used entries are evicted once
+     * the cache holds more than {@code maxEntries} entries or their encoded size exceeds {@code maxWeight} bytes.
+     * <p>
+     * Versions of entities with {@link Archived#maxAgeSeconds()} are not cached as they expire without an archive
+     * write.  Versions removed from the archive other than through this interceptor may still be served from the
+     * cache.
+     *
+     * @param maxEntries the maximum number of cached versions and counts
+     * @param maxWeight  the maximum encoded size in bytes of the cached versions
+     * @return this
+     * @see #getVersionCacheStats()
+     */
+    public ArchiveInterceptor<T, K> withVersionCache(final int maxEntries, final long maxWeight) {
+        versionCache = new VersionCache(maxEntries, maxWeight);
+        return this;
+    }
+
+    /**
+     * @return the hits, misses and evictions of the version cache
+     * @see #withVersionCache(int, long)
+     */
+    public VersionCacheStats getVersionCacheStats() {
+        return versionCache != null ? versionCache.stats() : new VersionCacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Enables write-behind archiving.  Archived versions are queued and written by {@code workers} tasks running on the
+     * {@link #getExecutor() executor} in batches of up to {@code batchSize} versions so that saves only wait on reading
+     * the prior version.  Archived
+     * versions may not be visible to {@link #findArchivedVersion(Object, long)} or {@link #countVersions(Object)} until
+     * they have been written; use {@link #flush()} to wait for them.
+     *
+     * @param queueSize the maximum number of versions waiting to be written
+     * @param workers   the number of threads writing to the archive
+     * @param batchSize the maximum number of versions written together
+     * @param policy    what to do with a version when the queue is full
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withAsyncArchiving(final int queueSize, final int workers, final int batchSize,
+                                                       final BackpressurePolicy policy) {
+        if (async != null) {
+            async.close();
+        }
+        async = new AsyncArchiver(queueSize, workers, batchSize, policy, getExecutor(), this::write);
+        return this;
+    }
+
+    /**
+     * Sets the executor running the asynchronous operations such as {@link #findArchivedVersionAsync(Object, long)} and
+     * the workers of asynchronous archiving enabled afterwards.  Each of those workers occupies a thread of the
+     * executor until {@link #close()} is called.
+     *
+     * @param executor the executor or null to use the default
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withExecutor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return the executor running asynchronous operations.  Unless one is set, tasks run on virtual threads when the
+     * JVM supports them and on a shared pool of daemon threads otherwise.
+     */
+    public Executor getExecutor() {
+        final Executor configured = executor;
+        return configured != null ? configured : DefaultExecutor.get();
+    }
+
+    /**
+     * Copies prior versions into the archive on the server with an aggregation ending in {@code $merge} instead of
+     * reading them and sending them back, so saving a large document no longer moves it over the network twice.  This
+     * needs MongoDB 4.2 or later; on older servers the client side copy is kept.  Only entities whose archived versions
+     * are plain copies of the document, i.e. the {@link StorageLayout#DOCUMENT} layout without delta encoding,
+     * compression or {@link Archived#skipUnchanged()}, are copied on the server.  Server side copies are made before
+     * the save even when asynchronous archiving is enabled.
+     *
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withServerSideCopy() {
+        if (copyTarget() == null) {
+            serverSideCopy = false;
+            LOG.info("The archive is in another database.  Archived versions will be copied through the client.");
+            return this;
+        }
+        serverSideCopy = ServerSideCopy.isSupported(datastore.getDB());
+        if (!serverSideCopy) {
+            LOG.info("The server does not support $merge.  Archived versions will be copied through the client.");
+        }
+        return this;
+    }
+
+    /**
+     * @return true if prior versions are copied into the archive on the server
+     */
+    public boolean isServerSideCopy() {
+        return serverSideCopy;
+    }
+
+    /**
+     * Sets the number of documents fetched per round trip when streaming a history or the state of a collection at an
+     * instant.  The default is 100.
+     *
+     * @param batchSize the cursor batch size
+     * @return this
+     * @see #history(Object, long, long)
+     */
+    public ArchiveInterceptor<T, K> withHistoryBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The history batch size must be at least 1: " + batchSize);
+        }
+        historyBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Waits until every version queued for asynchronous archiving has been written.
+     */
+    public void flush() {
+        if (async != null) {
+            async.flush();
+        }
+    }
+
+    /**
+     * Flushes any queued versions and stops the asynchronous archiving workers.  Versions archived after closing are
+     * written synchronously.
+     */
+    public void close() {
+        if (async != null) {
+            async.close();
+        }
+    }
+
+    /**
+     * @return the number of versions discarded because the asynchronous archive queue was full
+     */
+    public long getDroppedArchives() {
+        return async != null ? async.getDropped() : 0;
+    }
+
+    /**
+     * Sets the listener receiving the timings and outcomes of fetching, inserting and pruning versions and of reverts,
+     * e.g. an {@link ArchiveMetrics}.  Inserts and prunes are reported by archives stored in MongoDB.
+     *
+     * @param listener the listener or null for none
+     * @return this
+     */
+    public ArchiveInterceptor<T, K> withArchiveListener(final ArchiveListener listener) {
+        this.listener = listener != null ? listener : ArchiveListener.NONE;
+        registry.values().forEach(archivedEntity -> archivedEntity.setListener(this.listener));
+        return this;
     }
 
+    /**
+     * @return the listener receiving the timings and outcomes of the archive path
+     */
+    public ArchiveListener getArchiveListener() {
+        return listener;
+    }
+
+    /**
+     * @return the number of versions the asynchronous archive workers failed to write
+     */
+    public long getFailedArchives() {
+        return async != null ? async.getFailed() : 0;
+    }
+
+    /**
+     * @return the compression ratio and time spent compressing versions of entities archived with
+     * {@link Archived#compression()}
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * @return the number of saves which changed no archived field and so were not archived
+     * @see Archived#skipUnchanged()
+     * @see #saveIfChanged(Object)
+     */
+    public long getUnchangedSaves() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return the number of saves not archived because of {@link Archived#coalesceMillis()} or
+     * {@link Archived#archiveEvery()}
+     */
+    public long getCoalescedSaves() {
+        return coalesced.get();
+    }
+
+    /**
+     * Registers every mapped class this interceptor archives, i.e. {@code T} and its subclasses, with an
+     * {@link Archived} field and creates the indexes of their archive collections.  Classes which are already
+     * registered have their indexes created again.
+     */
     public void createIndexes() {
-        mapper.getMappedClasses().stream()
-                .filter(m -> !m.getFieldsAnnotatedWith(Archived.class).isEmpty())
-                .forEach(this::register);
+        for (final Class<?> type : archivedClasses()) {
+            final ArchivedEntity registered = registry.get(type);
+            if (registered != null) {
+                if (registered.isArchived()) {
+                    store.prepare(registered);
+                }
+            } else {
+                lookup(type);
+            }
+        }
     }
 
-    private ArchivedEntity register(final MappedClass mapped) {
-        final ArchivedEntity archivedEntity = new ArchivedEntity(mapped);
-        mappings.put(mapped, archivedEntity);
+    /**
+     * Registers every mapped class this interceptor archives with an {@link Archived} field ahead of the first save:
+     * each class is validated and its archive indexes are created, all classes in parallel on the
+     * {@link #getExecutor() executor}.  Once it completes the save path only looks up the registered configuration.
+     * Classes which are already registered are left as they are.
+     *
+     * @param timeout how long to wait for the classes to be registered
+     * @return the time taken per archive collection along with any failures and classes still being registered at the
+     * timeout
+     */
+    public WarmUpReport warmUp(final long timeout, final TimeUnit unit) {
+        return WarmUp.run(archivedClasses(), this::warm, getExecutor(), timeout, unit);
+    }
 
+    /**
+     * @return the mapped classes with an {@link Archived} field which are archived by this interceptor
+     */
+    private List<Class<?>> archivedClasses() {
+        return WarmUp.archivedClasses(mapper).stream()
+                .filter(clazz::isAssignableFrom)
+                .collect(toList());
+    }
+
+    /**
+     * Drops the archive partitions of registered classes whose period ended more than {@link Archived#maxAgeSeconds()}
+     * ago.  This also happens whenever a new partition is opened but may be scheduled to expire partitions sooner.
+     *
+     * @return the names of the dropped partitions
+     * @see Archived#partitionBy()
+     */
+    public List<String> dropExpiredPartitions() {
+        return store.dropExpired();
+    }
+
+    /**
+     * Resolves the archive configuration of a class.  Each class is registered, and its indexes created, exactly once
+     * even when first saved from several threads at the same time.  Later lookups are a single lock free map read.
+     */
+    private ArchivedEntity lookup(final Class<?> type) {
+        final ArchivedEntity archivedEntity = registry.get(type);
+        return archivedEntity != null ? archivedEntity : registry.computeIfAbsent(type, this::register);
+    }
+
+    /**
+     * Registers a class without holding the registry's lock while its indexes are created, so classes are registered
+     * in parallel.  A save of the class at the same time may create the same indexes again, which is harmless.
+     */
+    ArchivedEntity warm(final Class<?> type) {
+        final ArchivedEntity registered = registry.get(type);
+        if (registered != null) {
+            return registered;
+        }
+        final ArchivedEntity archivedEntity = register(type);
+        final ArchivedEntity raced = registry.putIfAbsent(type, archivedEntity);
+        return raced != null ? raced : archivedEntity;
+    }
+
+    private ArchivedEntity register(final Class<?> type) {
+        final ArchivedEntity archivedEntity = new ArchivedEntity(mapper.getMappedClass(type));
+        archivedEntity.setListener(listener);
         if (archivedEntity.isArchived()) {
-            DBCollection collection = datastore.getDB().getCollection(archivedEntity.getCollection());
-            BasicDBObject append = new BasicDBObject(ARCHIVE_ID, 1).append(archivedEntity.getFieldName(), -1);
-            collection.createIndex(append,
-                    new BasicDBObject("name", "archiveId").append("unique", true));
+            store.prepare(archivedEntity);
         }
         return archivedEntity;
     }
 
+    /**
+     * Saves a batch of entities.  Instead of archiving each entity separately as it is saved, the prior versions of the
+     * whole batch are read with {@code $in} queries of up to 1000 ids before saving and are then written and pruned as a
+     * single batch per archive collection once the entities have been saved.  If the save fails, none of the prior
+     * versions are archived.
+     *
+     * @param entities the entities to save
+     * @return the keys of the saved entities
+     */
+    public Iterable<Key<T>> saveAll(final Iterable<T> entities) {
+        final List<T> list = new ArrayList<>();
+        entities.forEach(list::add);
+        final Map<Object, ArchiveTask> batch = new IdentityHashMap<>();
+        final Map<ArchivedEntity, Map<Object, T>> pending = new LinkedHashMap<>();
+        final Map<ArchivedEntity, Map<Object, Long>> copies = new LinkedHashMap<>();
+        for (final T entity : list) {
+            final ArchivedEntity archivedEntity = getArchivedEntity((Class<? extends T>) entity.getClass());
+            final Object id = archivedEntity.getId(entity);
+            if (archivedEntity.isArchived() && id != null) {
+                final long version = archivedEntity.getVersion(entity);
+                if (!archivedEntity.shouldArchive(id, version)) {
+                    coalesced.incrementAndGet();
+                    batch.put(entity, null);
+                    continue;
+                }
+                if (serverSideCopy && archivedEntity.isServerCopyable()) {
+                    batch.put(entity, null);
+                    copies.computeIfAbsent(archivedEntity, a -> new LinkedHashMap<>()).put(id, version);
+                    continue;
+                }
+                final DBObject snapshot = snapshots != null
+                                          ? toArchived(archivedEntity,
+                                                       snapshots.take(archivedEntity.getCollection(), id, version))
+                                          : null;
+                batch.put(entity, snapshot != null ? new ArchiveTask(archivedEntity, id, version, snapshot) : null);
+                if (snapshot == null) {
+                    pending.computeIfAbsent(archivedEntity, a -> new LinkedHashMap<>()).put(id, entity);
+                }
+            }
+        }
+        for (final Entry<ArchivedEntity, Map<Object, T>> entry : pending.entrySet()) {
+            prefetch(entry.getKey(), entry.getValue(), batch);
+        }
+        for (final Entry<ArchivedEntity, Map<Object, Long>> entry : copies.entrySet()) {
+            copyServerSide(entry.getKey(), entry.getValue());
+        }
+
+        return saveBatch(batch, () -> datastore.save(list));
+    }
+
+    /**
+     * Saves an entity only if one of its archived fields has changed since the version it was loaded at.  An unchanged
+     * entity is neither saved nor archived and keeps its version.  The prior version read for the comparison, or held
+     * as a snapshot, is what gets archived when the entity has changed.
+     *
+     * @param entity the entity to save
+     * @return the key of the entity whether or not it was saved
+     */
+    public Key<T> saveIfChanged(final T entity) {
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<? extends T>) entity.getClass());
+        final Object id = archivedEntity.getId(entity);
+        if (!archivedEntity.isArchived() || id == null) {
+            return datastore.save(entity);
+        }
+        final long version = archivedEntity.getVersion(entity);
+        final DBObject snapshot = snapshots != null
+                                  ? snapshots.take(archivedEntity.getCollection(), id, version)
+                                  : null;
+        final DBObject prior = snapshot != null
+                               ? toArchived(archivedEntity, snapshot)
+                               : fetchForArchiving(archivedEntity, id, version);
+        if (prior != null && Fingerprint.of(archivedEntity, prior)
+                .matches(Fingerprint.of(archivedEntity, toDBObject(entity)))) {
+            if (snapshot != null) {
+                snapshots.put(entity, archivedEntity.getCollection(), id, version, snapshot);
+            }
+            unchanged.incrementAndGet();
+            return mapper.getKey(entity);
+        }
+        final boolean archive = prior != null && archivedEntity.shouldArchive(id, version);
+        if (prior != null && !archive) {
+            coalesced.incrementAndGet();
+        }
+        final Map<Object, ArchiveTask> batch = new IdentityHashMap<>();
+        batch.put(entity, archive ? new ArchiveTask(archivedEntity, id, version, prior) : null);
+        return saveBatch(batch, () -> datastore.save(entity));
+    }
+
+    /**
+     * Maps an entity without archiving it.  {@link Mapper#toDBObject(Object)} runs the preSave interceptors.
+     */
+    private DBObject toDBObject(final T entity) {
+        final Map<Object, ArchiveTask> skip = new IdentityHashMap<>();
+        skip.put(entity, null);
+        batches.set(skip);
+        try {
+            return mapper.toDBObject(entity);
+        } finally {
+            batches.remove();
+        }
+    }
+
+    /**
+     * Runs a save with the prior versions of the entities being saved already read.  preSave only encodes those prior
+     * versions and they are written once the save completes.  Nothing is archived if the save fails.
+     */
+    private <R> R saveBatch(final Map<Object, ArchiveTask> batch, final Supplier<R> save) {
+        final R saved;
+        batches.set(batch);
+        try {
+            saved = save.get();
+        } finally {
+            batches.remove();
+        }
+        final List<ArchiveTask> ready = new ArrayList<>();
+        for (final ArchiveTask task : batch.values()) {
+            if (task != null && task.isEncoded()) {
+                ready.add(task);
+            }
+        }
+        if (!ready.isEmpty()) {
+            if (async != null) {
+                ready.forEach(async::submit);
+            } else {
+                write(ready);
+            }
+        }
+        return saved;
+    }
+
+    private void prefetch(final ArchivedEntity archivedEntity, final Map<Object, T> entities,
+                          final Map<Object, ArchiveTask> batch) {
+        final DBCollection collection = datastore.getDB()
+                .getCollection(archivedEntity.getMappedClass().getCollectionName());
+        final String fieldName = archivedEntity.getFieldName();
+        final List<Object> ids = new ArrayList<>(entities.keySet());
+        for (int start = 0; start < ids.size(); start += PREFETCH_BATCH_SIZE) {
+            final List<Object> chunk = ids.subList(start, Math.min(ids.size(), start + PREFETCH_BATCH_SIZE));
+            final long started = System.nanoTime();
+            try (DBCursor cursor = collection.find(new BasicDBObject("_id", new BasicDBObject("$in", chunk)),
+                    archivedEntity.getProjection())) {
+                for (final DBObject one : cursor) {
+                    final Object id = one.get("_id");
+                    final Object stored = one.get(fieldName);
+                    final T entity = entities.get(id);
+                    final long version = archivedEntity.getVersion(entity);
+                    if (stored != null && ((Number) stored).longValue() == version) {
+                        batch.put(entity,
+                                new ArchiveTask(archivedEntity, id, version, toArchived(archivedEntity, one)));
+                    }
+                }
+            } catch (RuntimeException e) {
+                listener.failed(archivedEntity.getType(), ArchiveStep.FETCH, e);
+                throw e;
+            }
+            listener.fetched(archivedEntity.getType(), System.nanoTime() - started);
+        }
+    }
+
+    private void copyServerSide(final ArchivedEntity archivedEntity, final Map<Object, Long> versions) {
+        final Map<Object, Long> chunk = new LinkedHashMap<>();
+        for (final Entry<Object, Long> entry : versions.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            if (chunk.size() == PREFETCH_BATCH_SIZE) {
+                ServerSideCopy.copy(datastore.getDB(), archivedEntity, copyTarget().archiveCollection(archivedEntity),
+                        chunk);
+                invalidate(archivedEntity, chunk);
+                chunk.clear();
+            }
+        }
+        ServerSideCopy.copy(datastore.getDB(), archivedEntity, copyTarget().archiveCollection(archivedEntity), chunk);
+        invalidate(archivedEntity, chunk);
+    }
+
+    /**
+     * Reverts to the newest archived version older than the entity.  This is the previous version unless saves are
+     * skipped or coalesced in which case it is the newest version which was archived.
+     */
     public T revert(final T entity) {
-        final long version = getVersion(entity);
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        final long version = archivedEntity.getVersion(entity);
+        if (archivedEntity.hasVersionGaps()) {
+            try (CloseableIterator<DBObject> descending = store.descending(archivedEntity, archivedEntity.getId(entity),
+                    version - 1)) {
+                if (descending.hasNext()) {
+                    return revertToVersion(entity,
+                            ((Number) descending.next().get(archivedEntity.getFieldName())).longValue());
+                }
+            }
+        }
         return revertToVersion(entity, version - 1);
     }
 
     public T revertToVersion(final T entity, final long targetVersion) {
-        final T reverted = findArchivedVersion(entity, targetVersion);
-        datastore.save(reverted);
+        final T reverted;
+        try {
+            reverted = findArchivedVersion(entity, targetVersion);
+            datastore.save(reverted);
+        } catch (RuntimeException e) {
+            listener.failed(entity.getClass(), ArchiveStep.REVERT, e);
+            throw e;
+        }
+        listener.reverted(entity.getClass(), 1);
         return reverted;
     }
 
     public T findArchivedVersion(final T entity, final long targetVersion) {
-        final K id = (K) mapper.getId(entity);
         final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        final K id = (K) archivedEntity.getId(entity);
 
-
-        final MappedClass mappedClass = archivedEntity.getMappedClass();
-        final DBCollection archCollection = datastore.getDB().getCollection(archivedEntity.getCollection());
-
-        final BasicDBObject previous = (BasicDBObject) archCollection.findOne(
-                new BasicDBObject(ARCHIVE_ID, id)
-                        .append(archivedEntity.getFieldName(), targetVersion));
+        final DBObject previous = findArchived(archivedEntity, id, targetVersion);
         if (previous == null) {
             throw new NoSuchElementException(format("No archived version %d for %s with and ID of %s", targetVersion,
-                    mappedClass.getClazz().getName(), id));
+                    archivedEntity.getMappedClass().getClazz().getName(), id));
         }
-        previous.put("_id", previous.remove(ARCHIVE_ID));
-
-        final MappedField mappedField = mappedClass.getFieldsAnnotatedWith(Version.class).get(0);
-        final T reverted = morphia.fromDBObject((Class<T>) mappedClass.getClazz(), previous);
-        mappedField.setFieldValue(reverted, mappedField.getFieldValue(entity));
+        final T reverted = fromArchived(archivedEntity, entity, previous);
+        archivedEntity.setVersion(reverted, archivedEntity.getVersion(entity));
         return reverted;
     }
 
-    private long getVersion(final T entity) {
-        final MappedClass mc = mapper.getMappedClass(entity);
-        return (Long) mc.getFieldsAnnotatedWith(Version.class).get(0).getFieldValue(entity);
+    /**
+     * Removes the archived versions of an entity at or below a version regardless of {@link Archived#count()}.  Delta
+     * encoded versions can only be rebuilt while the keyframe they depend on is retained.
+     *
+     * @param throughVersion the newest version to remove
+     */
+    public void prune(final T entity, final long throughVersion) {
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        final Object id = archivedEntity.getId(entity);
+        store.prune(archivedEntity, id, throughVersion);
+        if (versionCache != null) {
+            versionCache.invalidate(archivedEntity.getCollection(), id, throughVersion);
+        }
+    }
+
+    /**
+     * @see #findArchivedVersion(Object, long)
+     */
+    public CompletableFuture<T> findArchivedVersionAsync(final T entity, final long targetVersion) {
+        return CompletableFuture.supplyAsync(() -> findArchivedVersion(entity, targetVersion), getExecutor());
+    }
+
+    /**
+     * @see #countVersions(Object)
+     */
+    public CompletableFuture<Long> countVersionsAsync(final T entity) {
+        return CompletableFuture.supplyAsync(() -> countVersions(entity), getExecutor());
+    }
+
+    /**
+     * @see #revert(Object)
+     */
+    public CompletableFuture<T> revertAsync(final T entity) {
+        return CompletableFuture.supplyAsync(() -> revert(entity), getExecutor());
+    }
+
+    /**
+     * @see #revertToVersion(Object, long)
+     */
+    public CompletableFuture<T> revertToVersionAsync(final T entity, final long targetVersion) {
+        return CompletableFuture.supplyAsync(() -> revertToVersion(entity, targetVersion), getExecutor());
+    }
+
+    /**
+     * @see #prune(Object, long)
+     */
+    public CompletableFuture<Void> pruneAsync(final T entity, final long throughVersion) {
+        return CompletableFuture.runAsync(() -> prune(entity, throughVersion), getExecutor());
+    }
+
+    /**
+     * Reads several archived versions of an entity concurrently.
+     *
+     * @return the versions in the order requested.  The future fails if any version is not archived.
+     */
+    public CompletableFuture<List<T>> findArchivedVersionsAsync(final T entity, final Collection<Long> versions) {
+        final List<CompletableFuture<T>> lookups = new ArrayList<>();
+        for (final Long version : versions) {
+            lookups.add(findArchivedVersionAsync(entity, version));
+        }
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> lookups.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * Streams every archived version of an entity.
+     *
+     * @see #history(Object, long, long)
+     */
+    public Stream<T> history(final T entity) {
+        return history(entity, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Streams the archived versions of an entity from {@code fromVersion} through {@code toVersion}, oldest first.
+     * The versions are read lazily with a single cursor over the archive index in batches of
+     * {@link #withHistoryBatchSize(int)} versions so memory use does not depend on the length of the history.  Unlike
+     * {@link #findArchivedVersion(Object, long)} each version keeps its archived version number.  The stream holds an
+     * open cursor and should be closed if it is not read to the end.
+     *
+     * @param entity      the entity
+     * @param fromVersion the oldest version to return
+     * @param toVersion   the newest version to return
+     * @return the archived versions
+     */
+    public Stream<T> history(final T entity, final long fromVersion, final long toVersion) {
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        return versions(archivedEntity, archivedEntity.getId(entity), fromVersion, toVersion, null)
+                .map(archived -> fromArchived(archivedEntity, entity, archived))
+                .stream();
+    }
+
+    /**
+     * Streams the values of a single field in every archived version of an entity.
+     *
+     * @see #fieldHistory(Object, String, long, long)
+     */
+    public <V> Stream<VersionedValue<V>> fieldHistory(final T entity, final String field) {
+        return fieldHistory(entity, field, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Streams the values of a single field in the archived versions of an entity from {@code fromVersion} through
+     * {@code toVersion}, oldest first.  Only the field and the version are read from the archive unless the versions
+     * are compressed or delta encoded, in which case the versions are rebuilt and the field is taken from them.
+     *
+     * @param entity the entity
+     * @param field  the Java or stored name of an archived field
+     * @return the value of the field in each archived version
+     * @throws IllegalArgumentException if the field is not archived
+     * @see #history(Object, long, long)
+     */
+    public <V> Stream<VersionedValue<V>> fieldHistory(final T entity, final String field, final long fromVersion,
+                                                      final long toVersion) {
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        final MappedField mappedField = archivedEntity.getArchivedField(field);
+        final String fieldName = archivedEntity.getFieldName();
+        final String stored = mappedField.getNameToStore();
+        final DBObject fields = new BasicDBObject(ARCHIVE_ID, 1)
+                .append(Mapper.CLASS_NAME_FIELDNAME, 1)
+                .append(fieldName, 1)
+                .append(stored, 1);
+        final Class<T> type = (Class<T>) archivedEntity.getMappedClass().getClazz();
+        return versions(archivedEntity, archivedEntity.getId(entity), fromVersion, toVersion, fields)
+                .map(archived -> {
+                    final DBObject partial = new BasicDBObject(stored, archived.get(stored));
+                    if (archived.containsField(Mapper.CLASS_NAME_FIELDNAME)) {
+                        partial.put(Mapper.CLASS_NAME_FIELDNAME, archived.get(Mapper.CLASS_NAME_FIELDNAME));
+                    }
+                    final V value = (V) mappedField.getFieldValue(morphia.fromDBObject(type, partial));
+                    return new VersionedValue<>(((Number) archived.get(fieldName)).longValue(), value);
+                })
+                .stream();
+    }
+
+    /**
+     * Streams every entity of a class as it was at an instant.
+     *
+     * @see #asOf(Class, Instant, int)
+     */
+    public Stream<T> asOf(final Class<? extends T> type, final Instant instant) {
+        return asOf(type, instant, 1);
+    }
+
+    /**
+     * Streams every entity of a class as it was at an instant.  Each archived version records when it was superseded
+     * so the version current at the instant is the oldest one archived after it, or the live entity if there is none.
+     * The live collection and the archive are read with cursors sorted by id, in batches of
+     * {@link #withHistoryBatchSize(int)} documents, and merged in a single pass so memory use does not depend on the
+     * size of the collection.
+     * <p>
+     * With a {@code parallelism} greater than 1 the ids are split into that many ranges of about the same size which
+     * are scanned by a parallel stream.  The stream holds open cursors and should be closed if it is not read to the
+     * end.
+     * <p>
+     * Entities with {@link ObjectId} ids created after the instant are left out.  The reconstruction only reaches as
+     * far back as the retained history: entities whose version at the instant has been pruned appear in a later
+     * version, entities deleted since the instant only appear if a version current at the instant was archived, and
+     * versions archived before supersession times were recorded are not considered.
+     * <p>
+     * With {@link Archived#coalesceMillis()} or {@link Archived#archiveEvery()} the versions which were not archived
+     * can not be reconstructed.  An entity whose version at the instant was one of them appears in the nearest
+     * archived version after it, or as it is now if none was archived since, rather than exactly as it was.
+     *
+     * @param type        the entity type
+     * @param instant     the point in time
+     * @param parallelism the number of id ranges scanned in parallel
+     * @return the entities as they were at the instant, each with the version number it had then
+     */
+    public Stream<T> asOf(final Class<? extends T> type, final Instant instant, final int parallelism) {
+        final ArchivedEntity archivedEntity = getArchivedEntity(type);
+        if (!archivedEntity.isArchived()) {
+            throw new IllegalArgumentException(format("%s is not archived", type.getName()));
+        }
+        final PointInTime pointInTime = new PointInTime(archivedEntity,
+                datastore.getDB().getCollection(archivedEntity.getMappedClass().getCollectionName()),
+                ids -> store.supersededAfter(archivedEntity, instant, ids, historyBatchSize), Date.from(instant),
+                historyBatchSize, stored -> decode(archivedEntity, stored));
+        final Class<T> mapped = (Class<T>) archivedEntity.getMappedClass().getClazz();
+        if (parallelism <= 1) {
+            return pointInTime.scan(null).map(dbObj -> morphia.fromDBObject(mapped, dbObj)).stream();
+        }
+        return pointInTime.split(parallelism).parallelStream()
+                .flatMap(ids -> pointInTime.scan(ids).map(dbObj -> morphia.fromDBObject(mapped, dbObj)).stream());
+    }
+
+    /**
+     * Starts a bulk revert of every entity matching a query.  Configure the target version or instant, and optionally
+     * the batch size, parallelism and a progress listener, on the returned {@link BulkRevert} and then execute it.
+     *
+     * @param query the entities to revert
+     * @return the bulk revert
+     */
+    public BulkRevert<T> bulkRevert(final Query<T> query) {
+        return new BulkRevert<>(this, query);
+    }
+
+    /**
+     * Creates a sweeper enforcing retention on the archive of a class in the background.  Configure the batch size,
+     * rate limit and a progress listener on the returned {@link RetentionSweeper} and then run it once or start it.
+     *
+     * @throws IllegalStateException if the archive is not stored in MongoDB
+     */
+    public RetentionSweeper retentionSweeper(final Class<? extends T> type) {
+        final ArchivedEntity archivedEntity = getArchivedEntity(type);
+        final MongoArchiveStore mongo = mongoStore();
+        if (mongo == null) {
+            throw new IllegalStateException("Only archives stored in MongoDB can be swept");
+        }
+        return new RetentionSweeper(this, archivedEntity, mongo,
+                datastore.getDB().getCollection(archivedEntity.getMappedClass().getCollectionName()));
+    }
+
+    /**
+     * Removes the cached count of an id and its cached versions at or below {@code prunedThrough}.
+     */
+    void evict(final ArchivedEntity archivedEntity, final Object id, final long prunedThrough) {
+        if (versionCache != null) {
+            versionCache.invalidate(archivedEntity.getCollection(), id, prunedThrough);
+        }
+    }
+
+    /**
+     * Reads a range of archived versions, oldest first, in document form.
+     *
+     * @param fields the top level fields to read or null to read every field.  Compressed and delta encoded versions
+     *               are always read whole.
+     */
+    private CloseableIterator<DBObject> versions(final ArchivedEntity archivedEntity, final Object id, final long from,
+                                                 final long to, final DBObject fields) {
+        final long start = archivedEntity.isDeltaEncoded()
+                           ? Deltas.keyframeFor(archivedEntity.getKeyframeInterval(), from)
+                           : from;
+        final DBObject read = archivedEntity.isDeltaEncoded() || archivedEntity.isCompressed() ? null : fields;
+        CloseableIterator<DBObject> stored = store.ascending(archivedEntity, id, start, to, read, historyBatchSize);
+        if (archivedEntity.isCompressed()) {
+            stored = Compression.decompress(archivedEntity, stored, compressionStats);
+        }
+        return archivedEntity.isDeltaEncoded()
+               ? Deltas.ascending(archivedEntity.getFieldName(), from, stored)
+               : stored;
+    }
+
+    /**
+     * Maps an archived version back to an entity.
+     *
+     * @param current the current entity whose values are used for the fields which are not archived
+     */
+    private T fromArchived(final ArchivedEntity archivedEntity, final T current, final DBObject archived) {
+        archived.put("_id", archived.removeField(ARCHIVE_ID));
+        archived.removeField(Fingerprint.FINGERPRINT);
+        archived.removeField(ARCHIVED_AT);
+
+        final T entity = morphia.fromDBObject((Class<T>) archivedEntity.getMappedClass().getClazz(), archived);
+        archivedEntity.restoreUnarchived(current, entity);
+        return entity;
+    }
+
+    /**
+     * Converts an archived version as stored into document form.
+     *
+     * @return the version in document form or null if a delta encoded version can not be rebuilt
+     */
+    DBObject decode(final ArchivedEntity archivedEntity, final DBObject stored) {
+        if (archivedEntity.isDeltaEncoded()) {
+            return findArchived(archivedEntity, stored.get(ARCHIVE_ID),
+                    ((Number) stored.get(archivedEntity.getFieldName())).longValue());
+        }
+        return archivedEntity.isCompressed()
+               ? Compression.decompress(archivedEntity, stored, compressionStats)
+               : stored;
+    }
+
+    DBObject findArchived(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        if (!isCached(archivedEntity)) {
+            return readArchived(archivedEntity, id, version);
+        }
+        final DBObject cached = versionCache.getVersion(archivedEntity.getCollection(), id, version);
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = versionCache.generation(archivedEntity.getCollection(), id);
+        final DBObject archived = readArchived(archivedEntity, id, version);
+        if (archived != null) {
+            versionCache.putVersion(generation, archivedEntity.getCollection(), id, version, archived);
+        }
+        return archived;
     }
 
-    private DBObject fetchForArchiving(final ArchivedEntity archivedEntity, final DBObject dbObj) {
+    private DBObject readArchived(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        if (archivedEntity.isDeltaEncoded()) {
+            CloseableIterator<DBObject> stored = store.descending(archivedEntity, id, version);
+            if (archivedEntity.isCompressed()) {
+                stored = Compression.decompress(archivedEntity, stored, compressionStats);
+            }
+            try (CloseableIterator<DBObject> descending = stored) {
+                return Deltas.decode(archivedEntity.getFieldName(), version, descending);
+            }
+        }
+        final DBObject stored = store.find(archivedEntity, id, version);
+        return stored != null && archivedEntity.isCompressed()
+               ? Compression.decompress(archivedEntity, stored, compressionStats)
+               : stored;
+    }
+
+    private DBObject fetchForArchiving(final ArchivedEntity archivedEntity, final Object id, final long version) {
         final String collectionName = archivedEntity.getMappedClass().getCollectionName();
         final DBCollection collection = datastore.getDB().getCollection(collectionName);
 
-        final String fieldName = archivedEntity.getFieldName();
-        final BasicDBObject query = new BasicDBObject("_id", dbObj.get("_id"))
-                .append(fieldName, ((BasicDBObject) dbObj).getLong(fieldName));
+        final BasicDBObject query = new BasicDBObject("_id", id).append(archivedEntity.getFieldName(), version);
 
-        final DBObject one = collection.findOne(query);
+        final long start = System.nanoTime();
+        final DBObject one;
+        try {
+            one = collection.findOne(query, archivedEntity.getProjection());
+        } catch (RuntimeException e) {
+            listener.failed(archivedEntity.getType(), ArchiveStep.FETCH, e);
+            throw e;
+        }
+        listener.fetched(archivedEntity.getType(), System.nanoTime() - start);
+        return toArchived(archivedEntity, one);
+    }
+
+    private DBObject fetchSnapshot(final ArchivedEntity archivedEntity, final DBObject dbObj) {
+        final Object version = dbObj.get(archivedEntity.getFieldName());
+        if (version == null) {
+            return null;
+        }
+        final Object id = dbObj.get("_id");
+        return toArchived(archivedEntity,
+                snapshots.take(archivedEntity.getCollection(), id, ((Number) version).longValue()));
+    }
+
+    DBObject toArchived(final ArchivedEntity archivedEntity, final DBObject one) {
         if (one != null) {
-            final BasicDBObject archived = new BasicDBObject(one.toMap());
-            archived.put(ARCHIVE_ID, archived.remove("_id"));
+            final DBObject archived = archivedEntity.getProjection() != null
+                                      ? archivedEntity.project(one)
+                                      : new BasicDBObject(one.toMap());
+            archived.put(ARCHIVE_ID, archived.removeField("_id"));
 
             return archived;
         } else {
@@ -120,27 +1009,96 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
         }
     }
 
+    private void snapshot(final Object ent, final DBObject dbObj) {
+        if (snapshots != null && clazz.isAssignableFrom(ent.getClass())) {
+            final ArchivedEntity archivedEntity = getArchivedEntity((Class<? extends T>) ent.getClass());
+            final Object id = dbObj.get("_id");
+            if (archivedEntity.isArchived() && id != null) {
+                final Object version = dbObj.get(archivedEntity.getFieldName());
+                if (version != null) {
+                    snapshots.put(ent, archivedEntity.getCollection(), id, ((Number) version).longValue(), dbObj);
+                }
+            }
+        }
+    }
+
     public ArchivedEntity getArchivedEntity(final Class<? extends T> pClass) {
-        final MappedClass mappedClass = mapper.getMappedClass(pClass);
+        return lookup(pClass);
+    }
 
-        ArchivedEntity archivedEntity = mappings.get(mappedClass);
-        if (archivedEntity == null) {
-            archivedEntity = register(mappedClass);
+    public long countVersions(final T entity) {
+        final ArchivedEntity archivedEntity = getArchivedEntity((Class<T>) entity.getClass());
+        final Object id = archivedEntity.getId(entity);
+        final boolean cache = isCached(archivedEntity);
+        final Long cached = cache ? versionCache.getCount(archivedEntity.getCollection(), id) : null;
+        if (cached != null) {
+            return cached;
         }
-        return archivedEntity;
+        final long generation = cache ? versionCache.generation(archivedEntity.getCollection(), id) : 0;
+        final long count = store.count(archivedEntity, id);
+        if (cache) {
+            versionCache.putCount(generation, archivedEntity.getCollection(), id, count);
+        }
+        return count;
     }
 
-    public long countVersions(final T entity) {
-        return datastore.getDB()
-                .getCollection(getArchivedEntity((Class<T>) entity.getClass()).getCollection())
-                .count(new BasicDBObject(ARCHIVE_ID, mapper.getId(entity)));
+    private boolean isCached(final ArchivedEntity archivedEntity) {
+        return versionCache != null && archivedEntity.getMaxAgeSeconds() == 0;
+    }
+
+    /**
+     * Removes the cached count of each archived id and the cached versions which the archive write may have pruned.
+     * This has to happen after the write so that a version read before the write is not cached afterwards.
+     *
+     * @param versions the newest archived version of each id
+     */
+    private void invalidate(final ArchivedEntity archivedEntity, final Map<Object, Long> versions) {
+        if (versionCache != null) {
+            for (final Entry<Object, Long> entry : versions.entrySet()) {
+                final long version = entry.getValue();
+                versionCache.invalidate(archivedEntity.getCollection(), entry.getKey(),
+                        archivedEntity.hasVersionGaps() ? version : archivedEntity.pruneThrough(version));
+            }
+        }
     }
 
-    private void prune(final ArchivedEntity archivedEntity, final Object id, final long version) {
-        final DBCollection collection = datastore.getDB().getCollection(archivedEntity.getCollection());
-        final BasicDBObject query = new BasicDBObject(ARCHIVE_ID, id)
-                .append(archivedEntity.getFieldName(), new BasicDBObject("$lte", version - archivedEntity.getCount()));
-        collection.remove(query);
+    /**
+     * @return the archive store if server side copies can be made into it
+     */
+    private MongoArchiveStore copyTarget() {
+        final MongoArchiveStore target = mongoStore();
+        if (target != null) {
+            final DB archive = target.getDB();
+            final DB db = datastore.getDB();
+            if (archive.getMongo() == db.getMongo() && archive.getName().equals(db.getName())) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the store holding archived versions in MongoDB, the hot store of a tiered store, or null if there is none
+     */
+    private MongoArchiveStore mongoStore() {
+        final ArchiveStore target = store instanceof TieredArchiveStore
+                                    ? ((TieredArchiveStore) store).getHotStore()
+                                    : store;
+        return target instanceof MongoArchiveStore ? (MongoArchiveStore) target : null;
+    }
+
+    void write(final List<ArchiveTask> tasks) {
+        final Map<ArchivedEntity, List<ArchiveTask>> byEntity = tasks.stream()
+                .collect(groupingBy(ArchiveTask::getArchivedEntity));
+        for (final Entry<ArchivedEntity, List<ArchiveTask>> entry : byEntity.entrySet()) {
+            final ArchivedEntity archivedEntity = entry.getKey();
+            store.write(archivedEntity, entry.getValue());
+            final Map<Object, Long> versions = new LinkedHashMap<>();
+            for (final ArchiveTask task : entry.getValue()) {
+                versions.merge(task.getId(), task.getVersion(), Math::max);
+            }
+            invalidate(archivedEntity, versions);
+        }
     }
 
     public String getArchiveCollection(final Class<? extends T> pClass) {
@@ -150,17 +1108,90 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
     @Override
     public void preSave(final Object ent, final DBObject dbObj, final Mapper mapper) {
         if (clazz.isAssignableFrom(ent.getClass())) {
+            final Map<Object, ArchiveTask> batch = batches.get();
+            if (batch != null && batch.containsKey(ent)) {
+                final ArchiveTask task = batch.get(ent);
+                if (task != null) {
+                    final DBObject stored = encode(task.getArchivedEntity(), task.getArchived(), task.getVersion(),
+                            dbObj);
+                    if (stored != null) {
+                        task.encode(stored);
+                    }
+                }
+                return;
+            }
             final ArchivedEntity archivedEntity = getArchivedEntity((Class<? extends T>) ent.getClass());
-            if (archivedEntity.isArchived() && dbObj.get("_id") != null) {
-                final DBObject archived = fetchForArchiving(archivedEntity, dbObj);
-                if (archived != null) {
-                    datastore.getDB()
-                            .getCollection(archivedEntity.getCollection())
-                            .insert(archived);
-                    prune(archivedEntity, mapper.getId(ent), getVersion((T) ent));
+            final Object id = dbObj.get("_id");
+            if (archivedEntity.isArchived() && id != null) {
+                final long version = archivedEntity.getVersion(ent);
+                if (!archivedEntity.shouldArchive(id, version)) {
+                    coalesced.incrementAndGet();
+                    return;
                 }
+                if (serverSideCopy && archivedEntity.isServerCopyable()) {
+                    ServerSideCopy.copy(datastore.getDB(), archivedEntity,
+                            copyTarget().archiveCollection(archivedEntity), singletonMap(id, version));
+                    invalidate(archivedEntity, singletonMap(id, version));
+                    return;
+                }
+                DBObject archived = snapshots != null ? fetchSnapshot(archivedEntity, dbObj) : null;
+                if (archived == null) {
+                    archived = fetchForArchiving(archivedEntity, id, version);
+                }
+                final DBObject stored = archived != null ? encode(archivedEntity, archived, version, dbObj) : null;
+                if (stored != null) {
+                    final ArchiveTask task = new ArchiveTask(archivedEntity, id, version, archived);
+                    task.encode(stored);
+                    if (archivedEntity.isDeltaEncoded()) {
+                        final Map<Object, ArchiveTask> pending = unsaved.get();
+                        pending.clear();
+                        pending.put(ent, task);
+                    } else {
+                        submit(task);
+                    }
+                }
+            }
+        }
+    }
+
+    private void submit(final ArchiveTask task) {
+        if (async != null) {
+            async.submit(task);
+        } else {
+            write(singletonList(task));
+        }
+    }
+
+    /**
+     * Converts the prior version into the form stored in the archive.
+     *
+     * @param archivedEntity the archive configuration
+     * @param archived       the prior version in document form
+     * @param version        the prior version's version number
+     * @param incoming       the document about to replace the prior version
+     * @return the document to store or null if the prior version is unchanged and should not be archived
+     */
+    DBObject encode(final ArchivedEntity archivedEntity, final DBObject archived, final long version,
+                    final DBObject incoming) {
+        Fingerprint fingerprint = null;
+        if (archivedEntity.isSkipUnchanged()) {
+            fingerprint = Fingerprint.of(archivedEntity, archived);
+            if (fingerprint.matches(Fingerprint.of(archivedEntity, incoming))) {
+                unchanged.incrementAndGet();
+                return null;
             }
         }
+        DBObject stored = archivedEntity.isDeltaEncoded()
+                          ? Deltas.encode(archivedEntity, archived, version, archivedEntity.project(incoming))
+                          : archived;
+        if (archivedEntity.isCompressed()) {
+            stored = Compression.compress(archivedEntity, stored, compressionStats);
+        }
+        if (fingerprint != null) {
+            stored.put(Fingerprint.FINGERPRINT, fingerprint.getHash());
+        }
+        stored.put(ARCHIVED_AT, new Date());
+        return stored;
     }
 
     @Override
@@ -169,6 +1200,11 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
 
     @Override
     public void postPersist(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        final ArchiveTask task = unsaved.get().remove(ent);
+        if (task != null) {
+            submit(task);
+        }
+        snapshot(ent, dbObj);
     }
 
     @Override
@@ -177,5 +1213,6 @@ public class ArchiveInterceptor<T, K> implements EntityInterceptor {
 
     @Override
     public void postLoad(final Object ent, final DBObject dbObj, final Mapper mapper) {
+        snapshot(ent, dbObj);
     }
 }
@@ -0,0 +1,68 @@
+package com.antwerkz.lariat;
+
+/**
+ * Receives the timings and outcomes of the archive path, per entity class, e.g. to feed a metrics library.  Methods are
+ * called on the thread doing the work, including the saving thread, so implementations must be thread safe and
+ * return quickly.  Every method does nothing by default.  {@link ArchiveMetrics} is a ready made implementation.
+ *
+ * @see ArchiveInterceptor#withArchiveListener(ArchiveListener)
+ */
+public interface ArchiveListener {
+    /**
+     * The listener used when none is set.
+     */
+    ArchiveListener NONE = new ArchiveListener() {
+    };
+
+    /**
+     * Called after the prior version of saved entities was read, once per save or per batch of
+     * {@link ArchiveInterceptor#saveAll(Iterable)}.
+     *
+     * @param type  the entity class
+     * @param nanos the time taken
+     */
+    default void fetched(final Class<?> type, final long nanos) {
+    }
+
+    /**
+     * Called after archived versions were written to MongoDB.  With {@link StorageLayout#BUCKET} this includes trimming
+     * the buckets.
+     *
+     * @param type     the entity class
+     * @param versions the number of versions written
+     * @param bytes    their size as stored
+     * @param nanos    the time taken
+     */
+    default void inserted(final Class<?> type, final int versions, final long bytes, final long nanos) {
+    }
+
+    /**
+     * Called after versions which fell out of the retained history were removed from MongoDB, while archiving or by a
+     * {@link RetentionSweeper}.
+     *
+     * @param type      the entity class
+     * @param documents the number of archive documents removed or -1 if the write was not acknowledged
+     * @param nanos     the time taken
+     */
+    default void pruned(final Class<?> type, final long documents, final long nanos) {
+    }
+
+    /**
+     * Called after entities were reverted to archived versions.
+     *
+     * @param type     the entity class
+     * @param entities the number of entities reverted
+     */
+    default void reverted(final Class<?> type, final long entities) {
+    }
+
+    /**
+     * Called when a step failed, before the error is thrown.
+     *
+     * @param type  the entity class
+     * @param step  the step which failed
+     * @param error the error
+     */
+    default void failed(final Class<?> type, final ArchiveStep step, final Throwable error) {
+    }
+}
@@ -0,0 +1,187 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.MongoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * An {@link ArchiveListener} keeping metrics of the archive path per entity class: latency histograms of the fetch,
+ * insert and prune steps, the number and size of archived versions, pruned documents, reverts, and errors including
+ * duplicate keys.  Recording only adds to striped counters and allocates nothing once a class has been seen, so it can
+ * stay enabled in production.  Read the metrics with {@link #snapshot()} or have them logged periodically with
+ * {@link #startReporting(long, TimeUnit)}.
+ * <pre>
+ *     ArchiveMetrics metrics = new ArchiveMetrics().startReporting(1, TimeUnit.MINUTES);
+ *     interceptor.withArchiveListener(metrics);
+ * </pre>
+ */
+public class ArchiveMetrics implements ArchiveListener {
+    static final int DUPLICATE_KEY = 11000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveMetrics.class);
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final Map<Class<?>, Recorder> recorders = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    @Override
+    public void fetched(final Class<?> type, final long nanos) {
+        recorder(type).fetch.record(nanos);
+    }
+
+    @Override
+    public void inserted(final Class<?> type, final int versions, final long bytes, final long nanos) {
+        final Recorder recorder = recorder(type);
+        recorder.insert.record(nanos);
+        recorder.versions.add(versions);
+        recorder.bytes.add(bytes);
+    }
+
+    @Override
+    public void pruned(final Class<?> type, final long documents, final long nanos) {
+        final Recorder recorder = recorder(type);
+        recorder.prune.record(nanos);
+        if (documents > 0) {
+            recorder.pruned.add(documents);
+        }
+    }
+
+    @Override
+    public void reverted(final Class<?> type, final long entities) {
+        recorder(type).reverts.add(entities);
+    }
+
+    @Override
+    public void failed(final Class<?> type, final ArchiveStep step, final Throwable error) {
+        final Recorder recorder = recorder(type);
+        recorder.errors.increment();
+        if (isDuplicateKey(error)) {
+            recorder.duplicateKeys.increment();
+        }
+    }
+
+    /**
+     * @return the metrics of every entity class seen so far, ordered by class name
+     */
+    public List<EntityMetrics> snapshot() {
+        return recorders.entrySet().stream()
+                .sorted(Comparator.comparing(entry -> entry.getKey().getName()))
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .collect(toList());
+    }
+
+    /**
+     * @return the metrics of an entity class
+     */
+    public EntityMetrics snapshot(final Class<?> type) {
+        return recorder(type).snapshot(type);
+    }
+
+    /**
+     * Logs the metrics of every entity class at info level.
+     */
+    public void report() {
+        for (final EntityMetrics metrics : snapshot()) {
+            LOG.info(metrics.toString());
+        }
+    }
+
+    /**
+     * Calls {@link #report()} every {@code period} on a background daemon thread.
+     *
+     * @return this
+     */
+    public synchronized ArchiveMetrics startReporting(final long period, final TimeUnit unit) {
+        if (reporter != null) {
+            throw new IllegalStateException("The metrics are already being reported");
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "lariat-metrics-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                report();
+            } catch (RuntimeException e) {
+                LOG.error("Failed to report the archive metrics", e);
+            }
+        }, period, period, unit);
+        return this;
+    }
+
+    /**
+     * Stops the periodic reports.
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    private Recorder recorder(final Class<?> type) {
+        final Recorder recorder = recorders.get(type);
+        return recorder != null ? recorder : recorders.computeIfAbsent(type, t -> new Recorder());
+    }
+
+    /**
+     * @return true if the error, or a write error of a bulk write, is a duplicate key
+     */
+    static boolean isDuplicateKey(final Throwable error) {
+        if (error instanceof DuplicateKeyException) {
+            return true;
+        }
+        if (error instanceof BulkWriteException) {
+            for (final BulkWriteError writeError : ((BulkWriteException) error).getWriteErrors()) {
+                if (writeError.getCode() == DUPLICATE_KEY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return error instanceof MongoException && ((MongoException) error).getCode() == DUPLICATE_KEY;
+    }
+
+    private static final class Recorder {
+        private final Log2Histogram fetch = new Log2Histogram();
+
+        private final Log2Histogram insert = new Log2Histogram();
+
+        private final Log2Histogram prune = new Log2Histogram();
+
+        private final LongAdder versions = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder pruned = new LongAdder();
+
+        private final LongAdder reverts = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder duplicateKeys = new LongAdder();
+
+        EntityMetrics snapshot(final Class<?> type) {
+            return new EntityMetrics(type, fetch.snapshot(), insert.snapshot(), prune.snapshot(), versions.sum(),
+                    bytes.sum(), pruned.sum(), reverts.sum(), errors.sum(), duplicateKeys.sum());
+        }
+    }
+}
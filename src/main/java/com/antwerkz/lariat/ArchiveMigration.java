@@ -0,0 +1,164 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.Mapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+
+/**
+ * Converts an existing archive collection to the {@link StorageLayout} currently declared on an entity's
+ * {@link Archived} field.  Archives are streamed and converted in batches so a migration can be stopped and run again:
+ * versions already copied into a bucket by a run stopped before removing their documents are not copied twice.
+ * The unique index of the new layout is only created once the conversion is complete so the migration should be run
+ * before entities are saved with the new layout.
+ */
+public class ArchiveMigration {
+    private static final String MIGRATION_INDEX = "archiveMigration";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final Datastore datastore;
+
+    private final Mapper mapper;
+
+    public ArchiveMigration(final Datastore datastore, final Morphia morphia) {
+        this.datastore = datastore;
+        this.mapper = morphia.getMapper();
+    }
+
+    /**
+     * Migrates the archived versions of the given type to the layout declared on its {@code @Archived} field.
+     *
+     * @param type the archived entity type
+     * @return the number of archived versions converted
+     */
+    public long migrate(final Class<?> type) {
+        final ArchivedEntity archivedEntity = new ArchivedEntity(mapper.getMappedClass(type));
+        if (!archivedEntity.isArchived()) {
+            throw new IllegalArgumentException(format("%s is not archived", type.getName()));
+        }
+        final DBCollection collection = datastore.getDB().getCollection(archivedEntity.getCollection());
+        return archivedEntity.getLayout() == StorageLayout.BUCKET
+               ? toBuckets(collection, archivedEntity)
+               : toDocuments(collection, archivedEntity);
+    }
+
+    private long toBuckets(final DBCollection collection, final ArchivedEntity archivedEntity) {
+        final String fieldName = archivedEntity.getFieldName();
+        final VersionLayout layout = archivedEntity.getVersionLayout();
+        new DocumentLayout().dropIndexes(collection);
+        collection.createIndex(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, 1),
+                new BasicDBObject("name", MIGRATION_INDEX));
+
+        long migrated = 0;
+        final List<ArchiveTask> tasks = new ArrayList<>();
+        final List<Object> ids = new ArrayList<>();
+        try (DBCursor cursor = collection.find(new BasicDBObject(fieldName, new BasicDBObject("$exists", true)))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, 1))) {
+            for (final DBObject version : cursor) {
+                ids.add(version.removeField("_id"));
+                tasks.add(new ArchiveTask(archivedEntity, version.get(ARCHIVE_ID),
+                        ((Number) version.get(fieldName)).longValue(), version));
+                if (tasks.size() == BATCH_SIZE) {
+                    migrated += flushBuckets(collection, archivedEntity, tasks, ids);
+                }
+            }
+        }
+        migrated += flushBuckets(collection, archivedEntity, tasks, ids);
+        VersionLayout.dropIndex(collection, MIGRATION_INDEX);
+        layout.createIndexes(collection, archivedEntity);
+        return migrated;
+    }
+
+    private long flushBuckets(final DBCollection collection, final ArchivedEntity archivedEntity,
+                              final List<ArchiveTask> tasks, final List<Object> ids) {
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+        final List<ArchiveTask> unmigrated = unmigrated(collection, archivedEntity, tasks);
+        if (!unmigrated.isEmpty()) {
+            archivedEntity.getVersionLayout().write(collection, archivedEntity, unmigrated);
+        }
+        collection.remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+        tasks.clear();
+        ids.clear();
+        return unmigrated.size();
+    }
+
+    /**
+     * Versions are converted oldest first so any version up to the newest one already in an entity's buckets was
+     * copied by an earlier run, even if retention has since sliced it out of the bucket.
+     *
+     * @return the tasks whose version has not been copied into a bucket yet
+     */
+    private List<ArchiveTask> unmigrated(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                         final List<ArchiveTask> tasks) {
+        final String fieldName = archivedEntity.getFieldName();
+        final Set<Object> ids = new LinkedHashSet<>();
+        for (final ArchiveTask task : tasks) {
+            ids.add(task.getId());
+        }
+        final Map<Object, Long> newest = new HashMap<>();
+        final DBObject buckets = new BasicDBObject(ARCHIVE_ID, new BasicDBObject("$in", new ArrayList<>(ids)))
+                .append(BucketLayout.VERSIONS, new BasicDBObject("$exists", true));
+        try (DBCursor cursor = collection.find(buckets,
+                new BasicDBObject(ARCHIVE_ID, 1).append(BucketLayout.VERSIONS + "." + fieldName, 1))) {
+            for (final DBObject bucket : cursor) {
+                for (final Object element : (List<?>) bucket.get(BucketLayout.VERSIONS)) {
+                    final Object version = ((DBObject) element).get(fieldName);
+                    if (version != null) {
+                        newest.merge(bucket.get(ARCHIVE_ID), ((Number) version).longValue(), Math::max);
+                    }
+                }
+            }
+        }
+        final List<ArchiveTask> unmigrated = new ArrayList<>();
+        for (final ArchiveTask task : tasks) {
+            final Long copied = newest.get(task.getId());
+            if (copied == null || task.getVersion() > copied) {
+                unmigrated.add(task);
+            }
+        }
+        return unmigrated;
+    }
+
+    private long toDocuments(final DBCollection collection, final ArchivedEntity archivedEntity) {
+        final String fieldName = archivedEntity.getFieldName();
+        new BucketLayout().dropIndexes(collection);
+
+        long migrated = 0;
+        try (DBCursor cursor = collection.find(new BasicDBObject(BucketLayout.VERSIONS,
+                new BasicDBObject("$exists", true)))) {
+            for (final DBObject bucket : cursor) {
+                final Object id = bucket.get(ARCHIVE_ID);
+                for (final Object element : (List<?>) bucket.get(BucketLayout.VERSIONS)) {
+                    final DBObject version = (DBObject) element;
+                    version.put(ARCHIVE_ID, id);
+                    if (!version.containsField(ARCHIVED_AT) && bucket.containsField(ARCHIVED_AT)) {
+                        version.put(ARCHIVED_AT, bucket.get(ARCHIVED_AT));
+                    }
+                    collection.update(new BasicDBObject(ARCHIVE_ID, id).append(fieldName, version.get(fieldName)),
+                            version, true, false);
+                    migrated++;
+                }
+                collection.remove(new BasicDBObject("_id", bucket.get("_id")));
+            }
+        }
+        archivedEntity.getVersionLayout().createIndexes(collection, archivedEntity);
+        return migrated;
+    }
+}
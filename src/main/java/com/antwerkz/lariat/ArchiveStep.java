@@ -0,0 +1,23 @@
+package com.antwerkz.lariat;
+
+/**
+ * The steps of archiving and restoring versions reported to an {@link ArchiveListener}.
+ */
+public enum ArchiveStep {
+    /**
+     * Reading the prior version of a saved entity.
+     */
+    FETCH,
+    /**
+     * Writing archived versions.
+     */
+    INSERT,
+    /**
+     * Removing versions which fell out of the retained history.
+     */
+    PRUNE,
+    /**
+     * Restoring an entity to an archived version.
+     */
+    REVERT
+}
@@ -0,0 +1,102 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Stores archived versions on behalf of an {@link ArchiveInterceptor}.  Versions are handed to the store in the form
+ * they are stored in, i.e. after projection, delta encoding and compression, with the entity's id in
+ * {@link ArchiveInterceptor#ARCHIVE_ID} and, for stores which expire versions, the time they were superseded in
+ * {@link ArchiveInterceptor#ARCHIVED_AT}.  Every read returns versions in that same form and each call returns new
+ * documents which the caller may modify.
+ * <p>
+ * Other stores can be plugged in by extending this class.  Every abstract method is required; {@link #prepare} and
+ * {@link #dropExpired()} are optional and do nothing by default.  An {@link ArchivedEntity} describes how a class is
+ * archived: its {@link ArchivedEntity#getCollection() archive name}, {@link ArchivedEntity#getFieldName() version
+ * field} and the retention a store applies on write with {@link ArchivedEntity#shouldPrune(Object, long)},
+ * {@link ArchivedEntity#pruneThrough(long)} and {@link ArchivedEntity#isExpiring()}.  Each {@link ArchiveTask} holds
+ * one version to store: the entity's id, its version number and the document.  Stores are called concurrently.
+ *
+ * @see MongoArchiveStore
+ * @see InMemoryArchiveStore
+ * @see ArchiveInterceptor#withArchiveStore(ArchiveStore)
+ */
+public abstract class ArchiveStore {
+    protected ArchiveStore() {
+    }
+
+    /**
+     * Prepares the store for the versions of an entity, e.g. by creating indexes.  This is called when an entity is
+     * first archived and again by {@link ArchiveInterceptor#createIndexes()}.
+     */
+    public void prepare(final ArchivedEntity archivedEntity) {
+    }
+
+    /**
+     * Inserts archived versions and then prunes, per {@link Archived#count()} and {@link Archived#pruneEvery()}, the
+     * versions which fall out of the retained history behind them.
+     *
+     * @param tasks the versions to insert, each holding the document to store in {@link ArchiveTask#getArchived()}
+     */
+    public abstract void write(ArchivedEntity archivedEntity, List<ArchiveTask> tasks);
+
+    /**
+     * @return the archived version or null if there is none
+     */
+    public abstract DBObject find(ArchivedEntity archivedEntity, Object id, long version);
+
+    /**
+     * Reads the same archived version of several entities.
+     *
+     * @return the archived versions found by id
+     */
+    public abstract Map<Object, DBObject> find(ArchivedEntity archivedEntity, Collection<?> ids, long version);
+
+    /**
+     * @return the archived versions of an entity at or below {@code version}, newest first
+     */
+    public abstract CloseableIterator<DBObject> descending(ArchivedEntity archivedEntity, Object id, long version);
+
+    /**
+     * @param fields the top level fields to read or null to read every field
+     * @return the archived versions of an entity from {@code from} through {@code to}, oldest first
+     */
+    public abstract CloseableIterator<DBObject> ascending(ArchivedEntity archivedEntity, Object id, long from,
+                                                          long to, DBObject fields, int batchSize);
+
+    /**
+     * Finds the version of each entity which was current at an instant, i.e. the oldest version archived after it.
+     *
+     * @param ids a condition on the archive id, either {@code $in} or a range of {@code $gt}, {@code $gte},
+     *            {@code $lt} and {@code $lte}, or null for every entity
+     * @return one version per entity ordered by archive id
+     */
+    public abstract CloseableIterator<DBObject> supersededAfter(ArchivedEntity archivedEntity, Instant instant,
+                                                                DBObject ids, int batchSize);
+
+    /**
+     * @return the number of archived versions of an entity
+     */
+    public abstract long count(ArchivedEntity archivedEntity, Object id);
+
+    /**
+     * Removes the archived versions of an entity at or below a version.
+     */
+    public abstract void prune(ArchivedEntity archivedEntity, Object id, long version);
+
+    /**
+     * Removes whole groups of versions, such as time partitions, which are older than
+     * {@link Archived#maxAgeSeconds()}.
+     *
+     * @return the names of the removed groups
+     */
+    public List<String> dropExpired() {
+        return emptyList();
+    }
+}
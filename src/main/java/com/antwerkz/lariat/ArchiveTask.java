@@ -0,0 +1,56 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+
+/**
+ * A prior version waiting to be written to the archive along with the information needed to prune behind it.  The
+ * prior version is read before the entity is saved but can only be encoded for storage once the document replacing it
+ * is known.  Tasks are handed to an {@link ArchiveStore} once encoded, which stores {@link #getArchived()} as version
+ * {@link #getVersion()} of the entity with id {@link #getId()}.
+ */
+public class ArchiveTask {
+    private final ArchivedEntity archivedEntity;
+
+    private final Object id;
+
+    private final long version;
+
+    private DBObject archived;
+
+    private boolean encoded;
+
+    ArchiveTask(final ArchivedEntity archivedEntity, final Object id, final long version, final DBObject archived) {
+        this.archivedEntity = archivedEntity;
+        this.id = id;
+        this.version = version;
+        this.archived = archived;
+    }
+
+    public ArchivedEntity getArchivedEntity() {
+        return archivedEntity;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the prior version in document form or, once encoded, the document to store
+     */
+    public DBObject getArchived() {
+        return archived;
+    }
+
+    public boolean isEncoded() {
+        return encoded;
+    }
+
+    void encode(final DBObject stored) {
+        this.archived = stored;
+        this.encoded = true;
+    }
+}
@@ -15,4 +15,98 @@ public @interface Archived {
   long count() default 10;
 
   String collection() default "";
+
+  /**
+   * How archived versions are stored.  See {@link StorageLayout}.
+   */
+  StorageLayout layout() default StorageLayout.DOCUMENT;
+
+  /**
+   * The maximum number of versions held in one bucket document when using {@link StorageLayout#BUCKET}.  Once a bucket
+   * is full, later versions overflow into a new bucket.  The default of 0 keeps every retained version in a single
+   * bucket.
+   */
+  int bucketSize() default 0;
+
+  /**
+   * Enables delta encoding when greater than 0.  Every {@code keyframeInterval} versions a full copy is archived and
+   * the versions in between only store the fields that changed.  Up to {@code keyframeInterval - 1} versions beyond
+   * {@link #count()} are retained so the oldest retained version can still be rebuilt from its keyframe.
+   */
+  int keyframeInterval() default 0;
+
+  /**
+   * The codec used to compress archived versions, e.g. {@link DeflateCompression}.  The archive id and version stay
+   * queryable top level fields while the rest of each version is stored as a compressed binary payload.  Versions
+   * archived before compression was enabled remain readable.
+   */
+  Class<? extends CompressionCodec> compression() default NoCompression.class;
+
+  /**
+   * The fields to archive.  When set, only these fields, the id and the version are archived.  Fields may be given by
+   * their Java or stored names.  May not be combined with {@link #exclude()}.
+   */
+  String[] include() default {};
+
+  /**
+   * Fields which are not archived in addition to those marked {@link NotArchived}.  Fields may be given by their Java
+   * or stored names.  Excluded fields are never read from the database for archiving and archived versions take their
+   * values from the current entity.
+   */
+  String[] exclude() default {};
+
+  /**
+   * Skips archiving saves which do not change any archived field.  Each archived version is fingerprinted and the
+   * fingerprint is stored with it.  A save whose content matches the prior version's fingerprint neither archives nor
+   * prunes, so re-saving an unchanged entity does not push a real version out of the retained history.  The version is
+   * still incremented; use {@link ArchiveInterceptor#saveIfChanged(Object)} to skip the save entirely.  Since skipped
+   * saves leave gaps in the archived version numbers, {@link #count()} then counts archived versions rather than
+   * version numbers.  Can not be combined with {@link #keyframeInterval()} or {@link #bucketSize()}.
+   */
+  boolean skipUnchanged() default false;
+
+  /**
+   * Archives at most one version per entity every {@code coalesceMillis} milliseconds.  Saves inside the window skip
+   * archiving entirely.  The window is tracked in memory so each process coalesces on its own.  Like
+   * {@link #skipUnchanged()}, {@link #count()} then counts archived versions and this can not be combined with
+   * {@link #keyframeInterval()} or {@link #bucketSize()}.
+   */
+  long coalesceMillis() default 0;
+
+  /**
+   * Only archives versions whose version number is a multiple of {@code archiveEvery}.  The same restrictions as
+   * {@link #coalesceMillis()} apply.
+   */
+  int archiveEvery() default 0;
+
+  /**
+   * Expires archived versions once they are older than {@code maxAgeSeconds}.  A TTL index on the time each version
+   * was archived, {@value ArchiveInterceptor#ARCHIVED_AT}, lets the server remove expired versions in the background.
+   * With {@link StorageLayout#BUCKET} a bucket expires as a whole once its newest version is older than
+   * {@code maxAgeSeconds}.  Can not be combined with {@link #keyframeInterval()} since expiring a keyframe would leave
+   * the versions encoded against it unreadable.
+   */
+  long maxAgeSeconds() default 0;
+
+  /**
+   * How often {@link #count()} is enforced with the {@link StorageLayout#DOCUMENT} layout.  By default older versions
+   * are removed every time a version is archived.  With {@code pruneEvery} greater than 1 they are only removed when
+   * the archived version is a multiple of {@code pruneEvery}, or once every {@code pruneEvery} archived versions of
+   * an entity if archived version numbers have gaps, so up to {@code count + pruneEvery - 1} versions are held in
+   * between.  Like {@link #coalesceMillis()} the versions archived since the last prune are counted in memory so each
+   * process counts on its own, in a fixed number of slots shared by ids which makes ids sharing a slot prune early.
+   * 0 never prunes while saving and leaves retention to {@link #maxAgeSeconds()} or a {@link RetentionSweeper}.  The
+   * bucket layout trims as part of each write and is not affected.
+   */
+  int pruneEvery() default 1;
+
+  /**
+   * Archives versions into one collection per period instead of a single archive collection, e.g.
+   * {@code records_archive_2026_10} with {@link PartitionPeriod#MONTH}.  Each version goes to the partition of the
+   * period it was archived in and a partition's indexes are created when it is first written to.  Reads go through
+   * the partitions newest first.  Old versions are never removed one by one: {@link #count()} is not enforced and
+   * instead whole partitions are dropped once their period ended more than {@link #maxAgeSeconds()} ago.  Can not be
+   * combined with {@link StorageLayout#BUCKET} or {@link #keyframeInterval()}.
+   */
+  PartitionPeriod partitionBy() default PartitionPeriod.NONE;
 }
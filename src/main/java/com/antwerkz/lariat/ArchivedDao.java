@@ -1,5 +1,13 @@
 package com.antwerkz.lariat;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.mongodb.morphia.Key;
+import org.mongodb.morphia.query.Query;
+
 public interface ArchivedDao<T, K> {
   default long countVersions(final T entity) {
     return getArchiver().countVersions(entity);
@@ -17,5 +25,57 @@ public interface ArchivedDao<T, K> {
     return getArchiver().revertToVersion(entity, targetVersion);
   }
 
+  default Iterable<Key<T>> saveAll(final Iterable<T> entities) {
+    return getArchiver().saveAll(entities);
+  }
+
+  default Key<T> saveIfChanged(final T entity) {
+    return getArchiver().saveIfChanged(entity);
+  }
+
+  default Stream<T> history(final T entity) {
+    return getArchiver().history(entity);
+  }
+
+  default Stream<T> history(final T entity, final long fromVersion, final long toVersion) {
+    return getArchiver().history(entity, fromVersion, toVersion);
+  }
+
+  default <V> Stream<VersionedValue<V>> fieldHistory(final T entity, final String field) {
+    return getArchiver().fieldHistory(entity, field);
+  }
+
+  default BulkRevert<T> bulkRevert(final Query<T> query) {
+    return getArchiver().bulkRevert(query);
+  }
+
+  default void prune(final T entity, final long throughVersion) {
+    getArchiver().prune(entity, throughVersion);
+  }
+
+  default CompletableFuture<Long> countVersionsAsync(final T entity) {
+    return getArchiver().countVersionsAsync(entity);
+  }
+
+  default CompletableFuture<T> findArchivedVersionAsync(final T entity, final long targetVersion) {
+    return getArchiver().findArchivedVersionAsync(entity, targetVersion);
+  }
+
+  default CompletableFuture<List<T>> findArchivedVersionsAsync(final T entity, final Collection<Long> versions) {
+    return getArchiver().findArchivedVersionsAsync(entity, versions);
+  }
+
+  default CompletableFuture<T> revertAsync(final T entity) {
+    return getArchiver().revertAsync(entity);
+  }
+
+  default CompletableFuture<T> revertToVersionAsync(final T entity, final long targetVersion) {
+    return getArchiver().revertToVersionAsync(entity, targetVersion);
+  }
+
+  default CompletableFuture<Void> pruneAsync(final T entity, final long throughVersion) {
+    return getArchiver().pruneAsync(entity, throughVersion);
+  }
+
   ArchiveInterceptor<T, K> getArchiver();
 }
@@ -1,26 +1,83 @@
 package com.antwerkz.lariat;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
 import static java.lang.String.format;
 import org.mongodb.morphia.annotations.Version;
 import org.mongodb.morphia.mapping.MappedClass;
 import org.mongodb.morphia.mapping.MappedField;
+import org.mongodb.morphia.mapping.Mapper;
 import org.mongodb.morphia.mapping.MappingException;
 
-class ArchivedEntity {
+/**
+ * How a class is archived, read from its {@link Archived} fields.  {@link ArchiveStore}s are handed one with every
+ * call.
+ */
+public class ArchivedEntity {
+  private static final int PRUNE_STRIPES = 1024;
+
   private String collection;
 
   private long count;
 
   private String fieldName;
 
+  private StorageLayout layout = StorageLayout.DOCUMENT;
+
+  private int bucketSize;
+
+  private int keyframeInterval;
+
+  private CompressionCodec compression;
+
+  private boolean skipUnchanged;
+
+  private Coalescer coalescer;
+
+  private DBObject projection;
+
+  private boolean inclusive;
+
+  private long maxAgeSeconds;
+
+  private int pruneEvery = 1;
+
+  private final AtomicReferenceArray<Unpruned> unpruned = new AtomicReferenceArray<>(PRUNE_STRIPES);
+
+  private PartitionPeriod partitionPeriod = PartitionPeriod.NONE;
+
+  private List<MappedField> unarchived = Collections.emptyList();
+
+  private VersionLayout versionLayout;
+
   private final boolean archived;
 
+  private final MethodHandle idGetter;
+
+  private MethodHandle versionGetter;
+
+  private MethodHandle versionSetter;
+
+  private volatile ArchiveListener listener = ArchiveListener.NONE;
+
   MappedClass mappedClass;
 
   public ArchivedEntity(final MappedClass mappedClass) {
     this.mappedClass = mappedClass;
+    final Field idField = mappedClass.getIdField();
+    idGetter = idField != null ? accessor(idField, true, Object.class) : null;
     final List<MappedField> list = mappedClass.getFieldsAnnotatedWith(Archived.class);
     archived = !list.isEmpty();
     if (archived) {
@@ -35,9 +92,184 @@ class ArchivedEntity {
       this.collection = getCollection(annotation);
       this.count = annotation.count();
       this.fieldName = versionField.getNameToStore();
+      this.versionGetter = accessor(versionField.getField(), true, long.class);
+      this.versionSetter = accessor(versionField.getField(), false, long.class);
+      this.layout = annotation.layout();
+      this.bucketSize = annotation.bucketSize();
+      this.keyframeInterval = annotation.keyframeInterval();
+      this.skipUnchanged = annotation.skipUnchanged();
+      this.maxAgeSeconds = annotation.maxAgeSeconds();
+      this.pruneEvery = annotation.pruneEvery();
+      this.partitionPeriod = annotation.partitionBy();
+      if (bucketSize < 0) {
+        throw new MappingException(format("@Archived bucketSize must not be negative on %s", archiveField.getFullName()));
+      }
+      if (keyframeInterval < 0) {
+        throw new MappingException(format("@Archived keyframeInterval must not be negative on %s",
+            archiveField.getFullName()));
+      }
+      if (annotation.coalesceMillis() < 0 || annotation.archiveEvery() < 0) {
+        throw new MappingException(format("@Archived coalesceMillis and archiveEvery must not be negative on %s",
+            archiveField.getFullName()));
+      }
+      if (maxAgeSeconds < 0 || pruneEvery < 0) {
+        throw new MappingException(format("@Archived maxAgeSeconds and pruneEvery must not be negative on %s",
+            archiveField.getFullName()));
+      }
+      if (maxAgeSeconds > 0 && keyframeInterval > 0) {
+        throw new MappingException(format("@Archived maxAgeSeconds can not be combined with delta encoding on %s",
+            archiveField.getFullName()));
+      }
+      if (isPartitioned() && (layout == StorageLayout.BUCKET || keyframeInterval > 0)) {
+        throw new MappingException(format("@Archived partitionBy can not be combined with the bucket layout or delta "
+            + "encoding on %s", archiveField.getFullName()));
+      }
+      if (annotation.coalesceMillis() > 0 || annotation.archiveEvery() > 1) {
+        coalescer = new Coalescer(annotation.coalesceMillis(), annotation.archiveEvery());
+      }
+      if (hasVersionGaps() && (keyframeInterval > 0 || bucketSize > 0)) {
+        throw new MappingException(format("@Archived skipUnchanged, coalesceMillis and archiveEvery can not be "
+            + "combined with delta encoding or bucketSize on %s", archiveField.getFullName()));
+      }
+      if (!annotation.compression().equals(NoCompression.class)) {
+        try {
+          this.compression = annotation.compression().newInstance();
+        } catch (ReflectiveOperationException e) {
+          throw new MappingException(format("Could not create the compression codec %s for %s",
+              annotation.compression().getName(), archiveField.getFullName()), e);
+        }
+      }
+      project(annotation, archiveField);
+    }
+    versionLayout = layout == StorageLayout.BUCKET ? new BucketLayout() : new DocumentLayout();
+  }
+
+  private MethodHandle accessor(final Field field, final boolean getter, final Class<?> type) {
+    try {
+      field.setAccessible(true);
+      return getter
+             ? MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(type, Object.class))
+             : MethodHandles.lookup().unreflectSetter(field)
+                   .asType(MethodType.methodType(void.class, Object.class, type));
+    } catch (IllegalAccessException | RuntimeException e) {
+      throw new MappingException(format("Can not access %s.%s", mappedClass.getClazz().getName(), field.getName()), e);
+    }
+  }
+
+  /**
+   * @return the id of an instance of this class
+   */
+  Object getId(final Object entity) {
+    try {
+      return (Object) idGetter.invokeExact(entity);
+    } catch (Throwable t) {
+      throw accessFailure(t);
     }
   }
 
+  /**
+   * @return the version of an instance of this class
+   */
+  long getVersion(final Object entity) {
+    try {
+      return (long) versionGetter.invokeExact(entity);
+    } catch (Throwable t) {
+      throw accessFailure(t);
+    }
+  }
+
+  void setVersion(final Object entity, final long version) {
+    try {
+      versionSetter.invokeExact(entity, version);
+    } catch (Throwable t) {
+      throw accessFailure(t);
+    }
+  }
+
+  private RuntimeException accessFailure(final Throwable t) {
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return t instanceof RuntimeException
+           ? (RuntimeException) t
+           : new MappingException(format("Could not access the fields of %s", mappedClass.getClazz().getName()), t);
+  }
+
+  private void project(final Archived annotation, final MappedField versionField) {
+    final String name = versionField.getFullName();
+    if (annotation.include().length != 0 && annotation.exclude().length != 0) {
+      throw new MappingException(format("@Archived include and exclude can not be combined on %s", name));
+    }
+    final Set<MappedField> included = new LinkedHashSet<>();
+    for (final String field : annotation.include()) {
+      included.add(findField(field, name));
+    }
+    final Set<MappedField> excluded = new LinkedHashSet<>();
+    for (final String field : annotation.exclude()) {
+      excluded.add(findField(field, name));
+    }
+    for (final MappedField field : mappedClass.getPersistenceFields()) {
+      if (field.getField().isAnnotationPresent(NotArchived.class)) {
+        excluded.add(field);
+      }
+    }
+    final MappedField idField = mappedClass.getMappedIdField();
+    if (excluded.contains(idField) || excluded.contains(versionField)) {
+      throw new MappingException(format("The id and version of %s are always archived",
+          mappedClass.getClazz().getName()));
+    }
+
+    if (!included.isEmpty()) {
+      included.removeAll(excluded);
+      included.add(versionField);
+      inclusive = true;
+      projection = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, 1);
+      unarchived = new ArrayList<>();
+      for (final MappedField field : included) {
+        projection.put(field.getNameToStore(), 1);
+      }
+      for (final MappedField field : mappedClass.getPersistenceFields()) {
+        if (!included.contains(field) && !field.equals(idField)) {
+          unarchived.add(field);
+        }
+      }
+    } else if (!excluded.isEmpty()) {
+      projection = new BasicDBObject();
+      unarchived = new ArrayList<>(excluded);
+      for (final MappedField field : excluded) {
+        projection.put(field.getNameToStore(), 0);
+      }
+    }
+  }
+
+  /**
+   * @param field the Java or stored name of a field
+   * @return the mapped field if it is archived
+   * @throws IllegalArgumentException if there is no such field or it is not archived
+   */
+  MappedField getArchivedField(final String field) {
+    MappedField mappedField = mappedClass.getMappedFieldByJavaField(field);
+    if (mappedField == null) {
+      mappedField = mappedClass.getMappedField(field);
+    }
+    if (mappedField == null || unarchived.contains(mappedField)) {
+      throw new IllegalArgumentException(format("'%s' is not an archived field of %s", field,
+          mappedClass.getClazz().getName()));
+    }
+    return mappedField;
+  }
+
+  private MappedField findField(final String field, final String annotated) {
+    MappedField mappedField = mappedClass.getMappedFieldByJavaField(field);
+    if (mappedField == null) {
+      mappedField = mappedClass.getMappedField(field);
+    }
+    if (mappedField == null) {
+      throw new MappingException(format("Unknown field '%s' in the @Archived projection on %s", field, annotated));
+    }
+    return mappedField;
+  }
+
   private String getCollection(final Archived annotation) {
     String name = annotation.collection();
     if (name.equals("")) {
@@ -62,6 +294,208 @@ class ArchivedEntity {
     return fieldName;
   }
 
+  public StorageLayout getLayout() {
+    return layout;
+  }
+
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  public int getKeyframeInterval() {
+    return keyframeInterval;
+  }
+
+  public boolean isDeltaEncoded() {
+    return keyframeInterval > 0;
+  }
+
+  public boolean isSkipUnchanged() {
+    return skipUnchanged;
+  }
+
+  public boolean isCoalesced() {
+    return coalescer != null;
+  }
+
+  /**
+   * @return true if the given version should be archived or false if archiving it is coalesced away
+   */
+  boolean shouldArchive(final Object id, final long version) {
+    return coalescer == null || coalescer.shouldArchive(id, version);
+  }
+
+  /**
+   * @return true if not every version is archived so retention has to count the archived versions rather than go by
+   * version number
+   */
+  public boolean hasVersionGaps() {
+    return skipUnchanged || coalescer != null;
+  }
+
+  /**
+   * @return the age in seconds at which archived versions expire or 0 if they never expire
+   */
+  public long getMaxAgeSeconds() {
+    return maxAgeSeconds;
+  }
+
+  /**
+   * @return true if archived versions record when they were archived so they can expire.  Partitioned archives expire
+   * by dropping partitions instead.
+   */
+  public boolean isExpiring() {
+    return maxAgeSeconds > 0 && !isPartitioned();
+  }
+
+  public PartitionPeriod getPartitionPeriod() {
+    return partitionPeriod;
+  }
+
+  public boolean isPartitioned() {
+    return partitionPeriod != PartitionPeriod.NONE;
+  }
+
+  /**
+   * With version gaps the version number says nothing about how many versions were archived since the last prune so
+   * the versions archived per id are counted in memory instead.  The counts are kept in a fixed number of slots hashed
+   * by id, each counting for the last id archived in it.  An id finding its slot taken by another id prunes straight
+   * away since its own count was lost, so sharing a slot costs extra prunes but never lets an id go unpruned for more
+   * than {@code pruneEvery} archived versions.
+   *
+   * @return true if count based retention should run now that {@code version} of {@code id} has been archived
+   */
+  public boolean shouldPrune(final Object id, final long version) {
+    if (isPartitioned()) {
+      return false;
+    }
+    if (pruneEvery <= 1) {
+      return pruneEvery == 1;
+    }
+    if (!hasVersionGaps()) {
+      return version % pruneEvery == 0;
+    }
+    final int hash = id.hashCode();
+    final int slot = (hash ^ (hash >>> 16)) & (PRUNE_STRIPES - 1);
+    while (true) {
+      final Unpruned current = unpruned.get(slot);
+      final boolean taken = current != null && !current.id.equals(id);
+      final int count = current == null || taken ? 1 : current.count + 1;
+      final boolean prune = taken || count >= pruneEvery;
+      if (unpruned.compareAndSet(slot, current, new Unpruned(id, prune ? 0 : count))) {
+        return prune;
+      }
+    }
+  }
+
+  public boolean isCompressed() {
+    return compression != null;
+  }
+
+  /**
+   * @return the codec compressing archived versions or null if they are stored uncompressed
+   */
+  CompressionCodec getCompression() {
+    return compression;
+  }
+
+  /**
+   * @return the projection selecting the archived fields when reading the prior version or null if every field is
+   * archived
+   */
+  DBObject getProjection() {
+    return projection;
+  }
+
+  /**
+   * @return true if the projection lists the archived fields rather than the excluded ones
+   */
+  boolean isInclusiveProjection() {
+    return inclusive;
+  }
+
+  /**
+   * @return true if archived versions are plain copies of the live document which the server can make itself
+   */
+  boolean isServerCopyable() {
+    return layout == StorageLayout.DOCUMENT && !isDeltaEncoded() && !isCompressed() && !skipUnchanged;
+  }
+
+  /**
+   * Removes the fields which are not archived.
+   *
+   * @return a projected copy of the document or the document itself if every field is archived
+   */
+  DBObject project(final DBObject dbObject) {
+    if (projection == null || dbObject == null) {
+      return dbObject;
+    }
+    final BasicDBObject projected = new BasicDBObject();
+    for (final String key : dbObject.keySet()) {
+      if (key.equals("_id") || key.equals(ARCHIVE_ID) || projection.containsField(key) == inclusive) {
+        projected.put(key, dbObject.get(key));
+      }
+    }
+    return projected;
+  }
+
+  /**
+   * Copies the fields which are not archived from the current entity to an entity loaded from the archive.
+   */
+  void restoreUnarchived(final Object current, final Object archived) {
+    for (final MappedField field : unarchived) {
+      field.setFieldValue(archived, field.getFieldValue(current));
+    }
+  }
+
+  /**
+   * Copies the fields which are not archived from the current document to an archived version in document form.
+   */
+  void restoreUnarchived(final DBObject current, final DBObject archived) {
+    for (final MappedField field : unarchived) {
+      if (current.containsField(field.getNameToStore())) {
+        archived.put(field.getNameToStore(), current.get(field.getNameToStore()));
+      }
+    }
+  }
+
+  /**
+   * @return the newest version which may be pruned once {@code version} has been archived
+   */
+  public long pruneThrough(final long version) {
+    final long oldest = version - count + 1;
+    return (isDeltaEncoded() ? Deltas.keyframeFor(keyframeInterval, oldest) : oldest) - 1;
+  }
+
+  /**
+   * @return the maximum number of versions retained per entity including any needed to rebuild delta encoded versions
+   */
+  long getRetained() {
+    return isDeltaEncoded() ? count + keyframeInterval - 1 : count;
+  }
+
+  VersionLayout getVersionLayout() {
+    return versionLayout;
+  }
+
+  /**
+   * @return the listener of the interceptor archiving this class
+   */
+  ArchiveListener getListener() {
+    return listener;
+  }
+
+  void setListener(final ArchiveListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return the entity class
+   */
+  Class<?> getType() {
+    return mappedClass.getClazz();
+  }
+
   public MappedClass getMappedClass() {
     return mappedClass;
   }
@@ -77,6 +511,26 @@ class ArchivedEntity {
         ", collection='" + collection + '\'' +
         ", count=" + count +
         ", fieldName='" + fieldName + '\'' +
+        ", layout=" + layout +
+        ", keyframeInterval=" + keyframeInterval +
+        ", skipUnchanged=" + skipUnchanged +
+        ", maxAgeSeconds=" + maxAgeSeconds +
+        ", pruneEvery=" + pruneEvery +
+        ", partitionPeriod=" + partitionPeriod +
+        ", coalesced=" + (coalescer != null) +
+        ", projection=" + projection +
+        ", compression=" + (compression != null ? compression.getClass().getSimpleName() : "none") +
         '}';
   }
+
+  private static final class Unpruned {
+    private final Object id;
+
+    private final int count;
+
+    private Unpruned(final Object id, final int count) {
+      this.id = id;
+      this.count = count;
+    }
+  }
 }
@@ -0,0 +1,243 @@
+package com.antwerkz.lariat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Write-behind queue for archived versions.  A small number of workers, running on the interceptor's executor, drain
+ * the queue in batches and hand each batch to the writer.  Each worker occupies a thread of the executor until closed.
+ * Versions of the same entity always go to the same worker so that they are written, and pruned, in order.  For the
+ * same reason a version overflowing a full queue under {@link BackpressurePolicy#SYNCHRONOUS} waits for room in the
+ * queue when older versions of its entity are still waiting to be written.  {@link #flush()} waits until everything
+ * queued so far has been written and {@link #close()} lets the workers write everything still queued before they
+ * finish.
+ */
+class AsyncArchiver implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncArchiver.class);
+
+    private static final long POLL_MILLIS = 50;
+
+    private final List<BlockingQueue<ArchiveTask>> queues = new ArrayList<>();
+
+    private final int batchSize;
+
+    private final BackpressurePolicy policy;
+
+    private final Consumer<List<ArchiveTask>> writer;
+
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+    private final Map<Object, Integer> queuedIds = new ConcurrentHashMap<>();
+
+    private final CountDownLatch stopped;
+
+    private final Object lock = new Object();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private long pending;
+
+    private volatile boolean closed;
+
+    AsyncArchiver(final int queueSize, final int workerCount, final int batchSize, final BackpressurePolicy policy,
+                  final Executor executor, final Consumer<List<ArchiveTask>> writer) {
+        if (queueSize < 1 || workerCount < 1 || batchSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid async archiving settings: queueSize=%d, "
+                    + "workers=%d, batchSize=%d", queueSize, workerCount, batchSize));
+        }
+        for (int i = 0; i < workerCount; i++) {
+            queues.add(new ArrayBlockingQueue<>(Math.max(1, queueSize / workerCount)));
+        }
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.writer = writer;
+
+        stopped = new CountDownLatch(workerCount);
+        for (final BlockingQueue<ArchiveTask> queue : queues) {
+            executor.execute(() -> {
+                workers.add(Thread.currentThread());
+                try {
+                    drain(queue);
+                } finally {
+                    workers.remove(Thread.currentThread());
+                    Thread.interrupted();
+                    stopped.countDown();
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues a version for archiving applying the backpressure policy if the queue is full.  Once closed, versions are
+     * written synchronously.
+     */
+    void submit(final ArchiveTask task) {
+        if (closed) {
+            writer.accept(singletonList(task));
+            return;
+        }
+        final BlockingQueue<ArchiveTask> queue = queues.get(Math.abs(task.getId().hashCode() % queues.size()));
+        increment(task);
+        boolean queued;
+        try {
+            if (policy == BackpressurePolicy.BLOCK) {
+                queue.put(task);
+                queued = true;
+            } else {
+                queued = queue.offer(task);
+                if (!queued && policy == BackpressurePolicy.SYNCHRONOUS && hasOlderVersions(task)) {
+                    queue.put(task);
+                    queued = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (queued && closed && stopped.getCount() == 0) {
+            writeRemaining();
+        }
+        if (!queued) {
+            try {
+                if (policy == BackpressurePolicy.DROP) {
+                    dropped.incrementAndGet();
+                } else {
+                    writer.accept(singletonList(task));
+                }
+            } finally {
+                decrement(singletonList(task));
+            }
+        }
+    }
+
+    /**
+     * Blocks until every version queued before this call has been written.
+     */
+    void flush() {
+        synchronized (lock) {
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the workers to write everything queued and finish.  If the calling thread is interrupted while waiting
+     * the workers are interrupted and the versions they left behind are written by the caller.  Versions submitted
+     * afterwards are written synchronously.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            workers.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+        writeRemaining();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    private void drain(final BlockingQueue<ArchiveTask> queue) {
+        final List<ArchiveTask> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final ArchiveTask task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (task == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(task);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                writer.accept(batch);
+            } catch (RuntimeException e) {
+                failed.addAndGet(batch.size());
+                LOG.error(String.format("Failed to archive %d versions", batch.size()), e);
+            } finally {
+                decrement(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the versions left in the queues once the workers have stopped, e.g. by a submit racing with
+     * {@link #close()}.
+     */
+    private void writeRemaining() {
+        final List<ArchiveTask> remaining = new ArrayList<>();
+        for (final BlockingQueue<ArchiveTask> queue : queues) {
+            queue.drainTo(remaining);
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+        try {
+            writer.accept(remaining);
+        } finally {
+            decrement(remaining);
+        }
+    }
+
+    /**
+     * @return true if versions of the task's entity submitted before it are still waiting to be written
+     */
+    private boolean hasOlderVersions(final ArchiveTask task) {
+        return queuedIds.getOrDefault(task.getId(), 0) > 1;
+    }
+
+    private void increment(final ArchiveTask task) {
+        queuedIds.merge(task.getId(), 1, Integer::sum);
+        synchronized (lock) {
+            pending++;
+        }
+    }
+
+    private void decrement(final List<ArchiveTask> tasks) {
+        for (final ArchiveTask task : tasks) {
+            queuedIds.computeIfPresent(task.getId(), (id, count) -> count > 1 ? count - 1 : null);
+        }
+        synchronized (lock) {
+            pending -= tasks.size();
+            if (pending == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+}
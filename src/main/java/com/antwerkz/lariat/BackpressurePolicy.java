@@ -0,0 +1,19 @@
+package com.antwerkz.lariat;
+
+/**
+ * Determines what happens to an archived version when the asynchronous archive queue is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Blocks the saving thread until the queue has room.
+     */
+    BLOCK,
+    /**
+     * Discards the archived version and counts the drop.
+     */
+    DROP,
+    /**
+     * Writes the archived version on the saving thread as if archiving were synchronous.
+     */
+    SYNCHRONOUS
+}
@@ -0,0 +1,232 @@
+package com.antwerkz.lariat;
+
+import org.bson.types.BSONTimestamp;
+import org.bson.types.Binary;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.bson.types.Symbol;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Orders values the way the server sorts them so cursors sorted by id on the server can be merged on the client.
+ * Values of different types are ordered by their BSON type: null, numbers, strings, documents, arrays, binary data,
+ * object ids, booleans, dates and timestamps, with {@link MinKey} and {@link MaxKey} at either end.  Numbers of any
+ * type compare by their exact value with NaN below every other number, strings compare by code point as their UTF-8
+ * bytes do and documents compare field by field, type and name first.  Types which can not sensibly be ids, such as
+ * regular expressions and code, are rejected.
+ */
+final class BsonOrder {
+    private static final int MIN_KEY = 0;
+
+    private static final int NULL = 1;
+
+    private static final int NUMBER = 2;
+
+    private static final int STRING = 3;
+
+    private static final int DOCUMENT = 4;
+
+    private static final int ARRAY = 5;
+
+    private static final int BINARY = 6;
+
+    private static final int OBJECT_ID = 7;
+
+    private static final int BOOLEAN = 8;
+
+    private static final int DATE = 9;
+
+    private static final int TIMESTAMP = 10;
+
+    private static final int MAX_KEY = 11;
+
+    private BsonOrder() {
+    }
+
+    static int compare(final Object first, final Object second) {
+        final int type = Integer.compare(rank(first), rank(second));
+        if (type != 0) {
+            return type;
+        }
+        switch (rank(first)) {
+            case NUMBER:
+                return compareNumbers((Number) first, (Number) second);
+            case STRING:
+                return compareStrings(string(first), string(second));
+            case DOCUMENT:
+                return compareDocuments(((Map<?, ?>) first).entrySet().iterator(),
+                        ((Map<?, ?>) second).entrySet().iterator());
+            case ARRAY:
+                return compareArrays((List<?>) first, (List<?>) second);
+            case BINARY:
+                return compareBinaries(binary(first), binary(second));
+            case OBJECT_ID:
+                return compareBytes(((ObjectId) first).toByteArray(), ((ObjectId) second).toByteArray());
+            case BOOLEAN:
+                return Boolean.compare((Boolean) first, (Boolean) second);
+            case DATE:
+                return Long.compare(((Date) first).getTime(), ((Date) second).getTime());
+            case TIMESTAMP:
+                final BSONTimestamp firstTimestamp = (BSONTimestamp) first;
+                final BSONTimestamp secondTimestamp = (BSONTimestamp) second;
+                final int time = Integer.compareUnsigned(firstTimestamp.getTime(), secondTimestamp.getTime());
+                return time != 0 ? time : Integer.compareUnsigned(firstTimestamp.getInc(), secondTimestamp.getInc());
+            default:
+                return 0;
+        }
+    }
+
+    private static int rank(final Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof MinKey) {
+            return MIN_KEY;
+        } else if (value instanceof MaxKey) {
+            return MAX_KEY;
+        } else if (value instanceof Number) {
+            return NUMBER;
+        } else if (value instanceof String || value instanceof Symbol) {
+            return STRING;
+        } else if (value instanceof List) {
+            return ARRAY;
+        } else if (value instanceof Map) {
+            return DOCUMENT;
+        } else if (value instanceof byte[] || value instanceof Binary || value instanceof UUID) {
+            return BINARY;
+        } else if (value instanceof ObjectId) {
+            return OBJECT_ID;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Date) {
+            return DATE;
+        } else if (value instanceof BSONTimestamp) {
+            return TIMESTAMP;
+        }
+        throw new IllegalStateException(format("Can not order values of type %s", value.getClass().getName()));
+    }
+
+    private static int compareNumbers(final Number first, final Number second) {
+        if (isIntegral(first) && isIntegral(second)) {
+            return Long.compare(first.longValue(), second.longValue());
+        }
+        final double firstDouble = first.doubleValue();
+        final double secondDouble = second.doubleValue();
+        final boolean firstNaN = !isIntegral(first) && Double.isNaN(firstDouble);
+        final boolean secondNaN = !isIntegral(second) && Double.isNaN(secondDouble);
+        if (firstNaN || secondNaN) {
+            return Boolean.compare(secondNaN, firstNaN);
+        }
+        if (Double.isInfinite(firstDouble) || Double.isInfinite(secondDouble)) {
+            return firstDouble == secondDouble ? 0 : firstDouble < secondDouble ? -1 : 1;
+        }
+        return exact(first).compareTo(exact(second));
+    }
+
+    private static BigDecimal exact(final Number number) {
+        return isIntegral(number) ? BigDecimal.valueOf(number.longValue()) : new BigDecimal(number.doubleValue());
+    }
+
+    private static boolean isIntegral(final Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static String string(final Object value) {
+        return value instanceof Symbol ? ((Symbol) value).getSymbol() : (String) value;
+    }
+
+    private static int compareStrings(final String first, final String second) {
+        int i = 0;
+        int j = 0;
+        while (i < first.length() && j < second.length()) {
+            final int firstCodePoint = first.codePointAt(i);
+            final int secondCodePoint = second.codePointAt(j);
+            if (firstCodePoint != secondCodePoint) {
+                return Integer.compare(firstCodePoint, secondCodePoint);
+            }
+            i += Character.charCount(firstCodePoint);
+            j += Character.charCount(secondCodePoint);
+        }
+        return Boolean.compare(i < first.length(), j < second.length());
+    }
+
+    private static int compareDocuments(final Iterator<? extends Entry<?, ?>> first,
+                                        final Iterator<? extends Entry<?, ?>> second) {
+        while (first.hasNext() && second.hasNext()) {
+            final Entry<?, ?> firstField = first.next();
+            final Entry<?, ?> secondField = second.next();
+            int order = Integer.compare(rank(firstField.getValue()), rank(secondField.getValue()));
+            if (order == 0) {
+                order = compareStrings(firstField.getKey().toString(), secondField.getKey().toString());
+            }
+            if (order == 0) {
+                order = compare(firstField.getValue(), secondField.getValue());
+            }
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Boolean.compare(first.hasNext(), second.hasNext());
+    }
+
+    private static int compareArrays(final List<?> first, final List<?> second) {
+        for (int i = 0; i < first.size() && i < second.size(); i++) {
+            int order = Integer.compare(rank(first.get(i)), rank(second.get(i)));
+            if (order == 0) {
+                order = compare(first.get(i), second.get(i));
+            }
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(first.size(), second.size());
+    }
+
+    /**
+     * @return the value as the server stores it: {@link UUID}s are written by the driver as subtype 3 with each half
+     * in little endian order
+     */
+    private static Binary binary(final Object value) {
+        if (value instanceof Binary) {
+            return (Binary) value;
+        } else if (value instanceof UUID) {
+            final UUID uuid = (UUID) value;
+            return new Binary((byte) 3, ByteBuffer.allocate(16)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .putLong(uuid.getMostSignificantBits())
+                    .putLong(uuid.getLeastSignificantBits())
+                    .array());
+        }
+        return new Binary((byte[]) value);
+    }
+
+    private static int compareBinaries(final Binary first, final Binary second) {
+        final int length = Integer.compare(first.length(), second.length());
+        if (length != 0) {
+            return length;
+        }
+        final int subtype = Integer.compare(first.getType() & 0xFF, second.getType() & 0xFF);
+        return subtype != 0 ? subtype : compareBytes(first.getData(), second.getData());
+    }
+
+    private static int compareBytes(final byte[] first, final byte[] second) {
+        for (int i = 0; i < first.length && i < second.length; i++) {
+            final int order = Integer.compare(first[i] & 0xFF, second[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(first.length, second.length);
+    }
+}
@@ -0,0 +1,43 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.List;
+
+/**
+ * Measures the encoded size of documents with a per thread encoder whose buffer is reused, so measuring only
+ * allocates when the buffer has to grow.
+ */
+final class BsonSize {
+    private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+    private BsonSize() {
+    }
+
+    static long of(final List<DBObject> documents) {
+        final Encoder encoder = ENCODERS.get();
+        long size = 0;
+        for (final DBObject document : documents) {
+            size += encoder.size(document);
+        }
+        return size;
+    }
+
+    private static final class Encoder {
+        private final BasicBSONEncoder encoder = new BasicBSONEncoder();
+
+        private final BasicOutputBuffer buffer = new BasicOutputBuffer();
+
+        int size(final DBObject document) {
+            buffer.truncateToPosition(0);
+            encoder.set(buffer);
+            try {
+                return encoder.putObject(document);
+            } finally {
+                encoder.done();
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Stores the archived versions of an entity in the {@value #VERSIONS} array of a bucket document.  Each save appends to
+ * the current bucket with {@code $push} and {@code $slice} so retention needs no separate remove.  When
+ * {@link Archived#bucketSize()} is set, versions are spread over buckets of that many versions each and buckets which
+ * fall out of the retention window are trimmed as the history moves forward.  With {@link Archived#maxAgeSeconds()}
+ * each bucket records when its newest version was archived.
+ */
+class BucketLayout implements VersionLayout {
+    static final String INDEX_NAME = "archiveBucket";
+
+    static final String BUCKET = "bucket";
+
+    static final String VERSIONS = "versions";
+
+    @Override
+    public void createIndexes(final DBCollection collection, final ArchivedEntity archivedEntity) {
+        collection.createIndex(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, -1),
+                new BasicDBObject("name", INDEX_NAME).append("unique", true));
+    }
+
+    @Override
+    public void dropIndexes(final DBCollection collection) {
+        VersionLayout.dropIndex(collection, INDEX_NAME);
+    }
+
+    @Override
+    public void write(final DBCollection collection, final ArchivedEntity archivedEntity, final List<ArchiveTask> tasks) {
+        final BulkWriteOperation bulk = collection.initializeOrderedBulkOperation();
+        final long retained = archivedEntity.getRetained();
+        final int bucketSize = archivedEntity.getBucketSize();
+        final List<DBObject> stored = new ArrayList<>(tasks.size());
+        for (final ArchiveTask task : tasks) {
+            final DBObject archived = new BasicDBObject(task.getArchived().toMap());
+            archived.removeField(ARCHIVE_ID);
+            stored.add(archived);
+            final long bucket = bucket(bucketSize, task.getVersion());
+            final BasicDBObject update = new BasicDBObject("$push", new BasicDBObject(VERSIONS,
+                    new BasicDBObject("$each", new DBObject[]{archived})
+                            .append("$slice", -retained)));
+            if (archivedEntity.isExpiring() && archived.containsField(ARCHIVED_AT)) {
+                update.append("$set", new BasicDBObject(ARCHIVED_AT, archived.get(ARCHIVED_AT)));
+            }
+            bulk.find(new BasicDBObject(ARCHIVE_ID, task.getId()).append(BUCKET, bucket))
+                    .upsert()
+                    .updateOne(update);
+
+            final long cutoff = archivedEntity.pruneThrough(task.getVersion());
+            if (bucketSize > 0 && cutoff >= 0 && bucket(bucketSize, cutoff) < bucket) {
+                final long oldest = bucket(bucketSize, cutoff);
+                bulk.find(new BasicDBObject(ARCHIVE_ID, task.getId()).append(BUCKET, new BasicDBObject("$lt", oldest)))
+                        .remove();
+                bulk.find(new BasicDBObject(ARCHIVE_ID, task.getId()).append(BUCKET, oldest))
+                        .update(new BasicDBObject("$pull", new BasicDBObject(VERSIONS,
+                                new BasicDBObject(archivedEntity.getFieldName(), new BasicDBObject("$lte", cutoff)))));
+            }
+        }
+        final ArchiveListener listener = archivedEntity.getListener();
+        final long start = System.nanoTime();
+        try {
+            bulk.execute();
+        } catch (RuntimeException e) {
+            listener.failed(archivedEntity.getType(), ArchiveStep.INSERT, e);
+            throw e;
+        }
+        if (listener != ArchiveListener.NONE) {
+            listener.inserted(archivedEntity.getType(), tasks.size(), BsonSize.of(stored), System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public DBObject find(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id,
+                         final long version) {
+        final String fieldName = archivedEntity.getFieldName();
+        final DBObject bucket = collection.findOne(
+                new BasicDBObject(ARCHIVE_ID, id).append(BUCKET, bucket(archivedEntity.getBucketSize(), version)),
+                new BasicDBObject(VERSIONS, new BasicDBObject("$elemMatch", new BasicDBObject(fieldName, version))));
+        if (bucket != null && bucket.get(VERSIONS) != null) {
+            for (final Object element : (List<?>) bucket.get(VERSIONS)) {
+                final DBObject archived = (DBObject) element;
+                final Object stored = archived.get(fieldName);
+                if (stored != null && ((Number) stored).longValue() == version) {
+                    archived.put(ARCHIVE_ID, id);
+                    return archived;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public CloseableIterator<DBObject> descending(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                                  final Object id, final long version) {
+        final String fieldName = archivedEntity.getFieldName();
+        final DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id)
+                .append(BUCKET, new BasicDBObject("$lte", bucket(archivedEntity.getBucketSize(), version))))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, -1));
+        return new CloseableIterator<DBObject>() {
+            private List<?> versions = Collections.emptyList();
+
+            private int index = -1;
+
+            private DBObject next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = advance();
+                return current;
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+
+            private DBObject advance() {
+                while (true) {
+                    while (index >= 0) {
+                        final DBObject archived = (DBObject) versions.get(index--);
+                        if (((Number) archived.get(fieldName)).longValue() <= version) {
+                            archived.put(ARCHIVE_ID, id);
+                            return archived;
+                        }
+                    }
+                    if (!cursor.hasNext()) {
+                        return null;
+                    }
+                    final Object bucket = cursor.next().get(VERSIONS);
+                    versions = bucket != null ? (List<?>) bucket : Collections.emptyList();
+                    index = versions.size() - 1;
+                }
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<DBObject> ascending(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                                 final Object id, final long from, final long to,
+                                                 final DBObject fields, final int batchSize) {
+        final String fieldName = archivedEntity.getFieldName();
+        final int bucketSize = archivedEntity.getBucketSize();
+        BasicDBObject projection = null;
+        if (fields != null) {
+            projection = new BasicDBObject();
+            for (final String field : fields.keySet()) {
+                projection.put(VERSIONS + "." + field, fields.get(field));
+            }
+        }
+        final DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id)
+                .append(BUCKET, new BasicDBObject("$gte", bucket(bucketSize, from))
+                        .append("$lte", bucket(bucketSize, to))), projection)
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, 1))
+                .batchSize(batchSize);
+        return new CloseableIterator<DBObject>() {
+            private List<?> versions = Collections.emptyList();
+
+            private int index;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    while (next == null && index < versions.size()) {
+                        final DBObject archived = (DBObject) versions.get(index++);
+                        final long version = ((Number) archived.get(fieldName)).longValue();
+                        if (version >= from && version <= to) {
+                            archived.put(ARCHIVE_ID, id);
+                            next = archived;
+                        }
+                    }
+                    if (next == null) {
+                        if (!cursor.hasNext()) {
+                            return false;
+                        }
+                        final Object bucket = cursor.next().get(VERSIONS);
+                        versions = bucket != null ? (List<?>) bucket : Collections.emptyList();
+                        index = 0;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    @Override
+    public void remove(final BulkWriteOperation bulk, final ArchivedEntity archivedEntity, final Object id,
+                       final long version) {
+        bulk.find(new BasicDBObject(ARCHIVE_ID, id))
+                .update(new BasicDBObject("$pull", new BasicDBObject(VERSIONS,
+                        new BasicDBObject(archivedEntity.getFieldName(), new BasicDBObject("$lte", version)))));
+        bulk.find(new BasicDBObject(ARCHIVE_ID, id).append(VERSIONS, new BasicDBObject("$size", 0)))
+                .remove();
+    }
+
+    @Override
+    public CloseableIterator<DBObject> scan(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                            final Object after, final int batchSize) {
+        final DBCursor cursor = collection.find(
+                after != null ? new BasicDBObject(ARCHIVE_ID, new BasicDBObject("$gt", after)) : new BasicDBObject(),
+                new BasicDBObject(ARCHIVE_ID, 1)
+                        .append(VERSIONS + "." + archivedEntity.getFieldName(), 1)
+                        .append(VERSIONS + "." + ARCHIVED_AT, 1))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, -1))
+                .hint(INDEX_NAME)
+                .batchSize(batchSize);
+        return new CloseableIterator<DBObject>() {
+            private Object id;
+
+            private List<?> versions = Collections.emptyList();
+
+            private int index = -1;
+
+            private DBObject next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = advance();
+                return current;
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+
+            private DBObject advance() {
+                while (index < 0) {
+                    if (!cursor.hasNext()) {
+                        return null;
+                    }
+                    final DBObject bucket = cursor.next();
+                    id = bucket.get(ARCHIVE_ID);
+                    versions = bucket.get(VERSIONS) != null ? (List<?>) bucket.get(VERSIONS) : Collections.emptyList();
+                    index = versions.size() - 1;
+                }
+                final DBObject archived = (DBObject) versions.get(index--);
+                archived.put(ARCHIVE_ID, id);
+                return archived;
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<DBObject> archivedBefore(final DBCollection collection,
+                                                      final ArchivedEntity archivedEntity, final Date cutoff,
+                                                      final int batchSize) {
+        final DBCursor cursor = collection.find(new BasicDBObject(VERSIONS + "." + ARCHIVED_AT,
+                new BasicDBObject("$lt", cutoff)))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, -1))
+                .batchSize(batchSize);
+        return new CloseableIterator<DBObject>() {
+            private Object id;
+
+            private List<?> versions = Collections.emptyList();
+
+            private int index = -1;
+
+            private DBObject next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = advance();
+                return current;
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+
+            private DBObject advance() {
+                while (true) {
+                    while (index >= 0) {
+                        final DBObject archived = (DBObject) versions.get(index--);
+                        final Object archivedAt = archived.get(ARCHIVED_AT);
+                        if (archivedAt instanceof Date && ((Date) archivedAt).before(cutoff)) {
+                            archived.put(ARCHIVE_ID, id);
+                            return archived;
+                        }
+                    }
+                    if (!cursor.hasNext()) {
+                        return null;
+                    }
+                    final DBObject bucket = cursor.next();
+                    id = bucket.get(ARCHIVE_ID);
+                    versions = bucket.get(VERSIONS) != null ? (List<?>) bucket.get(VERSIONS) : Collections.emptyList();
+                    index = versions.size() - 1;
+                }
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<DBObject> supersededAfter(final DBCollection collection,
+                                                       final ArchivedEntity archivedEntity, final Date instant,
+                                                       final DBObject ids, final int batchSize) {
+        final BasicDBObject query = new BasicDBObject(VERSIONS + "." + ARCHIVED_AT, new BasicDBObject("$gt", instant));
+        if (ids != null) {
+            query.append(ARCHIVE_ID, ids);
+        }
+        final DBCursor cursor = collection.find(query)
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(BUCKET, 1))
+                .batchSize(batchSize);
+        return new CloseableIterator<DBObject>() {
+            private Object last;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && cursor.hasNext()) {
+                    final DBObject bucket = cursor.next();
+                    final Object id = bucket.get(ARCHIVE_ID);
+                    if (last != null && last.equals(id) || bucket.get(VERSIONS) == null) {
+                        continue;
+                    }
+                    for (final Object element : (List<?>) bucket.get(VERSIONS)) {
+                        final DBObject archived = (DBObject) element;
+                        final Object archivedAt = archived.get(ARCHIVED_AT);
+                        if (archivedAt instanceof Date && ((Date) archivedAt).after(instant)) {
+                            archived.put(ARCHIVE_ID, id);
+                            last = id;
+                            next = archived;
+                            break;
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    @Override
+    public long count(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id) {
+        long count = 0;
+        try (DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id),
+                new BasicDBObject(VERSIONS + "." + archivedEntity.getFieldName(), 1))) {
+            for (final DBObject bucket : cursor) {
+                final Object versions = bucket.get(VERSIONS);
+                if (versions != null) {
+                    count += ((List<?>) versions).size();
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void remove(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id,
+                       final long version) {
+        collection.update(new BasicDBObject(ARCHIVE_ID, id),
+                new BasicDBObject("$pull", new BasicDBObject(VERSIONS,
+                        new BasicDBObject(archivedEntity.getFieldName(), new BasicDBObject("$lte", version)))),
+                false, true);
+        collection.remove(new BasicDBObject(ARCHIVE_ID, id).append(VERSIONS, new BasicDBObject("$size", 0)));
+    }
+
+    static long bucket(final int bucketSize, final long version) {
+        return bucketSize > 0 ? version / bucketSize : 0;
+    }
+}
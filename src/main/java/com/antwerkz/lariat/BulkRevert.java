@@ -0,0 +1,394 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.query.Query;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+
+/**
+ * Reverts every entity matching a query to an archived version, either a version number or the version current at
+ * an instant.  The matching entities are read in batches and, per batch, the target versions are read with
+ * {@code $in} queries, the restored versions are written with one unordered bulk write and the live versions which
+ * were replaced are archived with a single write per archive collection.  Each entity is only replaced if it is still
+ * at the version read so entities saved concurrently are counted as conflicts rather than overwritten, and their live
+ * versions are left for the concurrent save to archive.
+ * <p>
+ * Like {@link ArchiveInterceptor#revertToVersion(Object, long)} a reverted entity gets a new version number one past
+ * its live version and keeps the live values of the fields which are not archived.  Reverts are archived as they are
+ * made without {@link Archived#coalesceMillis()}, {@link Archived#archiveEvery()} or server side copies.
+ */
+public class BulkRevert<T> {
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final AtomicInteger POOLS = new AtomicInteger();
+
+    private static final Set<String> IGNORED = Collections.unmodifiableSet(
+            new HashSet<>(asList("_id", ARCHIVE_ID, ARCHIVED_AT, Fingerprint.FINGERPRINT)));
+
+    private final ArchiveInterceptor<T, ?> interceptor;
+
+    private final Query<T> query;
+
+    private long version = -1;
+
+    private Instant instant;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int parallelism = 1;
+
+    private Consumer<RevertProgress> listener;
+
+    BulkRevert(final ArchiveInterceptor<T, ?> interceptor, final Query<T> query) {
+        this.interceptor = interceptor;
+        this.query = query;
+    }
+
+    /**
+     * Reverts each entity to an archived version number.  Entities at or below that version, or whose version has been
+     * pruned, are left alone.
+     *
+     * @param version the version to revert to
+     * @return this
+     */
+    public BulkRevert<T> toVersion(final long version) {
+        if (version < 1) {
+            throw new IllegalArgumentException("The version to revert to must be at least 1: " + version);
+        }
+        this.version = version;
+        this.instant = null;
+        return this;
+    }
+
+    /**
+     * Reverts each entity to the version it had at an instant, i.e. the oldest version archived after it.  Entities
+     * which have not been saved since the instant are left alone.
+     *
+     * @param instant the point in time to revert to
+     * @return this
+     * @see ArchiveInterceptor#asOf(Class, Instant)
+     */
+    public BulkRevert<T> toInstant(final Instant instant) {
+        this.instant = Objects.requireNonNull(instant, "The instant to revert to must not be null");
+        this.version = -1;
+        return this;
+    }
+
+    /**
+     * Sets the number of entities read, and reverted, together.  The default is 1000.
+     *
+     * @param batchSize the batch size
+     * @return this
+     */
+    public BulkRevert<T> withBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of batches reverted at the same time.  Batches are read by the calling thread and handed to
+     * that many worker threads.  The default is 1 which reverts every batch on the calling thread.
+     *
+     * @param parallelism the number of batches reverted at the same time
+     * @return this
+     */
+    public BulkRevert<T> withParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets a listener which is given the progress after each batch.  The listener may be called from worker threads
+     * but never by two threads at once.
+     *
+     * @param listener the progress listener
+     * @return this
+     */
+    public BulkRevert<T> withProgress(final Consumer<RevertProgress> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Runs the revert and waits for it to complete.  If a batch fails no further batches are started and the failure
+     * is rethrown once the batches already running have finished.  Batches which completed stay reverted.
+     *
+     * @return the final progress
+     * @throws IllegalStateException if neither a target version nor an instant has been set
+     */
+    public RevertProgress execute() {
+        if (version < 0 && instant == null) {
+            throw new IllegalStateException("A version or an instant to revert to must be set");
+        }
+        final ArchivedEntity archivedEntity = interceptor.getArchivedEntity(query.getEntityClass());
+        if (!archivedEntity.isArchived()) {
+            throw new IllegalArgumentException(format("%s is not archived", query.getEntityClass().getName()));
+        }
+        final Counters counters = new Counters();
+        final DBCollection live = query.getCollection();
+        if (parallelism == 1) {
+            try (DBCursor cursor = find(live)) {
+                final List<DBObject> batch = new ArrayList<>(batchSize);
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() == batchSize || !cursor.hasNext()) {
+                        revert(archivedEntity, live, batch, counters);
+                        batch.clear();
+                    }
+                }
+            }
+            return counters.progress();
+        }
+
+        final int pool = POOLS.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread thread = new Thread(r, "lariat-revert-" + pool + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Semaphore running = new Semaphore(parallelism);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try (DBCursor cursor = find(live)) {
+            while (cursor.hasNext() && failure.get() == null) {
+                final List<DBObject> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && cursor.hasNext()) {
+                    batch.add(cursor.next());
+                }
+                running.acquire();
+                workers.execute(() -> {
+                    try {
+                        revert(archivedEntity, live, batch, counters);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        running.release();
+                    }
+                });
+            }
+            running.acquire(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reverting " + archivedEntity.getCollection(), e);
+        } finally {
+            workers.shutdown();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return counters.progress();
+    }
+
+    /**
+     * Reads the matching entities in id order so that entities reverted while the cursor is open are not read again.
+     */
+    private DBCursor find(final DBCollection live) {
+        return live.find(query.getQueryObject())
+                .sort(new BasicDBObject("_id", 1))
+                .batchSize(batchSize);
+    }
+
+    private void revert(final ArchivedEntity archivedEntity, final DBCollection live, final List<DBObject> batch,
+                        final Counters counters) {
+        final String fieldName = archivedEntity.getFieldName();
+        final List<Object> ids = new ArrayList<>(batch.size());
+        for (final DBObject current : batch) {
+            ids.add(current.get("_id"));
+        }
+        final Map<Object, DBObject> targets = targets(archivedEntity, ids);
+        final Map<Object, ArchiveTask> tasks = new LinkedHashMap<>();
+        final Map<Object, DBObject> replacements = new HashMap<>();
+        final BulkWriteOperation bulk = live.initializeUnorderedBulkOperation();
+        long missing = 0;
+        long unchanged = 0;
+        for (final DBObject current : batch) {
+            final Object id = current.get("_id");
+            final long currentVersion = ((Number) current.get(fieldName)).longValue();
+            final DBObject target = targets.get(id);
+            if (target == null || ((Number) target.get(fieldName)).longValue() >= currentVersion) {
+                missing++;
+                continue;
+            }
+            final DBObject restored = restore(archivedEntity, current, target, currentVersion + 1);
+            final DBObject prior = interceptor.toArchived(archivedEntity, current);
+            final DBObject stored = interceptor.encode(archivedEntity, prior, currentVersion, restored);
+            if (stored == null) {
+                unchanged++;
+                continue;
+            }
+            final ArchiveTask task = new ArchiveTask(archivedEntity, id, currentVersion, prior);
+            task.encode(stored);
+            tasks.put(id, task);
+            replacements.put(id, restored);
+            bulk.find(new BasicDBObject("_id", id).append(fieldName, currentVersion)).replaceOne(restored);
+        }
+        long reverted = 0;
+        if (!tasks.isEmpty()) {
+            try {
+                reverted = bulk.execute().getMatchedCount();
+            } catch (RuntimeException e) {
+                try {
+                    interceptor.write(matched(live, tasks, replacements));
+                } catch (RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                archivedEntity.getListener().failed(archivedEntity.getType(), ArchiveStep.REVERT, e);
+                throw e;
+            }
+            interceptor.write(reverted == tasks.size()
+                              ? new ArrayList<>(tasks.values())
+                              : matched(live, tasks, replacements));
+            archivedEntity.getListener().reverted(archivedEntity.getType(), reverted);
+        }
+        counters.add(batch.size(), reverted, missing, unchanged, tasks.size() - reverted);
+        if (listener != null) {
+            final RevertProgress progress = counters.progress();
+            synchronized (listener) {
+                listener.accept(progress);
+            }
+        }
+    }
+
+    /**
+     * Finds the entities whose replacement was applied when not all of them were.  The bulk write only reports how many
+     * replacements matched so the live documents are read back and compared to their replacements.  An entity saved
+     * again since its replacement can not be told apart from a conflict and its prior version is not archived.
+     *
+     * @return the archive tasks of the entities which were reverted
+     */
+    private List<ArchiveTask> matched(final DBCollection live, final Map<Object, ArchiveTask> tasks,
+                                      final Map<Object, DBObject> replacements) {
+        final List<ArchiveTask> matched = new ArrayList<>();
+        final DBObject ids = new BasicDBObject("$in", new ArrayList<>(replacements.keySet()));
+        try (DBCursor cursor = live.find(new BasicDBObject("_id", ids))) {
+            while (cursor.hasNext()) {
+                final DBObject saved = cursor.next();
+                if (saved.equals(replacements.get(saved.get("_id")))) {
+                    matched.add(tasks.get(saved.get("_id")));
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reads the version each entity is reverted to in a single call to the archive store.  Delta encoded versions are
+     * read one entity at a time when reverting to a version number.
+     *
+     * @return the target versions in document form by id
+     */
+    private Map<Object, DBObject> targets(final ArchivedEntity archivedEntity, final List<Object> ids) {
+        final ArchiveStore store = interceptor.getArchiveStore();
+        final Map<Object, DBObject> stored;
+        if (instant != null) {
+            stored = new HashMap<>();
+            try (CloseableIterator<DBObject> superseded = store.supersededAfter(archivedEntity, instant,
+                    new BasicDBObject("$in", ids), batchSize)) {
+                while (superseded.hasNext()) {
+                    final DBObject next = superseded.next();
+                    stored.put(next.get(ARCHIVE_ID), next);
+                }
+            }
+        } else if (!archivedEntity.isDeltaEncoded()) {
+            stored = store.find(archivedEntity, ids, version);
+        } else {
+            final Map<Object, DBObject> found = new HashMap<>();
+            for (final Object id : ids) {
+                final DBObject archived = interceptor.findArchived(archivedEntity, id, version);
+                if (archived != null) {
+                    found.put(id, archived);
+                }
+            }
+            return found;
+        }
+        final Map<Object, DBObject> targets = new HashMap<>();
+        for (final Entry<Object, DBObject> entry : stored.entrySet()) {
+            final DBObject decoded = interceptor.decode(archivedEntity, entry.getValue());
+            if (decoded != null) {
+                targets.put(entry.getKey(), decoded);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Builds the document replacing the live version from an archived version.
+     */
+    private DBObject restore(final ArchivedEntity archivedEntity, final DBObject current, final DBObject target,
+                             final long newVersion) {
+        final DBObject restored = new BasicDBObject("_id", current.get("_id"));
+        for (final String key : target.keySet()) {
+            if (!IGNORED.contains(key)) {
+                restored.put(key, target.get(key));
+            }
+        }
+        final Object className = current.get(Mapper.CLASS_NAME_FIELDNAME);
+        if (className != null && !restored.containsField(Mapper.CLASS_NAME_FIELDNAME)) {
+            restored.put(Mapper.CLASS_NAME_FIELDNAME, className);
+        }
+        archivedEntity.restoreUnarchived(current, restored);
+        restored.put(archivedEntity.getFieldName(), newVersion);
+        return restored;
+    }
+
+    private static class Counters {
+        private final long start = System.nanoTime();
+
+        private final AtomicLong scanned = new AtomicLong();
+
+        private final AtomicLong reverted = new AtomicLong();
+
+        private final AtomicLong missing = new AtomicLong();
+
+        private final AtomicLong unchanged = new AtomicLong();
+
+        private final AtomicLong conflicts = new AtomicLong();
+
+        void add(final long scanned, final long reverted, final long missing, final long unchanged,
+                 final long conflicts) {
+            this.reverted.addAndGet(reverted);
+            this.missing.addAndGet(missing);
+            this.unchanged.addAndGet(unchanged);
+            this.conflicts.addAndGet(conflicts);
+            this.scanned.addAndGet(scanned);
+        }
+
+        RevertProgress progress() {
+            return new RevertProgress(scanned.get(), reverted.get(), missing.get(), unchanged.get(), conflicts.get(),
+                    System.nanoTime() - start);
+        }
+    }
+}
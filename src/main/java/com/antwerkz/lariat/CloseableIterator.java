@@ -0,0 +1,158 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An iterator over archived versions, usually backed by a database cursor, which must be closed if it is not exhausted.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+    @Override
+    void close();
+
+    /**
+     * @return an iterator applying {@code mapping} to each element as it is read
+     */
+    default <R> CloseableIterator<R> map(final Function<? super T, ? extends R> mapping) {
+        final CloseableIterator<T> source = this;
+        return new CloseableIterator<R>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return mapping.apply(source.next());
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * @return a sequential stream over the remaining elements which closes this iterator when the stream is closed or
+     * the elements are exhausted
+     */
+    default Stream<T> stream() {
+        final CloseableIterator<T> source = this;
+        final Iterator<T> closing = new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                final boolean hasNext = source.hasNext();
+                if (!hasNext) {
+                    source.close();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                return source.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(closing,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(source::close);
+    }
+
+    /**
+     * @return an iterator over the documents of a cursor
+     */
+    static CloseableIterator<DBObject> of(final DBCursor cursor) {
+        return new CloseableIterator<DBObject>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public DBObject next() {
+                return cursor.next();
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over elements already read
+     */
+    static <T> CloseableIterator<T> of(final List<T> elements) {
+        final Iterator<T> iterator = elements.iterator();
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Iterates over each of the given iterators in turn.  Each iterator is only opened once the previous one is
+     * exhausted.
+     */
+    static <T> CloseableIterator<T> concat(final List<Supplier<CloseableIterator<T>>> iterators) {
+        return new CloseableIterator<T>() {
+            private final Iterator<Supplier<CloseableIterator<T>>> remaining = iterators.iterator();
+
+            private CloseableIterator<T> current;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || !current.hasNext()) {
+                    if (current != null) {
+                        current.close();
+                        current = null;
+                    }
+                    if (!remaining.hasNext()) {
+                        return false;
+                    }
+                    current = remaining.next().get();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void close() {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+            }
+        };
+    }
+}
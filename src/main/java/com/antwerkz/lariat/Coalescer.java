@@ -0,0 +1,63 @@
+package com.antwerkz.lariat;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which saves of an entity are archived when {@link Archived#coalesceMillis()} or
+ * {@link Archived#archiveEvery()} is set.  Archiving every Nth version only depends on the version number.  The time
+ * window is tracked per id in a concurrent map; entries are only needed while their window is open so the map is swept
+ * of expired entries as it grows.
+ */
+class Coalescer {
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final long windowNanos;
+
+    private final long every;
+
+    private final Map<Object, Long> lastArchived = new ConcurrentHashMap<>();
+
+    private final AtomicInteger puts = new AtomicInteger();
+
+    Coalescer(final long coalesceMillis, final long every) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+        this.every = every;
+    }
+
+    /**
+     * @param id      the id of the entity being saved
+     * @param version the version about to be archived
+     * @return true if this version should be archived
+     */
+    boolean shouldArchive(final Object id, final long version) {
+        if (every > 1 && version % every != 0) {
+            return false;
+        }
+        if (windowNanos <= 0) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        final boolean[] archive = new boolean[1];
+        lastArchived.compute(id, (key, last) -> {
+            archive[0] = last == null || now - last >= windowNanos;
+            return archive[0] ? now : last;
+        });
+        if (archive[0] && puts.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep(now);
+        }
+        return archive[0];
+    }
+
+    private void sweep(final long now) {
+        final Iterator<Long> iterator = lastArchived.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= windowNanos) {
+                iterator.remove();
+            }
+        }
+    }
+}
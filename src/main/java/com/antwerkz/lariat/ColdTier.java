@@ -0,0 +1,371 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BasicBSONEncoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+
+/**
+ * The segment files holding the cold versions of each archive collection, kept in a directory per collection.  Segments
+ * are numbered in the order they were written and, since versions are offloaded oldest first, a later segment only
+ * holds newer versions of an entity than an earlier one.  Segments are never modified: pruning appends the pruned
+ * versions to a {@value #PRUNED} log in the directory which reads consult, and whole segments are deleted once their
+ * newest version is older than {@link Archived#maxAgeSeconds()}.
+ */
+class ColdTier {
+    static final String PRUNED = "pruned.log";
+
+    private final Path directory;
+
+    private final Map<String, Segments> collections = new ConcurrentHashMap<>();
+
+    ColdTier(final Path directory) {
+        this.directory = directory;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    Segment.Writer writer(final ArchivedEntity archivedEntity, final int blockSize) {
+        return segments(archivedEntity).writer(archivedEntity, blockSize);
+    }
+
+    void add(final ArchivedEntity archivedEntity, final Segment segment) {
+        segments(archivedEntity).list.add(segment);
+    }
+
+    DBObject find(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final Segments segments = segments(archivedEntity);
+        if (version <= segments.prunedThrough(id)) {
+            return null;
+        }
+        for (final Segment segment : segments.list) {
+            final DBObject stored = segment.find(id, version);
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the cold versions of an entity at or below {@code version}, newest first
+     */
+    CloseableIterator<DBObject> descending(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final Segments segments = segments(archivedEntity);
+        final long pruned = segments.prunedThrough(id);
+        final List<Supplier<CloseableIterator<DBObject>>> sources = new ArrayList<>();
+        for (final Segment segment : segments.list) {
+            sources.add(0, () -> retained(segment, segment.descending(id, version), pruned));
+        }
+        return CloseableIterator.concat(sources);
+    }
+
+    /**
+     * @return the cold versions of an entity from {@code from} through {@code to}, oldest first
+     */
+    CloseableIterator<DBObject> ascending(final ArchivedEntity archivedEntity, final Object id, final long from,
+                                          final long to) {
+        final Segments segments = segments(archivedEntity);
+        final long pruned = segments.prunedThrough(id);
+        final List<Supplier<CloseableIterator<DBObject>>> sources = new ArrayList<>();
+        for (final Segment segment : segments.list) {
+            sources.add(() -> retained(segment, segment.ascending(id, from, to), pruned));
+        }
+        return CloseableIterator.concat(sources);
+    }
+
+    long count(final ArchivedEntity archivedEntity, final Object id) {
+        final Segments segments = segments(archivedEntity);
+        final long pruned = segments.prunedThrough(id);
+        long count = 0;
+        for (final Segment segment : segments.list) {
+            if (pruned < 0) {
+                count += segment.count(id);
+            } else {
+                try (CloseableIterator<DBObject> retained = retained(segment, segment.descending(id, Long.MAX_VALUE),
+                        pruned)) {
+                    while (retained.hasNext()) {
+                        retained.next();
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the oldest cold version of each entity archived after an instant.  Ids given with {@code $in} are looked up
+     * through the index, other conditions scan every segment.
+     *
+     * @return one version per entity ordered by archive id
+     */
+    CloseableIterator<DBObject> supersededAfter(final ArchivedEntity archivedEntity, final Instant instant,
+                                                final DBObject ids) {
+        final Segments segments = segments(archivedEntity);
+        final Date date = Date.from(instant);
+        final List<CloseableIterator<DBObject>> sources = new ArrayList<>();
+        for (final Segment segment : segments.list) {
+            final CloseableIterator<DBObject> versions;
+            if (ids != null && ids.keySet().size() == 1 && ids.get("$in") instanceof Collection) {
+                final TreeSet<Object> sorted = new TreeSet<>(PointInTime::compareIds);
+                sorted.addAll((Collection<?>) ids.get("$in"));
+                final List<Supplier<CloseableIterator<DBObject>>> lookups = new ArrayList<>();
+                for (final Object id : sorted) {
+                    lookups.add(() -> segment.descending(id, Long.MAX_VALUE));
+                }
+                versions = CloseableIterator.concat(lookups);
+            } else {
+                versions = segment.scan();
+            }
+            sources.add(oldestAfter(segments, segment, versions, date, ids));
+        }
+        return MergedVersions.oldestFirst(sources);
+    }
+
+    /**
+     * Records that the cold versions of an entity at or below {@code version} are pruned.
+     */
+    void prune(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        segments(archivedEntity).prune(id, version);
+    }
+
+    /**
+     * Deletes the segments whose newest version was archived more than {@link Archived#maxAgeSeconds()} ago.
+     *
+     * @return the paths of the deleted segments
+     */
+    List<String> dropExpired(final ArchivedEntity archivedEntity) {
+        final List<String> dropped = new ArrayList<>();
+        if (archivedEntity.getMaxAgeSeconds() > 0) {
+            final Date cutoff = Date.from(Instant.now().minusSeconds(archivedEntity.getMaxAgeSeconds()));
+            final Segments segments = segments(archivedEntity);
+            for (final Segment segment : segments.list) {
+                if (segment.getNewest() != null && segment.getNewest().before(cutoff)) {
+                    segments.list.remove(segment);
+                    try {
+                        Files.deleteIfExists(segment.getPath());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    dropped.add(segment.getPath().toString());
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private Segments segments(final ArchivedEntity archivedEntity) {
+        final Segments segments = collections.get(archivedEntity.getCollection());
+        return segments != null
+               ? segments
+               : collections.computeIfAbsent(archivedEntity.getCollection(),
+                       name -> new Segments(directory.resolve(name)));
+    }
+
+    /**
+     * Skips versions which have been pruned.
+     */
+    private static CloseableIterator<DBObject> retained(final Segment segment, final CloseableIterator<DBObject> source,
+                                                        final long pruned) {
+        return pruned < 0 ? source : new Filtered(source, stored -> segment.version(stored) > pruned);
+    }
+
+    /**
+     * Reduces the versions of each entity, newest first, to the oldest one archived after the instant.
+     */
+    private static CloseableIterator<DBObject> oldestAfter(final Segments segments, final Segment segment,
+                                                           final CloseableIterator<DBObject> versions,
+                                                           final Date instant, final DBObject ids) {
+        return new CloseableIterator<DBObject>() {
+            private DBObject pending;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    final DBObject stored = pending != null ? pending : versions.hasNext() ? versions.next() : null;
+                    pending = null;
+                    if (stored == null) {
+                        return false;
+                    }
+                    final Object id = stored.get(ARCHIVE_ID);
+                    if (!PointInTime.matches(id, ids)) {
+                        continue;
+                    }
+                    final long pruned = segments.prunedThrough(id);
+                    DBObject oldest = null;
+                    DBObject candidate = stored;
+                    while (candidate != null && PointInTime.compareIds(candidate.get(ARCHIVE_ID), id) == 0) {
+                        final Object archivedAt = candidate.get(ARCHIVED_AT);
+                        if (archivedAt instanceof Date && ((Date) archivedAt).after(instant)
+                            && segment.version(candidate) > pruned) {
+                            oldest = candidate;
+                        }
+                        candidate = versions.hasNext() ? versions.next() : null;
+                    }
+                    pending = candidate;
+                    next = oldest;
+                }
+                return true;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                versions.close();
+            }
+        };
+    }
+
+    /**
+     * The segments and pruned versions of one archive collection.
+     */
+    private static class Segments {
+        private final Path directory;
+
+        private final List<Segment> list = new CopyOnWriteArrayList<>();
+
+        private final Map<Object, Long> pruned = new ConcurrentSkipListMap<>(PointInTime::compareIds);
+
+        private long sequence;
+
+        Segments(final Path directory) {
+            this.directory = directory;
+            try {
+                Files.createDirectories(directory);
+                final List<Path> existing = new ArrayList<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Segment.SUFFIX)) {
+                    files.forEach(existing::add);
+                }
+                existing.sort(null);
+                for (final Path path : existing) {
+                    list.add(Segment.open(path));
+                    sequence = Math.max(sequence, sequence(path));
+                }
+                final Path log = directory.resolve(PRUNED);
+                if (Files.exists(log)) {
+                    final ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(log)).order(ByteOrder.LITTLE_ENDIAN);
+                    while (entries.remaining() >= Integer.BYTES) {
+                        final byte[] entry = new byte[entries.getInt(entries.position())];
+                        entries.get(entry);
+                        final DBObject pruning = new DefaultDBDecoder().decode(entry, (DBCollection) null);
+                        pruned.merge(pruning.get("id"), ((Number) pruning.get("v")).longValue(), Math::max);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized Segment.Writer writer(final ArchivedEntity archivedEntity, final int blockSize) {
+            final Path target = directory.resolve(format("%010d%s", ++sequence, Segment.SUFFIX));
+            return new Segment.Writer(target, archivedEntity.getFieldName(), blockSize);
+        }
+
+        long prunedThrough(final Object id) {
+            return pruned.getOrDefault(id, -1L);
+        }
+
+        synchronized void prune(final Object id, final long version) {
+            if (version <= prunedThrough(id)) {
+                return;
+            }
+            try {
+                Files.write(directory.resolve(PRUNED),
+                        new BasicBSONEncoder().encode(new BasicDBObject("id", id).append("v", version)),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pruned.merge(id, version, Math::max);
+        }
+
+        private static long sequence(final Path path) {
+            final String name = path.getFileName().toString();
+            try {
+                return Long.parseLong(name.substring(0, name.length() - Segment.SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static class Filtered implements CloseableIterator<DBObject> {
+        private final CloseableIterator<DBObject> source;
+
+        private final Predicate<DBObject> filter;
+
+        private DBObject next;
+
+        Filtered(final CloseableIterator<DBObject> source, final Predicate<DBObject> filter) {
+            this.source = source;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && source.hasNext()) {
+                final DBObject candidate = source.next();
+                if (filter.test(candidate)) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public DBObject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final DBObject current = next;
+            next = null;
+            return current;
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
+}
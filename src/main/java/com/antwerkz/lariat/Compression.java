@@ -0,0 +1,73 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Compression of archived versions.  The archive id and version field stay at the top level so the archive can still be
+ * queried and pruned while the rest of the version is BSON encoded and compressed into {@value #PAYLOAD}.
+ */
+final class Compression {
+    static final String PAYLOAD = "_z";
+
+    private Compression() {
+    }
+
+    static DBObject compress(final ArchivedEntity archivedEntity, final DBObject archived,
+                             final CompressionStats stats) {
+        final long start = System.nanoTime();
+        final String fieldName = archivedEntity.getFieldName();
+        final BasicDBObject payload = new BasicDBObject(archived.toMap());
+        final Object id = payload.remove(ARCHIVE_ID);
+        final Object version = payload.remove(fieldName);
+        final byte[] raw = new DefaultDBEncoder().encode(payload);
+        final byte[] compressed = archivedEntity.getCompression().compress(raw);
+        stats.compressed(raw.length, compressed.length, System.nanoTime() - start);
+        return new BasicDBObject(ARCHIVE_ID, id)
+                .append(fieldName, version)
+                .append(PAYLOAD, compressed);
+    }
+
+    /**
+     * Restores a compressed version.  Versions archived before compression was enabled are returned as they are.
+     */
+    static DBObject decompress(final ArchivedEntity archivedEntity, final DBObject stored,
+                               final CompressionStats stats) {
+        if (stored == null || !(stored.get(PAYLOAD) instanceof byte[])) {
+            return stored;
+        }
+        final long start = System.nanoTime();
+        final byte[] raw = archivedEntity.getCompression().decompress((byte[]) stored.get(PAYLOAD));
+        final DBObject archived = new DefaultDBDecoder().decode(raw, (DBCollection) null);
+        archived.put(ARCHIVE_ID, stored.get(ARCHIVE_ID));
+        archived.put(archivedEntity.getFieldName(), stored.get(archivedEntity.getFieldName()));
+        stats.decompressed(System.nanoTime() - start);
+        return archived;
+    }
+
+    static CloseableIterator<DBObject> decompress(final ArchivedEntity archivedEntity,
+                                                  final CloseableIterator<DBObject> stored,
+                                                  final CompressionStats stats) {
+        return new CloseableIterator<DBObject>() {
+            @Override
+            public boolean hasNext() {
+                return stored.hasNext();
+            }
+
+            @Override
+            public DBObject next() {
+                return decompress(archivedEntity, stored.next(), stats);
+            }
+
+            @Override
+            public void close() {
+                stored.close();
+            }
+        };
+    }
+}
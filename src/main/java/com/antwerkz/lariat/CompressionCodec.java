@@ -0,0 +1,20 @@
+package com.antwerkz.lariat;
+
+/**
+ * Compresses the serialized form of archived versions.  Implementations are configured with
+ * {@link Archived#compression()}, must have a public no argument constructor and must be safe to use from multiple
+ * threads.
+ */
+public interface CompressionCodec {
+    /**
+     * @param data the BSON encoded version
+     * @return the compressed bytes
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * @param data bytes produced by {@link #compress(byte[])}
+     * @return the BSON encoded version
+     */
+    byte[] decompress(byte[] data);
+}
@@ -0,0 +1,90 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how well archived versions compress and the time spent compressing and decompressing them.
+ */
+public class CompressionStats {
+    private final AtomicLong compressed = new AtomicLong();
+
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    private final AtomicLong decompressed = new AtomicLong();
+
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    void compressed(final long raw, final long stored, final long nanos) {
+        compressed.incrementAndGet();
+        rawBytes.addAndGet(raw);
+        compressedBytes.addAndGet(stored);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void decompressed(final long nanos) {
+        decompressed.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of versions compressed
+     */
+    public long getCompressedVersions() {
+        return compressed.get();
+    }
+
+    /**
+     * @return the number of versions decompressed
+     */
+    public long getDecompressedVersions() {
+        return decompressed.get();
+    }
+
+    /**
+     * @return the total size of the compressed versions before compression
+     */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /**
+     * @return the total size of the compressed versions after compression
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return the raw size divided by the compressed size or 0 if nothing has been compressed yet
+     */
+    public double getRatio() {
+        final long stored = compressedBytes.get();
+        return stored == 0 ? 0 : (double) rawBytes.get() / stored;
+    }
+
+    /**
+     * @return the average time in nanoseconds spent serializing and compressing a version
+     */
+    public long getCompressNanosPerVersion() {
+        final long count = compressed.get();
+        return count == 0 ? 0 : compressNanos.get() / count;
+    }
+
+    /**
+     * @return the average time in nanoseconds spent decompressing and deserializing a version
+     */
+    public long getDecompressNanosPerVersion() {
+        final long count = decompressed.get();
+        return count == 0 ? 0 : decompressNanos.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionStats{versions=%d, ratio=%.2f, compressNanos=%d, decompressNanos=%d}",
+                getCompressedVersions(), getRatio(), getCompressNanosPerVersion(), getDecompressNanosPerVersion());
+    }
+}
@@ -0,0 +1,45 @@
+package com.antwerkz.lariat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor running asynchronous archive operations when none is configured.  On a JVM with virtual threads each
+ * task runs on its own virtual thread.  The factory method is looked up reflectively so the library still runs on Java
+ * 8, where tasks run on a shared, unbounded pool of daemon threads instead.
+ */
+final class DefaultExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultExecutor.class);
+
+    private DefaultExecutor() {
+    }
+
+    static Executor get() {
+        return Holder.EXECUTOR;
+    }
+
+    static Executor create() {
+        try {
+            final Executor virtual = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOG.debug("Running asynchronous archive operations on virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Virtual threads are not available.  Running asynchronous archive operations on a thread pool.");
+            final AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, "lariat-async-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Holder {
+        private static final Executor EXECUTOR = create();
+    }
+}
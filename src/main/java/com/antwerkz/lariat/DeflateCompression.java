@@ -0,0 +1,69 @@
+package com.antwerkz.lariat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses archived versions with the JDK's {@link Deflater}.
+ */
+public class DeflateCompression implements CompressionCodec {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int level;
+
+    public DeflateCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the deflate compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateCompression(final int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid deflate compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte[] compress(final byte[] data) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(final byte[] data) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                final int read = inflater.inflate(buffer);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated deflate payload");
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt deflate payload: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.util.Arrays.asList;
+
+/**
+ * Delta encoding of archived versions.  Every archived version carries, in {@value #NEXT}, the field level changes
+ * which turn it into the version that replaced it.  Every {@link Archived#keyframeInterval()} versions a keyframe
+ * holding the full document is stored as well, so any version can be rebuilt by applying the changes forward from the
+ * nearest keyframe at or below it.
+ */
+final class Deltas {
+    static final String KEYFRAME = "_kf";
+
+    static final String NEXT = "_next";
+
+    static final String OP = "op";
+
+    static final String PATH = "path";
+
+    static final String VALUE = "value";
+
+    static final String SET = "set";
+
+    static final String UNSET = "unset";
+
+    static final String PUSH = "push";
+
+    private static final Set<String> IGNORED = Collections.unmodifiableSet(
+            new HashSet<>(asList("_id", ARCHIVE_ID, KEYFRAME, NEXT)));
+
+    private Deltas() {
+    }
+
+    /**
+     * @return true if the given version is stored as a keyframe.  Version 1 and every {@code interval} versions after it
+     * are keyframes.
+     */
+    static boolean isKeyframe(final long interval, final long version) {
+        return version < 1 || (version - 1) % interval == 0;
+    }
+
+    /**
+     * @return the keyframe needed to rebuild the given version
+     */
+    static long keyframeFor(final long interval, final long version) {
+        return version < 1 ? version : version - (version - 1) % interval;
+    }
+
+    /**
+     * Encodes an archived version.
+     *
+     * @param archivedEntity the archive configuration
+     * @param archived       the prior version in document form
+     * @param version        the version being archived
+     * @param incoming       the document replacing the prior version
+     * @return the version to store
+     */
+    static DBObject encode(final ArchivedEntity archivedEntity, final DBObject archived, final long version,
+                           final DBObject incoming) {
+        final String fieldName = archivedEntity.getFieldName();
+        final List<DBObject> next = diff(archived, incoming, fieldName);
+        if (isKeyframe(archivedEntity.getKeyframeInterval(), version)) {
+            archived.put(KEYFRAME, true);
+            archived.put(NEXT, next);
+            return archived;
+        }
+        return new BasicDBObject(ARCHIVE_ID, archived.get(ARCHIVE_ID))
+                .append(fieldName, archived.get(fieldName))
+                .append(NEXT, next);
+    }
+
+    /**
+     * Rebuilds a version from the archived versions at or below it, newest first.
+     *
+     * @return the version in document form or null if it can not be rebuilt
+     */
+    static DBObject decode(final String fieldName, final long version, final Iterator<DBObject> descending) {
+        final List<DBObject> chain = new ArrayList<>();
+        long expected = version;
+        while (descending.hasNext()) {
+            final DBObject entry = descending.next();
+            if (((Number) entry.get(fieldName)).longValue() != expected) {
+                return null;
+            }
+            if (Boolean.TRUE.equals(entry.get(KEYFRAME))) {
+                final DBObject state = copy(entry);
+                if (!chain.isEmpty()) {
+                    apply(state, entry.get(NEXT));
+                    for (int i = chain.size() - 1; i > 0; i--) {
+                        apply(state, chain.get(i).get(NEXT));
+                    }
+                }
+                state.removeField("_id");
+                state.removeField(KEYFRAME);
+                state.removeField(NEXT);
+                state.put(fieldName, version);
+                return state;
+            }
+            chain.add(entry);
+            expected--;
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds consecutive versions by applying the changes forward from each keyframe.  Only the version being rebuilt
+     * is held in memory.  Versions which can not be rebuilt because their keyframe or an intermediate version is
+     * missing are skipped.
+     *
+     * @param from      the oldest version to return
+     * @param ascending the archived versions, oldest first, starting at or before the keyframe of {@code from}
+     * @return the rebuilt versions in document form, oldest first
+     */
+    static CloseableIterator<DBObject> ascending(final String fieldName, final long from,
+                                                 final CloseableIterator<DBObject> ascending) {
+        return new CloseableIterator<DBObject>() {
+            private DBObject state;
+
+            private long version;
+
+            private Object changes;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && ascending.hasNext()) {
+                    final DBObject entry = ascending.next();
+                    final long current = ((Number) entry.get(fieldName)).longValue();
+                    if (Boolean.TRUE.equals(entry.get(KEYFRAME))) {
+                        state = copy(entry);
+                    } else if (state != null && current == version + 1) {
+                        apply(state, changes);
+                    } else {
+                        state = null;
+                    }
+                    version = current;
+                    changes = entry.get(NEXT);
+                    if (state != null && current >= from) {
+                        next = copy(state);
+                        next.removeField("_id");
+                        next.removeField(KEYFRAME);
+                        next.removeField(NEXT);
+                        next.put(fieldName, current);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                ascending.close();
+            }
+        };
+    }
+
+    /**
+     * Computes the changes which turn {@code from} into {@code to}, ignoring ids and the version field.
+     */
+    static List<DBObject> diff(final DBObject from, final DBObject to, final String fieldName) {
+        final List<DBObject> ops = new ArrayList<>();
+        if (to != null) {
+            diff("", from, to, fieldName, ops);
+        }
+        return ops;
+    }
+
+    private static void diff(final String prefix, final DBObject from, final DBObject to, final String fieldName,
+                             final List<DBObject> ops) {
+        for (final String key : from.keySet()) {
+            if (!ignored(prefix, key, fieldName) && !to.containsField(key)) {
+                ops.add(new BasicDBObject(OP, UNSET).append(PATH, prefix + key));
+            }
+        }
+        for (final String key : to.keySet()) {
+            if (ignored(prefix, key, fieldName)) {
+                continue;
+            }
+            final String path = prefix + key;
+            final Object before = from.get(key);
+            final Object after = to.get(key);
+            if (!from.containsField(key)) {
+                ops.add(new BasicDBObject(OP, SET).append(PATH, path).append(VALUE, after));
+            } else if (before instanceof List && after instanceof List) {
+                diffList(path, (List<?>) before, (List<?>) after, ops);
+            } else if (before instanceof DBObject && after instanceof DBObject) {
+                diff(path + ".", (DBObject) before, (DBObject) after, fieldName, ops);
+            } else if (!same(before, after)) {
+                ops.add(new BasicDBObject(OP, SET).append(PATH, path).append(VALUE, after));
+            }
+        }
+    }
+
+    private static void diffList(final String path, final List<?> before, final List<?> after,
+                                 final List<DBObject> ops) {
+        if (after.size() >= before.size() && same(before, after.subList(0, before.size()))) {
+            if (after.size() > before.size()) {
+                ops.add(new BasicDBObject(OP, PUSH).append(PATH, path)
+                        .append(VALUE, new ArrayList<>(after.subList(before.size(), after.size()))));
+            }
+        } else {
+            ops.add(new BasicDBObject(OP, SET).append(PATH, path).append(VALUE, after));
+        }
+    }
+
+    private static boolean ignored(final String prefix, final String key, final String fieldName) {
+        return prefix.isEmpty() && (IGNORED.contains(key) || key.equals(fieldName));
+    }
+
+    private static boolean same(final Object before, final Object after) {
+        if (before instanceof byte[] && after instanceof byte[]) {
+            return Arrays.equals((byte[]) before, (byte[]) after);
+        }
+        if (before instanceof List && after instanceof List) {
+            final List<?> first = (List<?>) before;
+            final List<?> second = (List<?>) after;
+            if (first.size() != second.size()) {
+                return false;
+            }
+            for (int i = 0; i < first.size(); i++) {
+                if (!same(first.get(i), second.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.equals(before, after);
+    }
+
+    private static void apply(final DBObject state, final Object ops) {
+        if (ops == null) {
+            return;
+        }
+        for (final Object element : (List<?>) ops) {
+            final DBObject op = (DBObject) element;
+            final String[] path = ((String) op.get(PATH)).split("\\.");
+            DBObject parent = state;
+            for (int i = 0; i < path.length - 1; i++) {
+                Object child = parent.get(path[i]);
+                if (!(child instanceof DBObject) || child instanceof List) {
+                    child = new BasicDBObject();
+                    parent.put(path[i], child);
+                }
+                parent = (DBObject) child;
+            }
+            final String key = path[path.length - 1];
+            final String type = (String) op.get(OP);
+            if (UNSET.equals(type)) {
+                parent.removeField(key);
+            } else if (PUSH.equals(type)) {
+                final BasicDBList list = new BasicDBList();
+                final Object existing = parent.get(key);
+                if (existing instanceof List) {
+                    list.addAll((List<?>) existing);
+                }
+                list.addAll((List<?>) copyValue(op.get(VALUE)));
+                parent.put(key, list);
+            } else {
+                parent.put(key, copyValue(op.get(VALUE)));
+            }
+        }
+    }
+
+    /**
+     * Copies embedded documents and lists as well so applying changes to the copy never alters a version already
+     * returned or a stored entry.
+     */
+    static DBObject copy(final DBObject dbObject) {
+        final BasicDBObject copy = new BasicDBObject();
+        for (final String key : dbObject.keySet()) {
+            copy.put(key, copyValue(dbObject.get(key)));
+        }
+        return copy;
+    }
+
+    private static Object copyValue(final Object value) {
+        if (value instanceof List) {
+            final BasicDBList list = new BasicDBList();
+            for (final Object element : (List<?>) value) {
+                list.add(copyValue(element));
+            }
+            return list;
+        }
+        return value instanceof DBObject ? copy((DBObject) value) : value;
+    }
+}
@@ -0,0 +1,245 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Stores each archived version as its own document under a unique index on the archive id and version.
+ */
+class DocumentLayout implements VersionLayout {
+    static final String INDEX_NAME = "archiveId";
+
+    static final String ARCHIVED_AT_INDEX = "archivedAt";
+
+    @Override
+    public void createIndexes(final DBCollection collection, final ArchivedEntity archivedEntity) {
+        collection.createIndex(new BasicDBObject(ARCHIVE_ID, 1).append(archivedEntity.getFieldName(), -1),
+                new BasicDBObject("name", INDEX_NAME).append("unique", true));
+        collection.createIndex(new BasicDBObject(ARCHIVE_ID, 1).append(ARCHIVED_AT, 1),
+                new BasicDBObject("name", ARCHIVED_AT_INDEX));
+    }
+
+    @Override
+    public void dropIndexes(final DBCollection collection) {
+        VersionLayout.dropIndex(collection, INDEX_NAME);
+        VersionLayout.dropIndex(collection, ARCHIVED_AT_INDEX);
+    }
+
+    @Override
+    public void write(final DBCollection collection, final ArchivedEntity archivedEntity, final List<ArchiveTask> tasks) {
+        final List<DBObject> archived = new ArrayList<>();
+        final Map<Object, Long> versions = new LinkedHashMap<>();
+        for (final ArchiveTask task : tasks) {
+            archived.add(task.getArchived());
+            versions.put(task.getId(), task.getVersion());
+        }
+        final ArchiveListener listener = archivedEntity.getListener();
+        final long start = System.nanoTime();
+        try {
+            collection.insert(archived, collection.getWriteConcern().continueOnError(true));
+            if (listener != ArchiveListener.NONE) {
+                listener.inserted(archivedEntity.getType(), archived.size(), BsonSize.of(archived),
+                        System.nanoTime() - start);
+            }
+        } catch (RuntimeException e) {
+            listener.failed(archivedEntity.getType(), ArchiveStep.INSERT, e);
+            if (!ArchiveMetrics.isDuplicateKey(e)) {
+                throw e;
+            }
+            // versions already archived, e.g. by a retried write, are kept and the rest were inserted regardless
+        }
+        prune(collection, archivedEntity, versions);
+    }
+
+    /**
+     * Removes the versions which fall out of the retained history.  Ids whose archived version is not due for pruning
+     * per {@link Archived#pruneEvery()} are skipped.
+     *
+     * @param versions the newest archived version of each id
+     */
+    void prune(final DBCollection collection, final ArchivedEntity archivedEntity, final Map<Object, Long> versions) {
+        final ArchiveListener listener = archivedEntity.getListener();
+        final long start = System.nanoTime();
+        try {
+            final List<DBObject> prunes = prunes(collection, archivedEntity, versions);
+            if (!prunes.isEmpty()) {
+                final WriteResult result = collection.remove(prunes.size() == 1
+                                                             ? prunes.get(0)
+                                                             : new BasicDBObject("$or", prunes));
+                if (listener != ArchiveListener.NONE) {
+                    listener.pruned(archivedEntity.getType(),
+                            result.getLastConcern().callGetLastError() ? result.getN() : -1,
+                            System.nanoTime() - start);
+                }
+            }
+        } catch (RuntimeException e) {
+            listener.failed(archivedEntity.getType(), ArchiveStep.PRUNE, e);
+            throw e;
+        }
+    }
+
+    private List<DBObject> prunes(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                  final Map<Object, Long> versions) {
+        final List<DBObject> prunes = new ArrayList<>();
+        for (final Entry<Object, Long> entry : versions.entrySet()) {
+            if (!archivedEntity.shouldPrune(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            final long cutoff = archivedEntity.hasVersionGaps()
+                                ? countCutoff(collection, archivedEntity, entry.getKey())
+                                : archivedEntity.pruneThrough(entry.getValue());
+            if (cutoff >= 0) {
+                prunes.add(new BasicDBObject(ARCHIVE_ID, entry.getKey())
+                        .append(archivedEntity.getFieldName(), new BasicDBObject("$lte", cutoff)));
+            }
+        }
+        return prunes;
+    }
+
+    /**
+     * Skipping unchanged or coalesced saves leaves gaps in the archived version numbers so retention has to count the
+     * archived versions rather than go by version number.
+     *
+     * @return the newest version beyond the retained count or -1 if there is none
+     */
+    private long countCutoff(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id) {
+        final String fieldName = archivedEntity.getFieldName();
+        try (DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id), new BasicDBObject(fieldName, 1))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, -1))
+                .skip((int) archivedEntity.getCount())
+                .limit(1)) {
+            return cursor.hasNext() ? ((Number) cursor.next().get(fieldName)).longValue() : -1;
+        }
+    }
+
+    @Override
+    public DBObject find(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id,
+                         final long version) {
+        return collection.findOne(new BasicDBObject(ARCHIVE_ID, id).append(archivedEntity.getFieldName(), version));
+    }
+
+    @Override
+    public CloseableIterator<DBObject> descending(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                                  final Object id, final long version) {
+        final String fieldName = archivedEntity.getFieldName();
+        final DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id)
+                                                        .append(fieldName, new BasicDBObject("$lte", version)))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, -1))
+                .batchSize(Math.max(archivedEntity.getKeyframeInterval(), 1) + 1);
+        return CloseableIterator.of(cursor);
+    }
+
+    @Override
+    public CloseableIterator<DBObject> ascending(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                                 final Object id, final long from, final long to,
+                                                 final DBObject fields, final int batchSize) {
+        final String fieldName = archivedEntity.getFieldName();
+        final DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, id)
+                                                        .append(fieldName, new BasicDBObject("$gte", from)
+                                                                .append("$lte", to)), fields)
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, 1))
+                .batchSize(batchSize);
+        return CloseableIterator.of(cursor);
+    }
+
+    @Override
+    public void remove(final BulkWriteOperation bulk, final ArchivedEntity archivedEntity, final Object id,
+                       final long version) {
+        bulk.find(new BasicDBObject(ARCHIVE_ID, id)
+                .append(archivedEntity.getFieldName(), new BasicDBObject("$lte", version)))
+                .remove();
+    }
+
+    @Override
+    public CloseableIterator<DBObject> scan(final DBCollection collection, final ArchivedEntity archivedEntity,
+                                            final Object after, final int batchSize) {
+        final String fieldName = archivedEntity.getFieldName();
+        return CloseableIterator.of(collection.find(
+                after != null ? new BasicDBObject(ARCHIVE_ID, new BasicDBObject("$gt", after)) : new BasicDBObject(),
+                new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, 1).append(ARCHIVED_AT, 1))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(fieldName, -1))
+                .hint(INDEX_NAME)
+                .batchSize(batchSize));
+    }
+
+    @Override
+    public CloseableIterator<DBObject> archivedBefore(final DBCollection collection,
+                                                      final ArchivedEntity archivedEntity, final Date cutoff,
+                                                      final int batchSize) {
+        return CloseableIterator.of(collection.find(new BasicDBObject(ARCHIVED_AT, new BasicDBObject("$lt", cutoff)))
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(archivedEntity.getFieldName(), -1))
+                .batchSize(batchSize));
+    }
+
+    @Override
+    public CloseableIterator<DBObject> supersededAfter(final DBCollection collection,
+                                                       final ArchivedEntity archivedEntity, final Date instant,
+                                                       final DBObject ids, final int batchSize) {
+        final BasicDBObject query = new BasicDBObject(ARCHIVED_AT, new BasicDBObject("$gt", instant));
+        if (ids != null) {
+            query.append(ARCHIVE_ID, ids);
+        }
+        final CloseableIterator<DBObject> archived = CloseableIterator.of(collection.find(query)
+                .sort(new BasicDBObject(ARCHIVE_ID, 1).append(ARCHIVED_AT, 1))
+                .batchSize(batchSize));
+        return new CloseableIterator<DBObject>() {
+            private Object last;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && archived.hasNext()) {
+                    final DBObject candidate = archived.next();
+                    if (last == null || !last.equals(candidate.get(ARCHIVE_ID))) {
+                        last = candidate.get(ARCHIVE_ID);
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                archived.close();
+            }
+        };
+    }
+
+    @Override
+    public long count(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id) {
+        return collection.count(new BasicDBObject(ARCHIVE_ID, id));
+    }
+
+    @Override
+    public void remove(final DBCollection collection, final ArchivedEntity archivedEntity, final Object id,
+                       final long version) {
+        collection.remove(new BasicDBObject(ARCHIVE_ID, id)
+                .append(archivedEntity.getFieldName(), new BasicDBObject("$lte", version)));
+    }
+}
@@ -0,0 +1,118 @@
+package com.antwerkz.lariat;
+
+/**
+ * The archive path metrics of one entity class at a point in time.
+ *
+ * @see ArchiveMetrics#snapshot()
+ */
+public class EntityMetrics {
+    private final Class<?> type;
+
+    private final LatencySnapshot fetch;
+
+    private final LatencySnapshot insert;
+
+    private final LatencySnapshot prune;
+
+    private final long versionsArchived;
+
+    private final long bytesArchived;
+
+    private final long documentsPruned;
+
+    private final long reverts;
+
+    private final long errors;
+
+    private final long duplicateKeys;
+
+    EntityMetrics(final Class<?> type, final LatencySnapshot fetch, final LatencySnapshot insert,
+                  final LatencySnapshot prune, final long versionsArchived, final long bytesArchived,
+                  final long documentsPruned, final long reverts, final long errors, final long duplicateKeys) {
+        this.type = type;
+        this.fetch = fetch;
+        this.insert = insert;
+        this.prune = prune;
+        this.versionsArchived = versionsArchived;
+        this.bytesArchived = bytesArchived;
+        this.documentsPruned = documentsPruned;
+        this.reverts = reverts;
+        this.errors = errors;
+        this.duplicateKeys = duplicateKeys;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return the time taken reading prior versions
+     */
+    public LatencySnapshot getFetch() {
+        return fetch;
+    }
+
+    /**
+     * @return the time taken writing archived versions
+     */
+    public LatencySnapshot getInsert() {
+        return insert;
+    }
+
+    /**
+     * @return the time taken removing versions which fell out of the retained history
+     */
+    public LatencySnapshot getPrune() {
+        return prune;
+    }
+
+    /**
+     * @return the number of versions written
+     */
+    public long getVersionsArchived() {
+        return versionsArchived;
+    }
+
+    /**
+     * @return the size of the versions written as stored
+     */
+    public long getBytesArchived() {
+        return bytesArchived;
+    }
+
+    /**
+     * @return the number of archive documents removed by retention
+     */
+    public long getDocumentsPruned() {
+        return documentsPruned;
+    }
+
+    /**
+     * @return the number of entities reverted
+     */
+    public long getReverts() {
+        return reverts;
+    }
+
+    /**
+     * @return the number of failed steps, including duplicate keys
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of failed steps caused by a duplicate key, typically an archived version written twice
+     */
+    public long getDuplicateKeys() {
+        return duplicateKeys;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntityMetrics{type=%s, fetch=%s, insert=%s, prune=%s, versionsArchived=%d, "
+                + "bytesArchived=%d, documentsPruned=%d, reverts=%d, errors=%d, duplicateKeys=%d}", type.getName(),
+                fetch, insert, prune, versionsArchived, bytesArchived, documentsPruned, reverts, errors,
+                duplicateKeys);
+    }
+}
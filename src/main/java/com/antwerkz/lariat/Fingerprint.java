@@ -0,0 +1,87 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+
+import java.util.Arrays;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * A content fingerprint of a version: a 64 bit hash over the BSON encoding of its archived fields, ignoring the id and
+ * the version field.  The hash is stored with each archived version in {@value #FINGERPRINT}.  Two fingerprints only
+ * match if their encoded content is identical so a hash collision can never hide a change.
+ */
+final class Fingerprint {
+    static final String FINGERPRINT = "_fp";
+
+    private static final long M = 0xc6a4a7935bd1e995L;
+
+    private static final int R = 47;
+
+    private static final long SEED = 0x9747b28cL;
+
+    private final long hash;
+
+    private final byte[] content;
+
+    private Fingerprint(final byte[] content) {
+        this.content = content;
+        this.hash = hash(content);
+    }
+
+    /**
+     * Fingerprints either a live document or an archived version.
+     */
+    static Fingerprint of(final ArchivedEntity archivedEntity, final DBObject dbObject) {
+        final String fieldName = archivedEntity.getFieldName();
+        final DBObject projected = archivedEntity.project(dbObject);
+        final BasicDBObject content = new BasicDBObject();
+        for (final String key : projected.keySet()) {
+            if (!key.equals("_id") && !key.equals(ARCHIVE_ID) && !key.equals(FINGERPRINT) && !key.equals(fieldName)) {
+                content.put(key, projected.get(key));
+            }
+        }
+        return new Fingerprint(new DefaultDBEncoder().encode(content));
+    }
+
+    long getHash() {
+        return hash;
+    }
+
+    boolean matches(final Fingerprint other) {
+        return hash == other.hash && Arrays.equals(content, other.content);
+    }
+
+    /**
+     * MurmurHash64A
+     */
+    static long hash(final byte[] data) {
+        long h = SEED ^ (data.length * M);
+        final int blocks = data.length / 8;
+        for (int i = 0; i < blocks; i++) {
+            long k = 0;
+            for (int b = 7; b >= 0; b--) {
+                k = k << 8 | data[i * 8 + b] & 0xff;
+            }
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        final int offset = blocks * 8;
+        final int remaining = data.length - offset;
+        if (remaining > 0) {
+            for (int i = remaining - 1; i >= 0; i--) {
+                h ^= (long) (data[offset + i] & 0xff) << 8 * i;
+            }
+            h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
@@ -0,0 +1,245 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BasicBSONEncoder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+
+/**
+ * Keeps archived versions in memory, e.g. to test or benchmark archiving without a database.  Versions are held
+ * encoded as BSON, one per version whatever the {@link Archived#layout()}, so every read returns a new document just
+ * like a database would.  Retention follows {@link Archived#count()} and {@link Archived#pruneEvery()} and versions
+ * older than {@link Archived#maxAgeSeconds()} are removed whenever an entity is archived.  Nothing survives the
+ * process.
+ */
+public class InMemoryArchiveStore extends ArchiveStore {
+    private final Map<String, ConcurrentNavigableMap<Object, NavigableMap<Long, byte[]>>> archives =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void prepare(final ArchivedEntity archivedEntity) {
+        archive(archivedEntity);
+    }
+
+    @Override
+    public void write(final ArchivedEntity archivedEntity, final List<ArchiveTask> tasks) {
+        final Map<Object, Long> newest = new HashMap<>();
+        for (final ArchiveTask task : tasks) {
+            final NavigableMap<Long, byte[]> versions = versions(archivedEntity, task.getId());
+            synchronized (versions) {
+                versions.putIfAbsent(task.getVersion(), new BasicBSONEncoder().encode(task.getArchived()));
+            }
+            newest.merge(task.getId(), task.getVersion(), Math::max);
+        }
+        for (final Entry<Object, Long> entry : newest.entrySet()) {
+            final NavigableMap<Long, byte[]> versions = versions(archivedEntity, entry.getKey());
+            synchronized (versions) {
+                if (archivedEntity.isExpiring()) {
+                    expire(archivedEntity, versions);
+                }
+                if (archivedEntity.shouldPrune(entry.getKey(), entry.getValue())) {
+                    final long cutoff = archivedEntity.hasVersionGaps()
+                                        ? countCutoff(archivedEntity, versions)
+                                        : archivedEntity.pruneThrough(entry.getValue());
+                    versions.headMap(cutoff, true).clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public DBObject find(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final NavigableMap<Long, byte[]> versions = archive(archivedEntity).get(id);
+        if (versions == null) {
+            return null;
+        }
+        final byte[] stored;
+        synchronized (versions) {
+            stored = versions.get(version);
+        }
+        return stored != null ? decode(stored) : null;
+    }
+
+    @Override
+    public Map<Object, DBObject> find(final ArchivedEntity archivedEntity, final Collection<?> ids,
+                                      final long version) {
+        final Map<Object, DBObject> found = new HashMap<>();
+        for (final Object id : ids) {
+            final DBObject stored = find(archivedEntity, id, version);
+            if (stored != null) {
+                found.put(id, stored);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public CloseableIterator<DBObject> descending(final ArchivedEntity archivedEntity, final Object id,
+                                                  final long version) {
+        return read(archivedEntity, id, versions -> versions.headMap(version, true).descendingMap(), null);
+    }
+
+    @Override
+    public CloseableIterator<DBObject> ascending(final ArchivedEntity archivedEntity, final Object id,
+                                                 final long from, final long to, final DBObject fields,
+                                                 final int batchSize) {
+        return read(archivedEntity, id, versions -> versions.subMap(from, true, to, true), fields);
+    }
+
+    @Override
+    public CloseableIterator<DBObject> supersededAfter(final ArchivedEntity archivedEntity, final Instant instant,
+                                                       final DBObject ids, final int batchSize) {
+        final Date date = Date.from(instant);
+        final Iterator<Entry<Object, NavigableMap<Long, byte[]>>> entities = archive(archivedEntity).entrySet()
+                .iterator();
+        return new CloseableIterator<DBObject>() {
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entities.hasNext()) {
+                    final Entry<Object, NavigableMap<Long, byte[]>> entity = entities.next();
+                    if (!PointInTime.matches(entity.getKey(), ids)) {
+                        continue;
+                    }
+                    final List<byte[]> versions;
+                    synchronized (entity.getValue()) {
+                        versions = new ArrayList<>(entity.getValue().values());
+                    }
+                    for (final byte[] stored : versions) {
+                        final DBObject candidate = decode(stored);
+                        final Object at = candidate.get(ARCHIVED_AT);
+                        if (at instanceof Date && ((Date) at).after(date)) {
+                            next = candidate;
+                            break;
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public long count(final ArchivedEntity archivedEntity, final Object id) {
+        final NavigableMap<Long, byte[]> versions = archive(archivedEntity).get(id);
+        if (versions == null) {
+            return 0;
+        }
+        synchronized (versions) {
+            return versions.size();
+        }
+    }
+
+    @Override
+    public void prune(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final NavigableMap<Long, byte[]> versions = archive(archivedEntity).get(id);
+        if (versions != null) {
+            synchronized (versions) {
+                versions.headMap(version, true).clear();
+            }
+        }
+    }
+
+    private ConcurrentNavigableMap<Object, NavigableMap<Long, byte[]>> archive(final ArchivedEntity archivedEntity) {
+        return archives.computeIfAbsent(archivedEntity.getCollection(),
+                name -> new ConcurrentSkipListMap<>(PointInTime::compareIds));
+    }
+
+    private NavigableMap<Long, byte[]> versions(final ArchivedEntity archivedEntity, final Object id) {
+        return archive(archivedEntity).computeIfAbsent(id, key -> new TreeMap<>());
+    }
+
+    /**
+     * Reads a copy of a range of versions so the iterator is not affected by versions archived or pruned meanwhile.
+     */
+    private CloseableIterator<DBObject> read(final ArchivedEntity archivedEntity, final Object id,
+                                             final Function<NavigableMap<Long, byte[]>, Map<Long, byte[]>> range,
+                                             final DBObject fields) {
+        final NavigableMap<Long, byte[]> versions = archive(archivedEntity).get(id);
+        final List<byte[]> selected = new ArrayList<>();
+        if (versions != null) {
+            synchronized (versions) {
+                selected.addAll(range.apply(versions).values());
+            }
+        }
+        final Iterator<byte[]> iterator = selected.iterator();
+        return new CloseableIterator<DBObject>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public DBObject next() {
+                final DBObject stored = decode(iterator.next());
+                if (fields != null) {
+                    stored.keySet().removeIf(key -> !key.equals("_id") && !fields.containsField(key));
+                }
+                return stored;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static void expire(final ArchivedEntity archivedEntity, final NavigableMap<Long, byte[]> versions) {
+        final Date cutoff = new Date(System.currentTimeMillis() - archivedEntity.getMaxAgeSeconds() * 1000);
+        versions.values().removeIf(stored -> {
+            final Object at = decode(stored).get(ARCHIVED_AT);
+            return at instanceof Date && ((Date) at).before(cutoff);
+        });
+    }
+
+    /**
+     * @return the newest version beyond the retained count or -1 if there is none
+     */
+    private static long countCutoff(final ArchivedEntity archivedEntity, final NavigableMap<Long, byte[]> versions) {
+        long retained = 0;
+        for (final Long version : versions.descendingKeySet()) {
+            if (++retained > archivedEntity.getCount()) {
+                return version;
+            }
+        }
+        return -1;
+    }
+
+    private static DBObject decode(final byte[] stored) {
+        return new DefaultDBDecoder().decode(stored, (DBCollection) null);
+    }
+}
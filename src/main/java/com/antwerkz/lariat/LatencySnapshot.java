@@ -0,0 +1,91 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The distribution of the durations of one step of the archive path at a point in time.  Percentiles are the upper
+ * bound of the power of two bucket the percentile falls in so they overstate the real value by less than a factor of
+ * two.
+ */
+public class LatencySnapshot {
+    private final long[] counts;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    LatencySnapshot(final long[] counts, final long totalNanos, final long maxNanos) {
+        this.counts = counts;
+        long sum = 0;
+        for (final long bucket : counts) {
+            sum += bucket;
+        }
+        this.count = sum;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the durations in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the mean duration in nanoseconds or 0 if none were recorded
+     */
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @return the longest duration in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return an upper bound of the duration in nanoseconds below which the percentile of durations fall, at most the
+     * longest duration, or 0 if none were recorded
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : Math.min(maxNanos, i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{count=%d, meanMicros=%d, p50Micros=%d, p99Micros=%d, maxMicros=%d}", count,
+                micros(getMeanNanos()), micros(getPercentileNanos(50)), micros(getPercentileNanos(99)),
+                micros(maxNanos));
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,40 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in power of two buckets, so recording is a couple of striped additions without
+ * allocating and percentiles are accurate to within a factor of two.  Bucket {@code i} counts values in
+ * {@code [2^(i-1), 2^i)}, bucket 0 counts zeros.
+ */
+final class Log2Histogram {
+    static final int BUCKETS = Long.SIZE;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Log2Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    LatencySnapshot snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return new LatencySnapshot(snapshot, total.sum(), max.get());
+    }
+}
@@ -0,0 +1,73 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Merges several point in time scans, each ordered by archive id, into one.  When more than one source holds a version
+ * of the same entity the version from the earliest source is kept, so sources are given oldest first.
+ */
+final class MergedVersions implements CloseableIterator<DBObject> {
+    private final List<Peeking> sources = new ArrayList<>();
+
+    private MergedVersions(final List<CloseableIterator<DBObject>> sources) {
+        for (final CloseableIterator<DBObject> source : sources) {
+            this.sources.add(new Peeking(source));
+        }
+    }
+
+    /**
+     * @param sources the scans to merge, oldest first
+     * @return one version per entity ordered by archive id
+     */
+    static CloseableIterator<DBObject> oldestFirst(final List<CloseableIterator<DBObject>> sources) {
+        return sources.size() == 1 ? sources.get(0) : new MergedVersions(sources);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return oldest() != null;
+    }
+
+    @Override
+    public DBObject next() {
+        final Peeking from = oldest();
+        if (from == null) {
+            throw new NoSuchElementException();
+        }
+        final DBObject archived = from.next();
+        for (final Peeking source : sources) {
+            while (source.peek() != null
+                   && PointInTime.compareIds(source.peek().get(ARCHIVE_ID), archived.get(ARCHIVE_ID)) == 0) {
+                source.next();
+            }
+        }
+        return archived;
+    }
+
+    @Override
+    public void close() {
+        sources.forEach(Peeking::close);
+    }
+
+    /**
+     * @return the source whose next version has the lowest archive id, preferring earlier sources, or null if every
+     * source is exhausted
+     */
+    private Peeking oldest() {
+        Peeking oldest = null;
+        for (final Peeking source : sources) {
+            final DBObject head = source.peek();
+            if (head != null && (oldest == null
+                                 || PointInTime.compareIds(head.get(ARCHIVE_ID), oldest.peek().get(ARCHIVE_ID)) < 0)) {
+                oldest = source;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,291 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.mongodb.morphia.Datastore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.util.Collections.singletonList;
+
+/**
+ * Stores archived versions in MongoDB collections named after {@link Archived#collection()}, laid out per
+ * {@link Archived#layout()} and, with {@link Archived#partitionBy()}, split over time partitions.  By default the
+ * archive lives in the same database as the entities.  Given the database of another {@code MongoClient} the archive
+ * can live on a separate cluster, optionally with its own write concern, so archive inserts and prunes do not compete
+ * with the live workload.  Server side copies are only made when the archive is in the same database as the entities.
+ */
+public class MongoArchiveStore extends ArchiveStore {
+    static final String EXPIRY_INDEX = "archiveExpiry";
+
+    private final DB db;
+
+    private final WriteConcern writeConcern;
+
+    private final Map<String, Partitions> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the archive in the database of a datastore.
+     */
+    public MongoArchiveStore(final Datastore datastore) {
+        this(datastore.getDB(), null);
+    }
+
+    /**
+     * Stores the archive in a database using the database's write concern.
+     */
+    public MongoArchiveStore(final DB db) {
+        this(db, null);
+    }
+
+    /**
+     * Stores the archive in a database.
+     *
+     * @param writeConcern the write concern of archive inserts and prunes or null to use the database's
+     */
+    public MongoArchiveStore(final DB db, final WriteConcern writeConcern) {
+        this.db = db;
+        this.writeConcern = writeConcern;
+    }
+
+    /**
+     * @return the database holding the archive
+     */
+    public DB getDB() {
+        return db;
+    }
+
+    /**
+     * @return the write concern of archive writes or null if the database's is used
+     */
+    public WriteConcern getWriteConcern() {
+        return writeConcern;
+    }
+
+    DBCollection collection(final String name) {
+        final DBCollection collection = db.getCollection(name);
+        if (writeConcern != null && !writeConcern.equals(collection.getWriteConcern())) {
+            collection.setWriteConcern(writeConcern);
+        }
+        return collection;
+    }
+
+    @Override
+    public void prepare(final ArchivedEntity archivedEntity) {
+        if (archivedEntity.isPartitioned()) {
+            final Partitions existing = partitions.get(archivedEntity.getCollection());
+            if (existing != null) {
+                existing.createIndexes();
+            } else {
+                partitions.computeIfAbsent(archivedEntity.getCollection(), name -> open(archivedEntity));
+            }
+            return;
+        }
+        final DBCollection collection = archiveCollection(archivedEntity);
+        archivedEntity.getVersionLayout().createIndexes(collection, archivedEntity);
+        createExpiryIndex(collection, archivedEntity);
+    }
+
+    /**
+     * Creates the TTL index expiring archived versions, updates its expiry if {@link Archived#maxAgeSeconds()} has
+     * changed or drops it if versions no longer expire.
+     */
+    private void createExpiryIndex(final DBCollection collection, final ArchivedEntity archivedEntity) {
+        final long maxAge = archivedEntity.getMaxAgeSeconds();
+        for (final DBObject index : collection.getIndexInfo()) {
+            if (EXPIRY_INDEX.equals(index.get("name"))) {
+                final Object expiry = index.get("expireAfterSeconds");
+                if (maxAge == 0) {
+                    VersionLayout.dropIndex(collection, EXPIRY_INDEX);
+                } else if (!(expiry instanceof Number) || ((Number) expiry).longValue() != maxAge) {
+                    collection.getDB().command(new BasicDBObject("collMod", collection.getName())
+                            .append("index", new BasicDBObject("keyPattern", new BasicDBObject(ARCHIVED_AT, 1))
+                                    .append("expireAfterSeconds", maxAge)))
+                            .throwOnError();
+                }
+                return;
+            }
+        }
+        if (maxAge > 0) {
+            collection.createIndex(new BasicDBObject(ARCHIVED_AT, 1),
+                    new BasicDBObject("name", EXPIRY_INDEX).append("expireAfterSeconds", maxAge));
+        }
+    }
+
+    @Override
+    public void write(final ArchivedEntity archivedEntity, final List<ArchiveTask> tasks) {
+        archivedEntity.getVersionLayout().write(archiveCollection(archivedEntity), archivedEntity, tasks);
+    }
+
+    @Override
+    public DBObject find(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final List<DBCollection> searched = archiveCollections(archivedEntity);
+        final DBObject stored = find(searched, archivedEntity, id, version);
+        return stored != null || !archivedEntity.isPartitioned()
+               ? stored
+               : find(partitions(archivedEntity).missed(searched), archivedEntity, id, version);
+    }
+
+    private DBObject find(final List<DBCollection> collections, final ArchivedEntity archivedEntity, final Object id,
+                          final long version) {
+        for (final DBCollection collection : collections) {
+            final DBObject stored = archivedEntity.getVersionLayout().find(collection, archivedEntity, id, version);
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Versions stored as documents are read with a single {@code $in} query per archive collection, versions stored
+     * in buckets one entity at a time.
+     */
+    @Override
+    public Map<Object, DBObject> find(final ArchivedEntity archivedEntity, final Collection<?> ids,
+                                      final long version) {
+        final Map<Object, DBObject> found = new HashMap<>();
+        if (archivedEntity.getLayout() != StorageLayout.DOCUMENT) {
+            for (final Object id : ids) {
+                final DBObject stored = find(archivedEntity, id, version);
+                if (stored != null) {
+                    found.put(id, stored);
+                }
+            }
+            return found;
+        }
+        final List<DBCollection> searched = archiveCollections(archivedEntity);
+        find(searched, archivedEntity, ids, version, found);
+        if (found.size() < ids.size() && archivedEntity.isPartitioned()) {
+            find(partitions(archivedEntity).missed(searched), archivedEntity, ids, version, found);
+        }
+        return found;
+    }
+
+    private void find(final List<DBCollection> collections, final ArchivedEntity archivedEntity,
+                      final Collection<?> ids, final long version, final Map<Object, DBObject> found) {
+        for (final DBCollection collection : collections) {
+            try (DBCursor cursor = collection.find(new BasicDBObject(ARCHIVE_ID, new BasicDBObject("$in", ids))
+                                                           .append(archivedEntity.getFieldName(), version))
+                    .batchSize(ids.size())) {
+                for (final DBObject stored : cursor) {
+                    found.putIfAbsent(stored.get(ARCHIVE_ID), stored);
+                }
+            }
+        }
+    }
+
+    @Override
+    public CloseableIterator<DBObject> descending(final ArchivedEntity archivedEntity, final Object id,
+                                                  final long version) {
+        final List<Supplier<CloseableIterator<DBObject>>> collections = new ArrayList<>();
+        for (final DBCollection collection : archiveCollections(archivedEntity)) {
+            collections.add(() -> archivedEntity.getVersionLayout().descending(collection, archivedEntity, id,
+                    version));
+        }
+        return CloseableIterator.concat(collections);
+    }
+
+    @Override
+    public CloseableIterator<DBObject> ascending(final ArchivedEntity archivedEntity, final Object id,
+                                                 final long from, final long to, final DBObject fields,
+                                                 final int batchSize) {
+        final List<Supplier<CloseableIterator<DBObject>>> collections = new ArrayList<>();
+        for (final DBCollection collection : archiveCollections(archivedEntity)) {
+            collections.add(0, () -> archivedEntity.getVersionLayout().ascending(collection, archivedEntity, id,
+                    from, to, fields, batchSize));
+        }
+        return CloseableIterator.concat(collections);
+    }
+
+    /**
+     * Only the partitions whose period ends after the instant are read.  Their versions are merged by archive id
+     * keeping the version from the oldest partition.
+     */
+    @Override
+    public CloseableIterator<DBObject> supersededAfter(final ArchivedEntity archivedEntity, final Instant instant,
+                                                       final DBObject ids, final int batchSize) {
+        final List<DBCollection> collections = archivedEntity.isPartitioned()
+                                               ? partitions(archivedEntity).endingAfter(instant)
+                                               : archiveCollections(archivedEntity);
+        final List<CloseableIterator<DBObject>> sources = new ArrayList<>();
+        for (final DBCollection collection : collections) {
+            sources.add(archivedEntity.getVersionLayout()
+                    .supersededAfter(collection, archivedEntity, Date.from(instant), ids, batchSize));
+        }
+        return MergedVersions.oldestFirst(sources);
+    }
+
+    @Override
+    public long count(final ArchivedEntity archivedEntity, final Object id) {
+        long count = 0;
+        for (final DBCollection collection : archiveCollections(archivedEntity)) {
+            count += archivedEntity.getVersionLayout().count(collection, archivedEntity, id);
+        }
+        return count;
+    }
+
+    @Override
+    public void prune(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        for (final DBCollection collection : archiveCollections(archivedEntity)) {
+            archivedEntity.getVersionLayout().remove(collection, archivedEntity, id, version);
+        }
+    }
+
+    /**
+     * Drops the archive partitions whose period ended more than {@link Archived#maxAgeSeconds()} ago.
+     */
+    @Override
+    public List<String> dropExpired() {
+        final List<String> dropped = new ArrayList<>();
+        for (final Partitions partitioned : partitions.values()) {
+            dropped.addAll(partitioned.dropExpired());
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the collection new versions are archived into
+     */
+    DBCollection archiveCollection(final ArchivedEntity archivedEntity) {
+        return archivedEntity.isPartitioned()
+               ? partitions(archivedEntity).current()
+               : collection(archivedEntity.getCollection());
+    }
+
+    /**
+     * @return the collections holding archived versions, newest first
+     */
+    List<DBCollection> archiveCollections(final ArchivedEntity archivedEntity) {
+        return archivedEntity.isPartitioned()
+               ? partitions(archivedEntity).newestFirst()
+               : singletonList(collection(archivedEntity.getCollection()));
+    }
+
+    private Partitions partitions(final ArchivedEntity archivedEntity) {
+        final Partitions partitioned = partitions.get(archivedEntity.getCollection());
+        return partitioned != null
+               ? partitioned
+               : partitions.computeIfAbsent(archivedEntity.getCollection(), name -> open(archivedEntity));
+    }
+
+    private Partitions open(final ArchivedEntity archivedEntity) {
+        final Partitions partitioned = new Partitions(this, archivedEntity);
+        partitioned.dropExpired();
+        return partitioned;
+    }
+}
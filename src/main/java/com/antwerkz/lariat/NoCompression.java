@@ -0,0 +1,16 @@
+package com.antwerkz.lariat;
+
+/**
+ * The default codec.  Archived versions are stored as plain documents.
+ */
+public final class NoCompression implements CompressionCodec {
+    @Override
+    public byte[] compress(final byte[] data) {
+        return data;
+    }
+
+    @Override
+    public byte[] decompress(final byte[] data) {
+        return data;
+    }
+}
@@ -0,0 +1,19 @@
+package com.antwerkz.lariat;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field which is never copied into the archive, e.g. large blobs, caches or derived values.  Archived versions
+ * take the field's value from the current entity when they are loaded or reverted to.
+ *
+ * @see Archived#exclude()
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NotArchived {
+}
@@ -0,0 +1,80 @@
+package com.antwerkz.lariat;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The period covered by each archive collection when archives are partitioned by time.  Periods are in UTC and name
+ * their collection after the archive collection with the period appended, e.g. {@code records_archive_2026_10}.
+ */
+public enum PartitionPeriod {
+    /**
+     * All versions are archived in a single collection.
+     */
+    NONE(null, 0),
+    /**
+     * One collection per day, e.g. {@code records_archive_2026_10_18}.
+     */
+    DAY(ChronoUnit.DAYS, 3),
+    /**
+     * One collection per month, e.g. {@code records_archive_2026_10}.
+     */
+    MONTH(ChronoUnit.MONTHS, 2),
+    /**
+     * One collection per year, e.g. {@code records_archive_2026}.
+     */
+    YEAR(ChronoUnit.YEARS, 1);
+
+    private final ChronoUnit unit;
+
+    private final int fields;
+
+    PartitionPeriod(final ChronoUnit unit, final int fields) {
+        this.unit = unit;
+        this.fields = fields;
+    }
+
+    /**
+     * @return the name of the partition holding versions archived at {@code instant}
+     */
+    String partition(final String collection, final Instant instant) {
+        final LocalDate date = instant.atZone(ZoneOffset.UTC).toLocalDate();
+        final String suffix = String.format("%04d_%02d_%02d", date.getYear(), date.getMonthValue(),
+                date.getDayOfMonth());
+        return collection + "_" + suffix.substring(0, 4 + (fields - 1) * 3);
+    }
+
+    /**
+     * @return the first day of the period a partition covers or null if the name is not a partition of the collection
+     */
+    LocalDate start(final String collection, final String partition) {
+        if (!partition.startsWith(collection + "_")) {
+            return null;
+        }
+        final String[] parts = partition.substring(collection.length() + 1).split("_");
+        if (parts.length != fields) {
+            return null;
+        }
+        final int[] values = {0, 1, 1};
+        for (int i = 0; i < parts.length; i++) {
+            if (!parts[i].matches("\\d{" + (i == 0 ? 4 : 2) + "}")) {
+                return null;
+            }
+            values[i] = Integer.parseInt(parts[i]);
+        }
+        try {
+            return LocalDate.of(values[0], values[1], values[2]);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the instant the period starting on {@code start} ends
+     */
+    Instant end(final LocalDate start) {
+        return start.plus(1, unit).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+}
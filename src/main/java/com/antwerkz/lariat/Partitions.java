@@ -0,0 +1,177 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBCollection;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the time partitioned archive collections of an entity.  Versions are written to the partition of the current
+ * period, whose indexes are created the first time it is written to.  Reads go through every partition, newest first,
+ * followed by the unpartitioned archive collection if versions were archived there before partitioning was enabled.
+ * Retention drops whole partitions once their period ended more than {@link Archived#maxAgeSeconds()} ago.
+ * <p>
+ * Partitions opened by other processes are found by listing the collections again, at most once a second, whenever
+ * the partition of the current period is not known yet or a lookup misses.  Until then a process may not see versions
+ * another process archived into a partition it has not seen.
+ */
+class Partitions {
+    private static final long REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final MongoArchiveStore store;
+
+    private final ArchivedEntity archivedEntity;
+
+    private final Map<String, DBCollection> opened = new ConcurrentHashMap<>();
+
+    private volatile List<String> known = Collections.emptyList();
+
+    private volatile long refreshed;
+
+    Partitions(final MongoArchiveStore store, final ArchivedEntity archivedEntity) {
+        this.store = store;
+        this.archivedEntity = archivedEntity;
+        refresh();
+    }
+
+    /**
+     * @return the partition to archive into, creating its indexes and dropping expired partitions when a new period
+     * opens
+     */
+    DBCollection current() {
+        final String name = archivedEntity.getPartitionPeriod().partition(archivedEntity.getCollection(),
+                Instant.now());
+        final DBCollection collection = opened.get(name);
+        return collection != null ? collection : opened.computeIfAbsent(name, this::open);
+    }
+
+    private DBCollection open(final String name) {
+        final DBCollection collection = store.collection(name);
+        archivedEntity.getVersionLayout().createIndexes(collection, archivedEntity);
+        dropExpired();
+        return collection;
+    }
+
+    /**
+     * @return the archive collections holding versions of this entity, newest first
+     */
+    List<DBCollection> newestFirst() {
+        final String current = archivedEntity.getPartitionPeriod().partition(archivedEntity.getCollection(),
+                Instant.now());
+        if (!known.contains(current)) {
+            refreshIfStale();
+        }
+        final List<DBCollection> collections = new ArrayList<>();
+        for (final String name : known) {
+            collections.add(store.collection(name));
+        }
+        return collections;
+    }
+
+    /**
+     * Lists the partitions again after a lookup missed in case another process has opened one since.
+     *
+     * @param searched the collections the lookup already searched
+     * @return the collections the lookup has not searched, newest first
+     */
+    List<DBCollection> missed(final List<DBCollection> searched) {
+        final List<DBCollection> missed = new ArrayList<>();
+        if (refreshIfStale()) {
+            final Set<String> names = new HashSet<>();
+            for (final DBCollection collection : searched) {
+                names.add(collection.getName());
+            }
+            for (final DBCollection collection : newestFirst()) {
+                if (!names.contains(collection.getName())) {
+                    missed.add(collection);
+                }
+            }
+        }
+        return missed;
+    }
+
+    private boolean refreshIfStale() {
+        if (System.currentTimeMillis() - refreshed > REFRESH_MILLIS) {
+            refresh();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the collections which may hold versions archived after {@code instant}, oldest first
+     */
+    List<DBCollection> endingAfter(final Instant instant) {
+        final PartitionPeriod period = archivedEntity.getPartitionPeriod();
+        final List<DBCollection> collections = new ArrayList<>();
+        for (final DBCollection collection : newestFirst()) {
+            final LocalDate start = period.start(archivedEntity.getCollection(), collection.getName());
+            if (start == null || period.end(start).isAfter(instant)) {
+                collections.add(0, collection);
+            }
+        }
+        return collections;
+    }
+
+    /**
+     * Creates the indexes of every existing partition.
+     */
+    void createIndexes() {
+        refresh();
+        for (final DBCollection collection : newestFirst()) {
+            archivedEntity.getVersionLayout().createIndexes(collection, archivedEntity);
+        }
+    }
+
+    /**
+     * Drops every partition whose period ended more than {@link Archived#maxAgeSeconds()} ago.
+     *
+     * @return the names of the dropped partitions
+     */
+    List<String> dropExpired() {
+        final List<String> dropped = new ArrayList<>();
+        final long maxAge = archivedEntity.getMaxAgeSeconds();
+        if (maxAge > 0) {
+            final Instant cutoff = Instant.now().minusSeconds(maxAge);
+            final PartitionPeriod period = archivedEntity.getPartitionPeriod();
+            for (final String name : store.getDB().getCollectionNames()) {
+                final LocalDate start = period.start(archivedEntity.getCollection(), name);
+                if (start != null && !period.end(start).isAfter(cutoff)) {
+                    store.getDB().getCollection(name).drop();
+                    opened.remove(name);
+                    dropped.add(name);
+                }
+            }
+        }
+        refresh();
+        return dropped;
+    }
+
+    private void refresh() {
+        final String base = archivedEntity.getCollection();
+        final PartitionPeriod period = archivedEntity.getPartitionPeriod();
+        final List<String> partitions = new ArrayList<>();
+        boolean unpartitioned = false;
+        for (final String name : store.getDB().getCollectionNames()) {
+            if (name.equals(base)) {
+                unpartitioned = true;
+            } else if (period.start(base, name) != null) {
+                partitions.add(name);
+            }
+        }
+        partitions.sort(Collections.reverseOrder());
+        if (unpartitioned) {
+            partitions.add(base);
+        }
+        known = Collections.unmodifiableList(partitions);
+        refreshed = System.currentTimeMillis();
+    }
+}
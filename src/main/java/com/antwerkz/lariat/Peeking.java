@@ -0,0 +1,46 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+
+/**
+ * An iterator which can look at its next element without consuming it.
+ */
+class Peeking implements CloseableIterator<DBObject> {
+    private final CloseableIterator<DBObject> source;
+
+    private DBObject head;
+
+    Peeking(final CloseableIterator<DBObject> source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the next element without consuming it or null if there are no more
+     */
+    DBObject peek() {
+        if (head == null && source.hasNext()) {
+            head = source.next();
+        }
+        return head;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peek() != null;
+    }
+
+    /**
+     * @return the next element or null if there are no more
+     */
+    @Override
+    public DBObject next() {
+        final DBObject next = peek();
+        head = null;
+        return next;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
@@ -0,0 +1,225 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+
+/**
+ * Reconstructs the state of every entity of a class at an instant.  The live collection, sorted by id, is merged in a
+ * single pass with the version of each entity which was current at the instant, i.e. the oldest version archived
+ * after it.  Entities with such a version are returned in that version, the others as they are now.  Only one document
+ * per cursor is held at a time.  The scan can be split into ranges of ids which are merged independently.
+ */
+class PointInTime {
+    private final ArchivedEntity archivedEntity;
+
+    private final DBCollection live;
+
+    private final Function<DBObject, CloseableIterator<DBObject>> archives;
+
+    private final Date instant;
+
+    private final int batchSize;
+
+    private final Function<DBObject, DBObject> restore;
+
+    /**
+     * @param archives  reads, for a condition on the archive id, the oldest version of each entity archived after the
+     *                  instant ordered by archive id
+     * @param batchSize the number of documents fetched per round trip
+     * @param restore   turns a version as stored in the archive into its document form or null if it can not be
+     *                  rebuilt
+     */
+    PointInTime(final ArchivedEntity archivedEntity, final DBCollection live,
+                final Function<DBObject, CloseableIterator<DBObject>> archives, final Date instant, final int batchSize,
+                final Function<DBObject, DBObject> restore) {
+        this.archivedEntity = archivedEntity;
+        this.live = live;
+        this.archives = archives;
+        this.instant = instant;
+        this.batchSize = batchSize;
+        this.restore = restore;
+    }
+
+    /**
+     * Splits the live collection into up to {@code parallelism} ranges of ids of about the same size.  The first and
+     * last ranges are open ended so entities which only exist in the archive are covered as well.
+     *
+     * @return conditions on the id selecting each range
+     */
+    List<DBObject> split(final int parallelism) {
+        final List<DBObject> ranges = new ArrayList<>();
+        final long count = live.count();
+        Object lower = null;
+        for (int i = 1; i < parallelism; i++) {
+            try (DBCursor cursor = live.find(new BasicDBObject(), new BasicDBObject("_id", 1))
+                    .sort(new BasicDBObject("_id", 1))
+                    .skip((int) (count * i / parallelism))
+                    .limit(1)) {
+                if (!cursor.hasNext()) {
+                    break;
+                }
+                final Object boundary = cursor.next().get("_id");
+                if (lower == null || compareIds(lower, boundary) < 0) {
+                    ranges.add(range(lower, boundary));
+                    lower = boundary;
+                }
+            }
+        }
+        ranges.add(range(lower, null));
+        return ranges;
+    }
+
+    private static DBObject range(final Object lower, final Object upper) {
+        if (lower == null && upper == null) {
+            return null;
+        }
+        final BasicDBObject range = new BasicDBObject();
+        if (lower != null) {
+            range.put("$gte", lower);
+        }
+        if (upper != null) {
+            range.put("$lt", upper);
+        }
+        return range;
+    }
+
+    /**
+     * Reconstructs the entities in a range of ids.
+     *
+     * @param ids a condition on the id or null to reconstruct every entity
+     * @return the entities as they were at the instant in document form, ordered by id.  Entities whose version at
+     * the instant can no longer be rebuilt are left out.
+     */
+    CloseableIterator<DBObject> scan(final DBObject ids) {
+        final Peeking current = new Peeking(CloseableIterator.of(live.find(ids != null ? new BasicDBObject("_id", ids)
+                                                                          : new BasicDBObject())
+                .sort(new BasicDBObject("_id", 1))
+                .batchSize(batchSize)));
+        final Peeking archived = new Peeking(archives.apply(ids));
+        return new CloseableIterator<DBObject>() {
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    final DBObject state = current.peek();
+                    final DBObject version = archived.peek();
+                    if (state == null && version == null) {
+                        return false;
+                    }
+                    final int order = state == null ? 1
+                                      : version == null ? -1
+                                      : compareIds(state.get("_id"), version.get(ARCHIVE_ID));
+                    if (order < 0) {
+                        next = current.next();
+                    } else {
+                        next = restore(archived.next(), order == 0 ? current.next() : null);
+                    }
+                    if (next != null && !existed(next.get("_id"))) {
+                        next = null;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject state = next;
+                next = null;
+                return state;
+            }
+
+            @Override
+            public void close() {
+                current.close();
+                archived.close();
+            }
+        };
+    }
+
+    private DBObject restore(final DBObject stored, final DBObject current) {
+        final DBObject archived = restore.apply(stored);
+        if (archived == null) {
+            return null;
+        }
+        archived.put("_id", archived.removeField(ARCHIVE_ID));
+        archived.removeField(Fingerprint.FINGERPRINT);
+        archived.removeField(ARCHIVED_AT);
+        if (current != null) {
+            archivedEntity.restoreUnarchived(current, archived);
+        }
+        return archived;
+    }
+
+    /**
+     * Ids generated as {@link ObjectId}s tell when an entity was created so entities created after the instant can be
+     * left out.  Entities with other ids are assumed to have existed.
+     */
+    private boolean existed(final Object id) {
+        return !(id instanceof ObjectId) || ((ObjectId) id).getTimestamp() * 1000L <= instant.getTime();
+    }
+
+    /**
+     * Orders ids the way the server sorts them.
+     *
+     * @see BsonOrder
+     */
+    static int compareIds(final Object first, final Object second) {
+        return BsonOrder.compare(first, second);
+    }
+
+    /**
+     * Matches an id against the {@code $in} and range conditions used by
+     * {@link ArchiveStore#supersededAfter(ArchivedEntity, java.time.Instant, DBObject, int)} for stores which can not
+     * query them.
+     */
+    static boolean matches(final Object id, final DBObject condition) {
+        if (condition == null) {
+            return true;
+        }
+        for (final String operator : condition.keySet()) {
+            final Object operand = condition.get(operator);
+            final boolean matched;
+            switch (operator) {
+                case "$in":
+                    matched = ((Collection<?>) operand).stream().anyMatch(value -> compareIds(id, value) == 0);
+                    break;
+                case "$gt":
+                    matched = compareIds(id, operand) > 0;
+                    break;
+                case "$gte":
+                    matched = compareIds(id, operand) >= 0;
+                    break;
+                case "$lt":
+                    matched = compareIds(id, operand) < 0;
+                    break;
+                case "$lte":
+                    matched = compareIds(id, operand) <= 0;
+                    break;
+                default:
+                    throw new IllegalArgumentException(format("Unsupported id condition %s", condition));
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
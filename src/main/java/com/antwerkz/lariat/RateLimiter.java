@@ -0,0 +1,39 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out operations to at most a number per second.  Permits are granted at a steady rate with no bursts beyond the
+ * permits of a single call.
+ */
+final class RateLimiter {
+    private final long nanosPerPermit;
+
+    private long next = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond the sustained rate or 0 for no limit
+     */
+    RateLimiter(final int permitsPerSecond) {
+        nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+    }
+
+    /**
+     * Blocks until the permits are available.
+     */
+    void acquire(final int permits) throws InterruptedException {
+        if (nanosPerPermit == 0 || permits <= 0) {
+            return;
+        }
+        final long wait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long start = Math.max(next, now);
+            next = start + nanosPerPermit * permits;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
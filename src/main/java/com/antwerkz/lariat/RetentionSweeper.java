@@ -0,0 +1,357 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Enforces retention on the archive of one entity class in the background, for use with {@link Archived#pruneEvery()}
+ * set to 0 or to clean up after {@link Archived#count()} or {@link Archived#maxAgeSeconds()} were lowered.  A pass
+ * streams the version numbers and archive times of each archive collection through the archive id index and, per batch
+ * of entities, removes with one ordered bulk write the versions beyond {@link Archived#count()}, those older than
+ * {@link Archived#maxAgeSeconds()} and the whole history of entities no longer in the live collection.  Versions
+ * needed to rebuild retained delta encoded versions are kept.  Partitioned archives only have orphaned histories
+ * removed since their partitions expire as a whole.
+ * <p>
+ * Reads and writes are limited to a number of operations per second so a sweep does not compete with the application
+ * for the server.  The last archive id handled is stored in {@value #CHECKPOINTS} in the archive database after each
+ * batch, so a pass which is stopped or fails resumes where it left off, and removed once the pass completes.
+ */
+public class RetentionSweeper {
+    /**
+     * The collection holding the checkpoint of each archive collection's current pass.
+     */
+    public static final String CHECKPOINTS = "lariat_sweeps";
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetentionSweeper.class);
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final ArchiveInterceptor<?, ?> interceptor;
+
+    private final ArchivedEntity archivedEntity;
+
+    private final MongoArchiveStore store;
+
+    private final DBCollection live;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int rateLimit;
+
+    private Consumer<SweepProgress> listener;
+
+    private ScheduledExecutorService scheduler;
+
+    RetentionSweeper(final ArchiveInterceptor<?, ?> interceptor, final ArchivedEntity archivedEntity,
+                     final MongoArchiveStore store, final DBCollection live) {
+        this.interceptor = interceptor;
+        this.archivedEntity = archivedEntity;
+        this.store = store;
+        this.live = live;
+    }
+
+    /**
+     * @param batchSize the number of entities checked against the live collection and cleaned up per bulk write
+     * @return this
+     */
+    public RetentionSweeper withBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param operationsPerSecond the maximum number of documents read plus write requests sent per second or 0 for no
+     *                            limit
+     * @return this
+     */
+    public RetentionSweeper withRateLimit(final int operationsPerSecond) {
+        if (operationsPerSecond < 0) {
+            throw new IllegalArgumentException("The rate limit can not be negative: " + operationsPerSecond);
+        }
+        this.rateLimit = operationsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param listener called after each batch
+     * @return this
+     */
+    public RetentionSweeper withProgress(final Consumer<SweepProgress> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Runs a pass over every archive collection of the entity, resuming from the stored checkpoints.
+     *
+     * @return the progress of the completed pass
+     * @throws IllegalStateException if the thread was interrupted, leaving the checkpoint of the batch last completed
+     */
+    public SweepProgress run() {
+        final Pass pass = new Pass();
+        for (final DBCollection collection : store.archiveCollections(archivedEntity)) {
+            pass.sweep(collection);
+        }
+        return pass.progress();
+    }
+
+    /**
+     * Runs a pass on a background daemon thread every {@code period} after the previous one ended, the first one
+     * straight away.  Failed passes are logged and retried at the next period.
+     *
+     * @return this
+     */
+    public synchronized RetentionSweeper start(final long period, final TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("The sweeper is already running");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "lariat-sweeper-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                LOG.error(String.format("Failed to sweep %s", archivedEntity.getCollection()), e);
+            }
+        }, 0, period, unit);
+        return this;
+    }
+
+    /**
+     * Stops background passes, interrupting a running one after its current batch.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Forgets the checkpoints so the next pass starts from the first archive id.
+     */
+    public void reset() {
+        for (final DBCollection collection : store.archiveCollections(archivedEntity)) {
+            checkpoints().remove(new BasicDBObject("_id", collection.getName()));
+        }
+    }
+
+    private DBCollection checkpoints() {
+        return store.getDB().getCollection(CHECKPOINTS);
+    }
+
+    /**
+     * @param versions the entity's version numbers, newest first
+     * @param archived when each version was archived
+     * @return the newest version of an entity which may be removed or -1 to keep them all
+     */
+    private long cutoff(final List<Long> versions, final List<Date> archived, final Date expired) {
+        if (archivedEntity.isPartitioned()) {
+            return -1;
+        }
+        long cutoff;
+        if (archivedEntity.hasVersionGaps()) {
+            cutoff = versions.size() > archivedEntity.getCount() ? versions.get((int) archivedEntity.getCount()) : -1;
+        } else {
+            cutoff = archivedEntity.pruneThrough(versions.get(0));
+        }
+        if (expired != null) {
+            for (int i = 0; i < versions.size(); i++) {
+                if (archived.get(i) != null && archived.get(i).before(expired)) {
+                    final long version = versions.get(i);
+                    final int interval = archivedEntity.getKeyframeInterval();
+                    cutoff = Math.max(cutoff, archivedEntity.isDeltaEncoded()
+                                              ? Deltas.keyframeFor(interval, version + 1) - 1
+                                              : version);
+                    break;
+                }
+            }
+        }
+        return cutoff;
+    }
+
+    /**
+     * The archived versions of one entity, newest first.
+     */
+    private static class History {
+        private final Object id;
+
+        private final List<Long> versions = new ArrayList<>();
+
+        private final List<Date> archived = new ArrayList<>();
+
+        History(final Object id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The state of a single pass.
+     */
+    private class Pass {
+        private final long start = System.nanoTime();
+
+        private final RateLimiter limiter = new RateLimiter(rateLimit);
+
+        private final Date expired = archivedEntity.getMaxAgeSeconds() > 0 && !archivedEntity.isPartitioned()
+                                     ? Date.from(Instant.now().minusSeconds(archivedEntity.getMaxAgeSeconds()))
+                                     : null;
+
+        private long entities;
+
+        private long versions;
+
+        private long trimmed;
+
+        private long orphans;
+
+        private long operations;
+
+        void sweep(final DBCollection collection) {
+            final DBObject checkpoint = checkpoints().findOne(new BasicDBObject("_id", collection.getName()));
+            final List<History> batch = new ArrayList<>();
+            History current = null;
+            try (CloseableIterator<DBObject> stored = archivedEntity.getVersionLayout().scan(collection,
+                    archivedEntity, checkpoint != null ? checkpoint.get("last") : null, batchSize)) {
+                while (stored.hasNext()) {
+                    acquire(1);
+                    final DBObject version = stored.next();
+                    versions++;
+                    final Object id = version.get(ARCHIVE_ID);
+                    if (current == null || PointInTime.compareIds(current.id, id) != 0) {
+                        if (batch.size() == batchSize) {
+                            clean(collection, batch);
+                        }
+                        current = new History(id);
+                        batch.add(current);
+                    }
+                    current.versions.add(((Number) version.get(archivedEntity.getFieldName())).longValue());
+                    final Object archivedAt = version.get(ARCHIVED_AT);
+                    current.archived.add(archivedAt instanceof Date ? (Date) archivedAt : null);
+                }
+            }
+            if (!batch.isEmpty()) {
+                clean(collection, batch);
+            }
+            checkpoints().remove(new BasicDBObject("_id", collection.getName()));
+        }
+
+        private void clean(final DBCollection collection, final List<History> batch) {
+            final List<Object> ids = new ArrayList<>();
+            for (final History history : batch) {
+                ids.add(history.id);
+            }
+            acquire(1);
+            final Set<Object> existing = new HashSet<>();
+            try (DBCursor cursor = live.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)),
+                    new BasicDBObject("_id", 1))) {
+                while (cursor.hasNext()) {
+                    existing.add(cursor.next().get("_id"));
+                }
+            }
+
+            final BulkWriteOperation bulk = collection.initializeOrderedBulkOperation();
+            final List<Object> orphaned = new ArrayList<>();
+            final List<History> trim = new ArrayList<>();
+            final List<Long> cutoffs = new ArrayList<>();
+            for (final History history : batch) {
+                if (!existing.contains(history.id)) {
+                    orphaned.add(history.id);
+                    continue;
+                }
+                final long cutoff = cutoff(history.versions, history.archived, expired);
+                if (cutoff >= history.versions.get(history.versions.size() - 1)) {
+                    archivedEntity.getVersionLayout().remove(bulk, archivedEntity, history.id, cutoff);
+                    trim.add(history);
+                    cutoffs.add(cutoff);
+                }
+            }
+            if (!orphaned.isEmpty()) {
+                bulk.find(new BasicDBObject(ARCHIVE_ID, new BasicDBObject("$in", orphaned))).remove();
+            }
+            if (!orphaned.isEmpty() || !trim.isEmpty()) {
+                acquire(trim.size() + 1);
+                final ArchiveListener archiveListener = archivedEntity.getListener();
+                final long start = System.nanoTime();
+                final BulkWriteResult result;
+                try {
+                    result = bulk.execute();
+                } catch (RuntimeException e) {
+                    archiveListener.failed(archivedEntity.getType(), ArchiveStep.PRUNE, e);
+                    throw e;
+                }
+                archiveListener.pruned(archivedEntity.getType(),
+                        result.isAcknowledged() ? result.getRemovedCount() : -1, System.nanoTime() - start);
+            }
+            for (final Object id : orphaned) {
+                interceptor.evict(archivedEntity, id, Long.MAX_VALUE);
+            }
+            for (int i = 0; i < trim.size(); i++) {
+                interceptor.evict(archivedEntity, trim.get(i).id, cutoffs.get(i));
+            }
+
+            acquire(1);
+            checkpoints().save(new BasicDBObject("_id", collection.getName())
+                    .append("last", batch.get(batch.size() - 1).id)
+                    .append("at", new Date()));
+            entities += batch.size();
+            trimmed += trim.size();
+            orphans += orphaned.size();
+            batch.clear();
+            if (listener != null) {
+                listener.accept(progress());
+            }
+        }
+
+        private void acquire(final int permits) {
+            operations += permits;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("The sweep was interrupted");
+            }
+            try {
+                limiter.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The sweep was interrupted", e);
+            }
+        }
+
+        SweepProgress progress() {
+            return new SweepProgress(entities, versions, trimmed, orphans, operations, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress of a {@link BulkRevert} at a point in time.
+ */
+public class RevertProgress {
+    private final long scanned;
+
+    private final long reverted;
+
+    private final long missing;
+
+    private final long unchanged;
+
+    private final long conflicts;
+
+    private final long elapsedNanos;
+
+    RevertProgress(final long scanned, final long reverted, final long missing, final long unchanged,
+                   final long conflicts, final long elapsedNanos) {
+        this.scanned = scanned;
+        this.reverted = reverted;
+        this.missing = missing;
+        this.unchanged = unchanged;
+        this.conflicts = conflicts;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of matching entities processed so far
+     */
+    public long getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return the number of entities reverted
+     */
+    public long getReverted() {
+        return reverted;
+    }
+
+    /**
+     * @return the number of entities left alone because no archived version older than the live one was found for the
+     * target
+     */
+    public long getMissing() {
+        return missing;
+    }
+
+    /**
+     * @return the number of entities left alone because the target version matches the live one and
+     * {@link Archived#skipUnchanged()} is set
+     */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the number of entities not reverted because they were saved by someone else while being reverted
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the time spent so far in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return the number of entities processed per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : scanned * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RevertProgress{scanned=%d, reverted=%d, missing=%d, unchanged=%d, conflicts=%d, "
+                + "elapsedMillis=%d, throughput=%.1f/s}", scanned, reverted, missing, unchanged, conflicts,
+                getElapsedMillis(), getThroughput());
+    }
+}
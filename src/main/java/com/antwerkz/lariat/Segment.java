@@ -0,0 +1,503 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BasicBSONEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+
+/**
+ * An immutable file of archived versions in their stored form.  Versions are ordered by archive id and, per entity,
+ * newest first and written in deflate compressed blocks of BSON documents.  A sparse index of the first version in each
+ * block follows the blocks so finding a version decompresses a single block.  The file is memory mapped for reading in
+ * windows of at most a gigabyte so segments are not limited to the 2 GB a single mapping can hold.
+ *
+ * <pre>
+ * block   : int length, deflated BSON documents
+ * index   : BSON {f: version field, at: newest archive time, n: versions,
+ *                 blocks: [{o: block offset, id: first archive id, v: first version}]}
+ * trailer : long index offset, int magic
+ * </pre>
+ */
+final class Segment {
+    static final String SUFFIX = ".seg";
+
+    static final long WINDOW_SIZE = 1L << 30;
+
+    private static final int MAGIC = 0x4c534547;
+
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private static final CompressionCodec CODEC = new DeflateCompression();
+
+    private final Path path;
+
+    private final List<MappedByteBuffer> windows;
+
+    private final long windowSize;
+
+    private final long size;
+
+    private final String fieldName;
+
+    private final Date newest;
+
+    private final long versions;
+
+    private final List<Object> firstIds = new ArrayList<>();
+
+    private final List<Long> firstVersions = new ArrayList<>();
+
+    private final List<Long> offsets = new ArrayList<>();
+
+    private Segment(final Path path, final List<MappedByteBuffer> windows, final long windowSize, final long size) {
+        this.path = path;
+        this.windows = windows;
+        this.windowSize = windowSize;
+        this.size = size;
+        if (size < TRAILER_SIZE || getInt(size - Integer.BYTES) != MAGIC) {
+            throw new IllegalStateException(format("%s is not an archive segment", path));
+        }
+        final long indexOffset = getLong(size - TRAILER_SIZE);
+        final DBObject index = decode(bytes(indexOffset, Math.toIntExact(size - TRAILER_SIZE - indexOffset)));
+        fieldName = (String) index.get("f");
+        newest = (Date) index.get("at");
+        versions = ((Number) index.get("n")).longValue();
+        for (final Object element : (List<?>) index.get("blocks")) {
+            final DBObject block = (DBObject) element;
+            offsets.add(((Number) block.get("o")).longValue());
+            firstIds.add(block.get("id"));
+            firstVersions.add(((Number) block.get("v")).longValue());
+        }
+    }
+
+    /**
+     * Maps an existing segment file.
+     */
+    static Segment open(final Path path) {
+        return open(path, WINDOW_SIZE);
+    }
+
+    /**
+     * Maps an existing segment file in windows of the given size.
+     */
+    static Segment open(final Path path, final long windowSize) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final List<MappedByteBuffer> windows = new ArrayList<>();
+            for (long start = 0; start < size; start += windowSize) {
+                windows.add(channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, size - start)));
+            }
+            return new Segment(path, windows, windowSize, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return when the newest version in the segment was archived or null if unknown
+     */
+    Date getNewest() {
+        return newest;
+    }
+
+    long getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return the archived version or null if the segment does not hold it
+     */
+    DBObject find(final Object id, final long version) {
+        try (CloseableIterator<DBObject> descending = descending(id, version)) {
+            if (descending.hasNext()) {
+                final DBObject stored = descending.next();
+                if (version(stored) == version) {
+                    return stored;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the versions of an entity at or below {@code version}, newest first
+     */
+    CloseableIterator<DBObject> descending(final Object id, final long version) {
+        return new Reader(locate(id, version), id, version);
+    }
+
+    /**
+     * Reads the blocks holding the range backwards, one block at a time, since versions are stored newest first.
+     *
+     * @return the versions of an entity from {@code from} through {@code to}, oldest first
+     */
+    CloseableIterator<DBObject> ascending(final Object id, final long from, final long to) {
+        final int newestBlock = locate(id, to);
+        return new CloseableIterator<DBObject>() {
+            private int block = locate(id, from);
+
+            private List<DBObject> documents = Collections.emptyList();
+
+            private int index;
+
+            private DBObject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (index == 0) {
+                        if (block < newestBlock) {
+                            return false;
+                        }
+                        documents = block(block--);
+                        index = documents.size();
+                        continue;
+                    }
+                    final DBObject stored = documents.get(--index);
+                    final long version = version(stored);
+                    if (version >= from && version <= to && PointInTime.compareIds(stored.get(ARCHIVE_ID), id) == 0) {
+                        next = stored;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public DBObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DBObject current = next;
+                next = null;
+                return current;
+            }
+
+            @Override
+            public void close() {
+                block = -1;
+                index = 0;
+            }
+        };
+    }
+
+    long count(final Object id) {
+        long count = 0;
+        try (CloseableIterator<DBObject> descending = descending(id, Long.MAX_VALUE)) {
+            while (descending.hasNext()) {
+                descending.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return every version in the segment in file order
+     */
+    CloseableIterator<DBObject> scan() {
+        return new Reader(0, null, Long.MAX_VALUE);
+    }
+
+    long version(final DBObject stored) {
+        return ((Number) stored.get(fieldName)).longValue();
+    }
+
+    /**
+     * @return the last block whose first version sorts at or before the given one
+     */
+    private int locate(final Object id, final long version) {
+        int low = 0;
+        int high = offsets.size() - 1;
+        int found = 0;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (compare(firstIds.get(middle), firstVersions.get(middle), id, version) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private List<DBObject> block(final int block) {
+        final long offset = offsets.get(block);
+        final byte[] raw = CODEC.decompress(bytes(offset + Integer.BYTES, getInt(offset)));
+        final List<DBObject> documents = new ArrayList<>();
+        final ByteBuffer wrapped = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        while (position < raw.length) {
+            final int length = wrapped.getInt(position);
+            final byte[] document = new byte[length];
+            System.arraycopy(raw, position, document, 0, length);
+            documents.add(decode(document));
+            position += length;
+        }
+        return documents;
+    }
+
+    /**
+     * Copies a range of the file, which may span windows.
+     */
+    private byte[] bytes(final long offset, final int length) {
+        if (offset < 0 || offset + length > size) {
+            throw new IllegalStateException(format("%s is corrupt: %d bytes at %d are past its end", path, length,
+                    offset));
+        }
+        final byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long position = offset + copied;
+            final ByteBuffer view = windows.get((int) (position / windowSize)).duplicate();
+            view.position((int) (position % windowSize));
+            final int count = Math.min(length - copied, view.remaining());
+            view.get(bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    private int getInt(final long offset) {
+        return ByteBuffer.wrap(bytes(offset, Integer.BYTES)).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private long getLong(final long offset) {
+        return ByteBuffer.wrap(bytes(offset, Long.BYTES)).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    /**
+     * Orders versions by archive id and, per entity, newest first.
+     */
+    static int compare(final Object firstId, final long firstVersion, final Object secondId, final long secondVersion) {
+        final int order = PointInTime.compareIds(firstId, secondId);
+        return order != 0 ? order : Long.compare(secondVersion, firstVersion);
+    }
+
+    private static DBObject decode(final byte[] bytes) {
+        return new DefaultDBDecoder().decode(bytes, (DBCollection) null);
+    }
+
+    /**
+     * Reads versions block by block, either every version or those of a single entity at or below a version.
+     */
+    private class Reader implements CloseableIterator<DBObject> {
+        private final Object id;
+
+        private final long version;
+
+        private int block;
+
+        private List<DBObject> documents = Collections.emptyList();
+
+        private int index;
+
+        private DBObject next;
+
+        private boolean done;
+
+        Reader(final int block, final Object id, final long version) {
+            this.block = block;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                if (index == documents.size()) {
+                    if (block == offsets.size()) {
+                        done = true;
+                        break;
+                    }
+                    documents = block(block++);
+                    index = 0;
+                    continue;
+                }
+                final DBObject stored = documents.get(index++);
+                if (id == null) {
+                    next = stored;
+                    continue;
+                }
+                final int order = compare(stored.get(ARCHIVE_ID), version(stored), id, version);
+                if (order >= 0 && PointInTime.compareIds(stored.get(ARCHIVE_ID), id) == 0) {
+                    next = stored;
+                } else if (order > 0) {
+                    done = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public DBObject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final DBObject current = next;
+            next = null;
+            return current;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+        }
+    }
+
+    /**
+     * Writes a new segment to a temporary file which is moved into place once complete so readers never see a partial
+     * segment.  Versions must be appended in segment order.
+     */
+    static final class Writer {
+        private final Path target;
+
+        private final Path temporary;
+
+        private final String fieldName;
+
+        private final int blockSize;
+
+        private final FileChannel channel;
+
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        private final List<DBObject> blocks = new ArrayList<>();
+
+        private DBObject first;
+
+        private Date newest;
+
+        private long versions;
+
+        private long position;
+
+        Writer(final Path target, final String fieldName, final int blockSize) {
+            this.target = target;
+            this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            this.fieldName = fieldName;
+            this.blockSize = blockSize;
+            try {
+                channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void append(final DBObject stored) {
+            if (first == null) {
+                first = stored;
+            }
+            final Object archivedAt = stored.get(ARCHIVED_AT);
+            if (archivedAt instanceof Date && (newest == null || newest.before((Date) archivedAt))) {
+                newest = (Date) archivedAt;
+            }
+            final byte[] encoded = new BasicBSONEncoder().encode(stored);
+            pending.write(encoded, 0, encoded.length);
+            versions++;
+            if (pending.size() >= blockSize) {
+                flush();
+            }
+        }
+
+        /**
+         * @return the size of the segment so far
+         */
+        long size() {
+            return position + pending.size();
+        }
+
+        /**
+         * Completes the segment and moves it into place.
+         */
+        Segment seal() {
+            flush();
+            try {
+                final long indexOffset = position;
+                write(new BasicBSONEncoder().encode(new BasicDBObject("f", fieldName)
+                        .append("at", newest)
+                        .append("n", versions)
+                        .append("blocks", blocks)));
+                write(ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                        .putLong(indexOffset)
+                        .putInt(MAGIC)
+                        .array());
+                channel.force(true);
+                channel.close();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                abort();
+                throw new UncheckedIOException(e);
+            }
+            return open(target);
+        }
+
+        /**
+         * Discards the partially written segment.
+         */
+        void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() {
+            if (pending.size() == 0) {
+                return;
+            }
+            blocks.add(new BasicDBObject("o", position)
+                    .append("id", first.get(ARCHIVE_ID))
+                    .append("v", ((Number) first.get(fieldName)).longValue()));
+            final byte[] compressed = CODEC.compress(pending.toByteArray());
+            pending.reset();
+            first = null;
+            try {
+                write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(compressed.length)
+                        .array());
+                write(compressed);
+            } catch (IOException e) {
+                abort();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void write(final byte[] bytes) throws IOException {
+            final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                position += channel.write(wrapped);
+            }
+        }
+    }
+}
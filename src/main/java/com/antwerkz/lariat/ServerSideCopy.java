@@ -0,0 +1,92 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+
+/**
+ * Copies prior versions into the archive on the server with an aggregation ending in {@code $merge} so the documents
+ * never travel to the client and back.  {@code $merge} into another collection needs MongoDB 4.2 or later.
+ */
+final class ServerSideCopy {
+    private ServerSideCopy() {
+    }
+
+    /**
+     * @return true if the server supports {@code $merge}
+     */
+    static boolean isSupported(final DB db) {
+        final CommandResult buildInfo = db.command("buildInfo");
+        final Object versionArray = buildInfo.get("versionArray");
+        if (!buildInfo.ok() || !(versionArray instanceof List)) {
+            return false;
+        }
+        final List<?> version = (List<?>) versionArray;
+        final int major = ((Number) version.get(0)).intValue();
+        final int minor = version.size() > 1 ? ((Number) version.get(1)).intValue() : 0;
+        return major > 4 || major == 4 && minor >= 2;
+    }
+
+    /**
+     * Copies the given versions into the archive and prunes behind them.  Versions which are no longer current are not
+     * copied.
+     *
+     * @param archive  the archive collection to copy into
+     * @param versions the version to copy for each id
+     */
+    static void copy(final DB db, final ArchivedEntity archivedEntity, final DBCollection archive,
+                     final Map<Object, Long> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+        final CommandResult result = db.command(
+                new BasicDBObject("aggregate", archivedEntity.getMappedClass().getCollectionName())
+                        .append("pipeline", pipeline(archivedEntity, archive.getName(), versions))
+                        .append("cursor", new BasicDBObject()));
+        result.throwOnError();
+        ((DocumentLayout) archivedEntity.getVersionLayout()).prune(archive, archivedEntity, versions);
+    }
+
+    static List<DBObject> pipeline(final ArchivedEntity archivedEntity, final String into,
+                                   final Map<Object, Long> versions) {
+        final String fieldName = archivedEntity.getFieldName();
+        final BasicDBList matches = new BasicDBList();
+        for (final Entry<Object, Long> entry : versions.entrySet()) {
+            matches.add(new BasicDBObject("_id", entry.getKey()).append(fieldName, entry.getValue()));
+        }
+        final DBObject match = matches.size() == 1 ? (DBObject) matches.get(0) : new BasicDBObject("$or", matches);
+
+        final BasicDBObject project = new BasicDBObject();
+        if (archivedEntity.getProjection() != null) {
+            project.putAll(archivedEntity.getProjection());
+            if (archivedEntity.isInclusiveProjection()) {
+                project.put(ARCHIVE_ID, 1);
+                project.put(ARCHIVED_AT, 1);
+            }
+        }
+        project.put("_id", 0);
+
+        final List<DBObject> pipeline = new ArrayList<>();
+        pipeline.add(new BasicDBObject("$match", match));
+        pipeline.add(new BasicDBObject("$addFields", new BasicDBObject(ARCHIVE_ID, "$_id")
+                .append(ARCHIVED_AT, "$$NOW")));
+        pipeline.add(new BasicDBObject("$project", project));
+        pipeline.add(new BasicDBObject("$merge", new BasicDBObject("into", into)
+                .append("on", Arrays.asList(ARCHIVE_ID, fieldName))
+                .append("whenMatched", "keepExisting")
+                .append("whenNotMatched", "insert")));
+        return pipeline;
+    }
+}
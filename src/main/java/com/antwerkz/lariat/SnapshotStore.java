@@ -0,0 +1,128 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the last persisted state of loaded entities so that a subsequent save can archive that state without reading it
+ * back from the database.  Snapshots are keyed by collection, id and version and only live as long as the entity
+ * instance they were captured for is reachable.  The store is bounded and evicts the least recently used snapshot once
+ * full.
+ */
+class SnapshotStore {
+    private final Map<SnapshotKey, Snapshot> snapshots;
+
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    SnapshotStore(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The snapshot capacity must be at least 1: " + capacity);
+        }
+        snapshots = new LinkedHashMap<SnapshotKey, Snapshot>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<SnapshotKey, Snapshot> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    void put(final Object owner, final String collection, final Object id, final long version, final DBObject dbObj) {
+        final SnapshotKey key = new SnapshotKey(collection, id, version);
+        synchronized (snapshots) {
+            expunge();
+            snapshots.put(key, new Snapshot(owner, key, dbObj, collected));
+        }
+    }
+
+    /**
+     * Removes and returns the snapshot for the given version if one is still held.
+     *
+     * @return the snapshot or null if none is held
+     */
+    DBObject take(final String collection, final Object id, final long version) {
+        final Snapshot snapshot;
+        synchronized (snapshots) {
+            expunge();
+            snapshot = snapshots.remove(new SnapshotKey(collection, id, version));
+        }
+        if (snapshot != null && snapshot.get() != null) {
+            hits.incrementAndGet();
+            return snapshot.dbObj;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            final Snapshot snapshot = (Snapshot) reference;
+            snapshots.remove(snapshot.key, snapshot);
+        }
+    }
+
+    private static class Snapshot extends WeakReference<Object> {
+        private final SnapshotKey key;
+
+        private final DBObject dbObj;
+
+        Snapshot(final Object owner, final SnapshotKey key, final DBObject dbObj, final ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.key = key;
+            this.dbObj = dbObj;
+        }
+    }
+
+    private static class SnapshotKey {
+        private final String collection;
+
+        private final Object id;
+
+        private final long version;
+
+        SnapshotKey(final String collection, final Object id, final long version) {
+            this.collection = collection;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final SnapshotKey that = (SnapshotKey) o;
+            return version == that.version && collection.equals(that.collection) && Objects.equals(id, that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = collection.hashCode();
+            result = 31 * result + Objects.hashCode(id);
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.antwerkz.lariat;
+
+/**
+ * How archived versions are stored in the archive collection.
+ */
+public enum StorageLayout {
+    /**
+     * One archive document per version.  Pruning old versions costs a remove on every save.
+     */
+    DOCUMENT,
+    /**
+     * One bucket document per entity holding its most recent versions.  Appending a version and trimming the oldest is
+     * a single atomic update.  Histories larger than {@link Archived#bucketSize()} overflow into additional buckets.
+     */
+    BUCKET
+}
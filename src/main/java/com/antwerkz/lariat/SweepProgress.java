@@ -0,0 +1,87 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress of a {@link RetentionSweeper} pass at a point in time.
+ */
+public class SweepProgress {
+    private final long entities;
+
+    private final long versions;
+
+    private final long trimmed;
+
+    private final long orphans;
+
+    private final long operations;
+
+    private final long elapsedNanos;
+
+    SweepProgress(final long entities, final long versions, final long trimmed, final long orphans,
+                  final long operations, final long elapsedNanos) {
+        this.entities = entities;
+        this.versions = versions;
+        this.trimmed = trimmed;
+        this.orphans = orphans;
+        this.operations = operations;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of entities whose archived versions were checked so far
+     */
+    public long getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return the number of archived versions read
+     */
+    public long getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return the number of entities which had versions beyond {@link Archived#count()} or older than
+     * {@link Archived#maxAgeSeconds()} removed
+     */
+    public long getTrimmed() {
+        return trimmed;
+    }
+
+    /**
+     * @return the number of entities no longer in the live collection whose archived versions were removed
+     */
+    public long getOrphans() {
+        return orphans;
+    }
+
+    /**
+     * @return the number of documents read and write requests sent, the unit of the sweeper's rate limit
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return the time spent so far in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return the number of entities checked per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : entities * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SweepProgress{entities=%d, versions=%d, trimmed=%d, orphans=%d, operations=%d, "
+                + "elapsedMillis=%d, throughput=%.1f/s}", entities, versions, trimmed, orphans, operations,
+                getElapsedMillis(), getThroughput());
+    }
+}
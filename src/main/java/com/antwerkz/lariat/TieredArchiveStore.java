@@ -0,0 +1,273 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.lang.String.format;
+
+/**
+ * Keeps recent archived versions in MongoDB and moves older ones to a cold tier of compressed, append only segment
+ * files on local disk.  New versions are always written to the hot store.  {@link #offload(Class, Instant)} moves the
+ * versions archived before an instant into new segments, streaming them from the hot store, and then removes them from
+ * it.  Reads go to the hot store first and fall through to the segments on a miss.
+ * <p>
+ * Versions in the cold tier are not subject to {@link Archived#count()}, so the full history older than the offload
+ * threshold is kept until it is pruned with {@link ArchiveInterceptor#prune(Object, long)} or, with
+ * {@link Archived#maxAgeSeconds()}, {@link #dropExpired()} deletes segments whose newest version has expired.
+ */
+public class TieredArchiveStore extends ArchiveStore {
+    /**
+     * The default amount of BSON compressed together, and decompressed to read a single version, in a segment.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The default size after which an offload starts a new segment.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final int OFFLOAD_BATCH_SIZE = 1000;
+
+    private final MongoArchiveStore hot;
+
+    private final ColdTier cold;
+
+    private final Map<String, ArchivedEntity> archived = new LinkedHashMap<>();
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    /**
+     * @param hot       the store holding recent versions
+     * @param directory the directory holding the segment files, one subdirectory per archive collection
+     */
+    public TieredArchiveStore(final MongoArchiveStore hot, final Path directory) {
+        this.hot = hot;
+        this.cold = new ColdTier(directory);
+    }
+
+    /**
+     * @param blockSize the amount of BSON compressed together in a segment
+     * @return this
+     */
+    public TieredArchiveStore withBlockSize(final int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param segmentSize the size after which an offload starts a new segment.  Versions of one entity are never split
+     *                    over segments by an offload so segments may grow somewhat larger.
+     * @return this
+     */
+    public TieredArchiveStore withSegmentSize(final long segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("The segment size must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public MongoArchiveStore getHotStore() {
+        return hot;
+    }
+
+    public Path getDirectory() {
+        return cold.getDirectory();
+    }
+
+    /**
+     * Moves every version archived before {@code cutoff} from the hot store to new segments.  Versions are streamed
+     * from the archive collections, oldest partition first, and removed from the hot store once the segment holding
+     * them has been written and synced to disk, so at most one segment's worth of ids is held in memory.
+     *
+     * @param type   an entity class archived to this store, i.e. one an interceptor using this store has archived or
+     *               created indexes for
+     * @param cutoff the instant before which versions are moved
+     * @return the number of versions moved
+     * @throws IllegalArgumentException if the class is not archived to this store
+     */
+    public long offload(final Class<?> type, final Instant cutoff) {
+        return offload(archivedEntity(type), cutoff);
+    }
+
+    private ArchivedEntity archivedEntity(final Class<?> type) {
+        synchronized (archived) {
+            for (final ArchivedEntity archivedEntity : archived.values()) {
+                if (archivedEntity.getMappedClass().getClazz().equals(type)) {
+                    return archivedEntity;
+                }
+            }
+        }
+        throw new IllegalArgumentException(format("%s is not archived to this store", type.getName()));
+    }
+
+    private long offload(final ArchivedEntity archivedEntity, final Instant cutoff) {
+        final VersionLayout layout = archivedEntity.getVersionLayout();
+        final List<DBCollection> collections = new ArrayList<>(hot.archiveCollections(archivedEntity));
+        long moved = 0;
+        for (int i = collections.size() - 1; i >= 0; i--) {
+            final DBCollection collection = collections.get(i);
+            final Map<Object, Long> pending = new LinkedHashMap<>();
+            Segment.Writer writer = null;
+            try (CloseableIterator<DBObject> versions = layout.archivedBefore(collection, archivedEntity,
+                    Date.from(cutoff), OFFLOAD_BATCH_SIZE)) {
+                while (versions.hasNext()) {
+                    final DBObject stored = versions.next();
+                    final Object id = stored.get(ARCHIVE_ID);
+                    if (!pending.containsKey(id)) {
+                        if (writer != null && writer.size() >= segmentSize) {
+                            seal(archivedEntity, collection, writer, pending);
+                            writer = null;
+                        }
+                        pending.put(id, ((Number) stored.get(archivedEntity.getFieldName())).longValue());
+                    }
+                    if (writer == null) {
+                        writer = cold.writer(archivedEntity, blockSize);
+                    }
+                    writer.append(stored);
+                    moved++;
+                }
+            } catch (RuntimeException e) {
+                if (writer != null) {
+                    writer.abort();
+                }
+                throw e;
+            }
+            if (writer != null) {
+                seal(archivedEntity, collection, writer, pending);
+            }
+        }
+        return moved;
+    }
+
+    private void seal(final ArchivedEntity archivedEntity, final DBCollection collection, final Segment.Writer writer,
+                      final Map<Object, Long> pending) {
+        cold.add(archivedEntity, writer.seal());
+        for (final Entry<Object, Long> entry : pending.entrySet()) {
+            archivedEntity.getVersionLayout().remove(collection, archivedEntity, entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void prepare(final ArchivedEntity archivedEntity) {
+        synchronized (archived) {
+            archived.put(archivedEntity.getCollection(), archivedEntity);
+        }
+        hot.prepare(archivedEntity);
+    }
+
+    @Override
+    public void write(final ArchivedEntity archivedEntity, final List<ArchiveTask> tasks) {
+        hot.write(archivedEntity, tasks);
+    }
+
+    @Override
+    public DBObject find(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        final DBObject stored = hot.find(archivedEntity, id, version);
+        return stored != null ? stored : cold.find(archivedEntity, id, version);
+    }
+
+    @Override
+    public Map<Object, DBObject> find(final ArchivedEntity archivedEntity, final Collection<?> ids,
+                                      final long version) {
+        final Map<Object, DBObject> found = hot.find(archivedEntity, ids, version);
+        for (final Object id : ids) {
+            if (!found.containsKey(id)) {
+                final DBObject stored = cold.find(archivedEntity, id, version);
+                if (stored != null) {
+                    found.put(id, stored);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public CloseableIterator<DBObject> descending(final ArchivedEntity archivedEntity, final Object id,
+                                                  final long version) {
+        return CloseableIterator.concat(Arrays.<Supplier<CloseableIterator<DBObject>>>asList(
+                () -> hot.descending(archivedEntity, id, version),
+                () -> cold.descending(archivedEntity, id, version)));
+    }
+
+    /**
+     * Cold versions come first, read from their segments one block at a time, followed by the hot versions.
+     */
+    @Override
+    public CloseableIterator<DBObject> ascending(final ArchivedEntity archivedEntity, final Object id,
+                                                 final long from, final long to, final DBObject fields,
+                                                 final int batchSize) {
+        return CloseableIterator.concat(Arrays.<Supplier<CloseableIterator<DBObject>>>asList(
+                () -> coldAscending(archivedEntity, id, from, to, fields),
+                () -> hot.ascending(archivedEntity, id, from, to, fields, batchSize)));
+    }
+
+    private CloseableIterator<DBObject> coldAscending(final ArchivedEntity archivedEntity, final Object id,
+                                                      final long from, final long to, final DBObject fields) {
+        final CloseableIterator<DBObject> versions = cold.ascending(archivedEntity, id, from, to);
+        if (fields == null) {
+            return versions;
+        }
+        return versions.map(stored -> {
+            stored.keySet().removeIf(key -> !key.equals("_id") && !fields.containsField(key));
+            return stored;
+        });
+    }
+
+    @Override
+    public CloseableIterator<DBObject> supersededAfter(final ArchivedEntity archivedEntity, final Instant instant,
+                                                       final DBObject ids, final int batchSize) {
+        return MergedVersions.oldestFirst(Arrays.asList(cold.supersededAfter(archivedEntity, instant, ids),
+                hot.supersededAfter(archivedEntity, instant, ids, batchSize)));
+    }
+
+    @Override
+    public long count(final ArchivedEntity archivedEntity, final Object id) {
+        return hot.count(archivedEntity, id) + cold.count(archivedEntity, id);
+    }
+
+    /**
+     * Removes the versions from the hot store and records them as pruned in the cold tier.  Segments are not rewritten.
+     */
+    @Override
+    public void prune(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        hot.prune(archivedEntity, id, version);
+        cold.prune(archivedEntity, id, version);
+    }
+
+    /**
+     * Drops expired partitions from the hot store and deletes the segments whose newest version was archived more than
+     * {@link Archived#maxAgeSeconds()} ago.
+     */
+    @Override
+    public List<String> dropExpired() {
+        final List<String> dropped = new ArrayList<>(hot.dropExpired());
+        final List<ArchivedEntity> entities;
+        synchronized (archived) {
+            entities = new ArrayList<>(archived.values());
+        }
+        for (final ArchivedEntity archivedEntity : entities) {
+            dropped.addAll(cold.dropExpired(archivedEntity));
+        }
+        return dropped;
+    }
+}
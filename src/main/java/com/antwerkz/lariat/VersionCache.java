@@ -0,0 +1,248 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.DBObject;
+import org.bson.BasicBSONEncoder;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache of archived versions in document form and of version counts.  Archived versions never change
+ * so a cached version only has to go once it may have been pruned.  Every archive write removes the count of the ids
+ * written and the versions at or below the newest version it may have pruned.  The cache is bounded by both the number
+ * of entries and their total weight, the encoded size of the cached documents, and evicts the least recently used
+ * entries once either bound is exceeded.
+ * <p>
+ * Lookups which miss read the generation of their id before going to the database and only cache what they read if
+ * the id was not invalidated in the meantime, so a version pruned while being read is never cached.  Generations are
+ * kept in a fixed number of stripes hashed by collection and id so writes to one entity do not stop reads of others
+ * from being cached; ids sharing a stripe at worst skip caching a read.
+ */
+class VersionCache {
+    private static final long COUNT = Long.MIN_VALUE;
+
+    private static final long COUNT_WEIGHT = 64;
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final int maxEntries;
+
+    private final long maxWeight;
+
+    private final Map<CacheKey, Cached> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<IdKey, NavigableSet<Long>> versionsById = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    private long weight;
+
+    VersionCache(final int maxEntries, final long maxWeight) {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException(String.format("Invalid version cache bounds: maxEntries=%d, "
+                    + "maxWeight=%d", maxEntries, maxWeight));
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the generation to pass to {@link #putVersion} or {@link #putCount} after reading the given id from the
+     * database
+     */
+    synchronized long generation(final String collection, final Object id) {
+        return generations[stripe(collection, id)];
+    }
+
+    /**
+     * @return a copy of the cached version or null if it is not cached
+     */
+    DBObject getVersion(final String collection, final Object id, final long version) {
+        final Cached cached = get(new CacheKey(collection, id, version));
+        return cached != null ? Deltas.copy((DBObject) cached.value) : null;
+    }
+
+    void putVersion(final long generation, final String collection, final Object id, final long version,
+                    final DBObject dbObj) {
+        put(generation, new CacheKey(collection, id, version), Deltas.copy(dbObj),
+                new BasicBSONEncoder().encode(dbObj).length);
+    }
+
+    /**
+     * @return the cached count or null if it is not cached
+     */
+    Long getCount(final String collection, final Object id) {
+        final Cached cached = get(new CacheKey(collection, id, COUNT));
+        return cached != null ? (Long) cached.value : null;
+    }
+
+    void putCount(final long generation, final String collection, final Object id, final long count) {
+        put(generation, new CacheKey(collection, id, COUNT), count, COUNT_WEIGHT);
+    }
+
+    /**
+     * Removes the count of an id and any cached version which may have been pruned.
+     *
+     * @param prunedThrough the newest version which may have been pruned
+     */
+    synchronized void invalidate(final String collection, final Object id, final long prunedThrough) {
+        generations[stripe(collection, id)]++;
+        remove(new CacheKey(collection, id, COUNT));
+        final IdKey idKey = new IdKey(collection, id);
+        final NavigableSet<Long> versions = versionsById.get(idKey);
+        if (versions != null) {
+            for (final Long version : new TreeSet<>(versions.headSet(prunedThrough, true))) {
+                remove(new CacheKey(collection, id, version));
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    VersionCacheStats stats() {
+        final int size;
+        final long total;
+        synchronized (this) {
+            size = entries.size();
+            total = weight;
+        }
+        return new VersionCacheStats(hits.get(), misses.get(), evictions.get(), invalidations.get(), size, total);
+    }
+
+    private Cached get(final CacheKey key) {
+        final Cached cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        (cached != null ? hits : misses).incrementAndGet();
+        return cached;
+    }
+
+    private synchronized void put(final long expected, final CacheKey key, final Object value, final long size) {
+        if (expected != generations[stripe(key.collection, key.id)] || size > maxWeight) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Cached(value, size));
+        weight += size;
+        if (key.version != COUNT) {
+            versionsById.computeIfAbsent(new IdKey(key.collection, key.id), k -> new TreeSet<>()).add(key.version);
+        }
+        final Iterator<Map.Entry<CacheKey, Cached>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            final Map.Entry<CacheKey, Cached> entry = eldest.next();
+            eldest.remove();
+            forget(entry.getKey(), entry.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(final CacheKey key) {
+        final Cached removed = entries.remove(key);
+        if (removed != null) {
+            forget(key, removed);
+        }
+    }
+
+    private void forget(final CacheKey key, final Cached cached) {
+        weight -= cached.weight;
+        if (key.version != COUNT) {
+            final IdKey idKey = new IdKey(key.collection, key.id);
+            final NavigableSet<Long> versions = versionsById.get(idKey);
+            if (versions != null && versions.remove(key.version) && versions.isEmpty()) {
+                versionsById.remove(idKey);
+            }
+        }
+    }
+
+    private static int stripe(final String collection, final Object id) {
+        final int hash = new IdKey(collection, id).hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static class Cached {
+        private final Object value;
+
+        private final long weight;
+
+        Cached(final Object value, final long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class IdKey {
+        private final String collection;
+
+        private final Object id;
+
+        IdKey(final String collection, final Object id) {
+            this.collection = collection;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final IdKey that = (IdKey) o;
+            return collection.equals(that.collection) && Objects.equals(id, that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * collection.hashCode() + Objects.hashCode(id);
+        }
+    }
+
+    private static class CacheKey {
+        private final String collection;
+
+        private final Object id;
+
+        private final long version;
+
+        CacheKey(final String collection, final Object id, final long version) {
+            this.collection = collection;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CacheKey that = (CacheKey) o;
+            return version == that.version && collection.equals(that.collection) && Objects.equals(id, that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = collection.hashCode();
+            result = 31 * result + Objects.hashCode(id);
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            return result;
+        }
+    }
+}
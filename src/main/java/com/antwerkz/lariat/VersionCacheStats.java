@@ -0,0 +1,86 @@
+package com.antwerkz.lariat;
+
+/**
+ * The effectiveness of the archived version cache at a point in time.
+ *
+ * @see ArchiveInterceptor#withVersionCache(int, long)
+ */
+public class VersionCacheStats {
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long invalidations;
+
+    private final int size;
+
+    private final long weight;
+
+    VersionCacheStats(final long hits, final long misses, final long evictions, final long invalidations,
+                      final int size, final long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @return the number of versions and counts served from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of versions and counts which had to be read from the archive
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the hits divided by all lookups or 0 if there have been none
+     */
+    public double getHitRatio() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the size and weight bounds
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of cached versions removed because they may have been pruned
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of cached versions and counts
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the encoded size in bytes of the cached versions and counts
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VersionCacheStats{hits=%d, misses=%d, hitRatio=%.2f, evictions=%d, invalidations=%d, "
+                + "size=%d, weight=%d}", hits, misses, getHitRatio(), evictions, invalidations, size, weight);
+    }
+}
@@ -0,0 +1,106 @@
+package com.antwerkz.lariat;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads and writes archived versions in a particular {@link StorageLayout}.  Archived versions are exchanged in the
+ * document form: the prior version of the entity with its id moved to {@link ArchiveInterceptor#ARCHIVE_ID}.
+ */
+interface VersionLayout {
+    /**
+     * Creates the indexes the layout relies on.
+     */
+    void createIndexes(DBCollection collection, ArchivedEntity archivedEntity);
+
+    /**
+     * Drops indexes created by this layout which would conflict with another layout during a migration.
+     */
+    void dropIndexes(DBCollection collection);
+
+    /**
+     * Writes the archived versions and prunes anything that falls out of the retention window as a result.
+     */
+    void write(DBCollection collection, ArchivedEntity archivedEntity, List<ArchiveTask> tasks);
+
+    /**
+     * @return the archived version or null if it is not held
+     */
+    DBObject find(DBCollection collection, ArchivedEntity archivedEntity, Object id, long version);
+
+    long count(DBCollection collection, ArchivedEntity archivedEntity, Object id);
+
+    /**
+     * Removes the archived versions of an entity at or below {@code version}.
+     */
+    void remove(DBCollection collection, ArchivedEntity archivedEntity, Object id, long version);
+
+    /**
+     * Adds the removal of the archived versions of an entity at or below {@code version} to an ordered bulk operation.
+     */
+    void remove(BulkWriteOperation bulk, ArchivedEntity archivedEntity, Object id, long version);
+
+    /**
+     * Reads the version number and archive time of every archived version using the layout's archive id index.
+     *
+     * @param after     the archive id to resume after or null to start at the first
+     * @param batchSize the number of documents fetched per round trip
+     * @return the versions ordered by archive id and, per entity, newest first
+     */
+    CloseableIterator<DBObject> scan(DBCollection collection, ArchivedEntity archivedEntity, Object after,
+                                     int batchSize);
+
+    /**
+     * @return the archived versions at or below {@code version}, newest first
+     */
+    CloseableIterator<DBObject> descending(DBCollection collection, ArchivedEntity archivedEntity, Object id,
+                                           long version);
+
+    /**
+     * Reads the archived versions from {@code from} through {@code to}, oldest first, with a single cursor.
+     *
+     * @param fields    the top level fields to read or null to read the whole version
+     * @param batchSize the number of documents fetched per round trip
+     * @return the archived versions in the range
+     */
+    CloseableIterator<DBObject> ascending(DBCollection collection, ArchivedEntity archivedEntity, Object id, long from,
+                                          long to, DBObject fields, int batchSize);
+
+    /**
+     * Finds the version of each entity which was current at {@code instant}, i.e. the oldest version archived after it.
+     *
+     * @param ids       a condition on {@link ArchiveInterceptor#ARCHIVE_ID} restricting the scan or null to scan every
+     *                  entity
+     * @param batchSize the number of documents fetched per round trip
+     * @return one archived version per entity in archive id order
+     */
+    CloseableIterator<DBObject> supersededAfter(DBCollection collection, ArchivedEntity archivedEntity, Date instant,
+                                                DBObject ids, int batchSize);
+
+    /**
+     * Reads every archived version archived before {@code cutoff} so it can be moved elsewhere.
+     *
+     * @param batchSize the number of documents fetched per round trip
+     * @return the versions ordered by archive id and, per entity, newest first
+     */
+    CloseableIterator<DBObject> archivedBefore(DBCollection collection, ArchivedEntity archivedEntity, Date cutoff,
+                                               int batchSize);
+
+    /**
+     * Drops the named index if it exists.
+     */
+    static void dropIndex(final DBCollection collection, final String name) {
+        for (final DBObject index : collection.getIndexInfo()) {
+            if (name.equals(index.get("name"))) {
+                collection.getDB()
+                        .command(new BasicDBObject("dropIndexes", collection.getName()).append("index", name))
+                        .throwOnError();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.antwerkz.lariat;
+
+import java.util.Objects;
+
+/**
+ * The value a field held in an archived version.
+ *
+ * @param <V> the type of the field
+ * @see ArchiveInterceptor#fieldHistory(Object, String)
+ */
+public class VersionedValue<V> {
+    private final long version;
+
+    private final V value;
+
+    public VersionedValue(final long version, final V value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final VersionedValue<?> that = (VersionedValue<?>) o;
+        return version == that.version && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (version ^ (version >>> 32)) + Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "VersionedValue{version=" + version + ", value=" + value + '}';
+    }
+}
@@ -0,0 +1,85 @@
+package com.antwerkz.lariat;
+
+import org.mongodb.morphia.mapping.MappedClass;
+import org.mongodb.morphia.mapping.Mapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Registers archived classes in parallel, one task per class, and waits up to a timeout for them.  Tasks still running
+ * at the timeout are left to finish in the background.
+ */
+final class WarmUp {
+    private WarmUp() {
+    }
+
+    /**
+     * @return the mapped classes with an {@link Archived} field
+     */
+    static List<Class<?>> archivedClasses(final Mapper mapper) {
+        return mapper.getMappedClasses().stream()
+                .filter(m -> !m.getFieldsAnnotatedWith(Archived.class).isEmpty())
+                .map(MappedClass::getClazz)
+                .collect(toList());
+    }
+
+    /**
+     * @param register validates a class and creates its archive indexes
+     */
+    static WarmUpReport run(final List<Class<?>> types, final Function<Class<?>, ArchivedEntity> register,
+                            final Executor executor, final long timeout, final TimeUnit unit) {
+        final long start = System.nanoTime();
+        final Map<String, Long> timings = new ConcurrentHashMap<>();
+        final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        final Map<Class<?>, CompletableFuture<Void>> tasks = new LinkedHashMap<>();
+        for (final Class<?> type : types) {
+            tasks.put(type, CompletableFuture.runAsync(() -> {
+                final long started = System.nanoTime();
+                try {
+                    final ArchivedEntity archivedEntity = register.apply(type);
+                    if (archivedEntity.isArchived()) {
+                        timings.put(archivedEntity.getCollection(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                    }
+                } catch (RuntimeException e) {
+                    failures.put(type.getName(), e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(tasks.values().toArray(new CompletableFuture<?>[0])).get(timeout, unit);
+        } catch (TimeoutException ignored) {
+            // reported as pending
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        final List<String> pending = new ArrayList<>();
+        for (final Entry<Class<?>, CompletableFuture<Void>> task : tasks.entrySet()) {
+            if (!task.getValue().isDone()) {
+                pending.add(task.getKey().getName());
+            }
+        }
+        final Map<String, Long> sorted = new LinkedHashMap<>();
+        timings.entrySet().stream()
+                .sorted(Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return new WarmUpReport(sorted, new LinkedHashMap<>(failures), pending, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,73 @@
+package com.antwerkz.lariat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of warming up the archive configuration of every archived class.
+ *
+ * @see ArchiveInterceptor#warmUp(long, TimeUnit)
+ * @see ArchiveDispatcher#warmUp(long, TimeUnit)
+ */
+public class WarmUpReport {
+    private final Map<String, Long> timings;
+
+    private final Map<String, Throwable> failures;
+
+    private final List<String> pending;
+
+    private final long elapsedNanos;
+
+    WarmUpReport(final Map<String, Long> timings, final Map<String, Throwable> failures, final List<String> pending,
+                 final long elapsedNanos) {
+        this.timings = Collections.unmodifiableMap(timings);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.pending = Collections.unmodifiableList(pending);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the time in milliseconds spent validating each class and creating its archive indexes, by archive
+     * collection, slowest first
+     */
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return the classes which failed validation or whose indexes could not be created, by class name
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the names of the classes still being registered when the timeout expired.  They finish in the
+     * background.
+     */
+    public List<String> getPending() {
+        return pending;
+    }
+
+    /**
+     * @return true if every class was registered within the timeout without failures
+     */
+    public boolean isComplete() {
+        return failures.isEmpty() && pending.isEmpty();
+    }
+
+    /**
+     * @return the time spent warming up in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WarmUpReport{timings=%s, failures=%s, pending=%s, elapsedMillis=%d}", timings,
+                failures.keySet(), pending, getElapsedMillis());
+    }
+}
@@ -0,0 +1,66 @@
+package com.antwerkz.lariat;
+
+import com.antwerkz.lariat.model.Item;
+import com.antwerkz.lariat.model.Page;
+import com.antwerkz.lariat.model.Record;
+import com.antwerkz.lariat.model.User;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ArchiveDispatcherTest extends TestBase {
+  private Morphia morphia;
+
+  private Datastore datastore;
+
+  private ArchiveDispatcher dispatcher;
+
+  @BeforeMethod
+  public void setup() {
+    morphia = new Morphia();
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+  }
+
+  @Test
+  public void routing() {
+    datastore.save(new Item("Book", 42));
+    assertTrue(dispatcher.getInterceptors().isEmpty());
+
+    final Page page = new Page("Value 1");
+    datastore.save(page);
+    datastore.save(page.setContent("Value 2"));
+    assertEquals(dispatcher.getInterceptors().size(), 1);
+    final ArchiveInterceptor<Page, ObjectId> interceptor = dispatcher.forClass(Page.class);
+    assertSame(dispatcher.getInterceptors().get(0), interceptor);
+    assertEquals(interceptor.findArchivedVersion(page, 1).getContent(), "Value 1");
+  }
+
+  @Test
+  public void daos() {
+    final RecordDao recordDao = new RecordDao(datastore, dispatcher.<Record, ObjectId>forClass(Record.class));
+    final UserDao userDao = new UserDao(datastore, dispatcher.<User, ObjectId>forClass(User.class));
+    morphia.map(Record.class, User.class);
+
+    final Record record = new Record("Record 1", "Value 1");
+    recordDao.save(record);
+    for (int i = 2; i <= 5; i++) {
+      recordDao.save(record.setContent("Value " + i));
+    }
+    assertEquals(recordDao.countVersions(record), Record.MAX_ARCHIVE_COUNT);
+    assertEquals(recordDao.revertToVersion(record, 3).getContent(), "Value 3");
+
+    final User user = new User("Alice", 30);
+    userDao.save(user);
+    userDao.save(user);
+    assertEquals(userDao.countVersions(user), 1);
+    assertEquals(dispatcher.getInterceptors().size(), 2, "Saving through the DAOs should not add interceptors");
+  }
+}
@@ -0,0 +1,122 @@
+package com.antwerkz.lariat;
+
+import java.util.concurrent.TimeUnit;
+
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoException;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class ArchiveMetricsTest extends TestBase {
+  @Test
+  public void archivePath() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveMetrics metrics = new ArchiveMetrics();
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(datastore, morphia)
+        .withArchiveListener(metrics);
+    assertSame(interceptor.getArchiveListener(), metrics);
+
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    for (int version = 2; version <= 5; version++) {
+      datastore.save(record.setContent("v" + version));
+    }
+    interceptor.revert(record);
+
+    final EntityMetrics snapshot = metrics.snapshot(Record.class);
+    assertEquals(snapshot.getFetch().getCount(), 5, snapshot.toString());
+    assertEquals(snapshot.getInsert().getCount(), 5);
+    assertEquals(snapshot.getVersionsArchived(), 5);
+    assertTrue(snapshot.getBytesArchived() > 5 * "v1".length(), snapshot.toString());
+    assertTrue(snapshot.getPrune().getCount() > 0);
+    assertEquals(snapshot.getDocumentsPruned(), 2);
+    assertEquals(snapshot.getReverts(), 1);
+    assertEquals(snapshot.getErrors(), 0);
+    assertTrue(snapshot.getFetch().getMaxNanos() > 0);
+    assertEquals(metrics.snapshot().size(), 1);
+    metrics.report();
+  }
+
+  @Test
+  public void duplicateKeys() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveMetrics metrics = new ArchiveMetrics();
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(datastore, morphia)
+        .withArchiveListener(metrics);
+
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    for (int version = 2; version <= 4; version++) {
+      datastore.save(record.setContent("v" + version));
+    }
+    datastore.getDB().getCollection("records_archive")
+        .insert(new BasicDBObject(ARCHIVE_ID, record.getId()).append("version", 4L));
+    datastore.save(record.setContent("v5"));
+    assertEquals(datastore.get(Record.class, record.getId()).getContent(), "v5",
+        "A version already archived should not fail the save");
+    assertEquals(interceptor.countVersions(record), Record.MAX_ARCHIVE_COUNT,
+        "The prune should still follow the duplicate insert");
+
+    final EntityMetrics snapshot = metrics.snapshot(Record.class);
+    assertEquals(snapshot.getErrors(), 1);
+    assertEquals(snapshot.getDuplicateKeys(), 1);
+    assertEquals(snapshot.getInsert().getCount(), 3);
+  }
+
+  @Test
+  public void duplicateKeyErrors() {
+    assertTrue(ArchiveMetrics.isDuplicateKey(new MongoException(ArchiveMetrics.DUPLICATE_KEY, "E11000")));
+    assertFalse(ArchiveMetrics.isDuplicateKey(new MongoException(2, "BadValue")));
+  }
+
+  @Test
+  public void histogram() {
+    final Log2Histogram histogram = new Log2Histogram();
+    assertEquals(histogram.snapshot().getPercentileNanos(99), 0);
+    for (long nanos = 1; nanos <= 100; nanos++) {
+      histogram.record(nanos);
+    }
+    histogram.record(0);
+    final LatencySnapshot snapshot = histogram.snapshot();
+    assertEquals(snapshot.getCount(), 101);
+    assertEquals(snapshot.getTotalNanos(), 5050);
+    assertEquals(snapshot.getMaxNanos(), 100);
+    assertEquals(snapshot.getMeanNanos(), 50);
+    assertEquals(snapshot.getPercentileNanos(0), 0);
+    assertEquals(snapshot.getPercentileNanos(50), 63);
+    assertEquals(snapshot.getPercentileNanos(100), 100);
+  }
+
+  @Test
+  public void reporting() {
+    final ArchiveMetrics metrics = new ArchiveMetrics().startReporting(1, TimeUnit.MILLISECONDS);
+    try {
+      metrics.inserted(Record.class, 1, 10, 1000);
+      metrics.startReporting(1, TimeUnit.SECONDS);
+      fail("The metrics are already being reported");
+    } catch (IllegalStateException ignored) {
+    } finally {
+      metrics.stopReporting();
+    }
+    assertFalse(metrics.snapshot().isEmpty());
+  }
+
+  private ArchiveInterceptor<Record, ObjectId> interceptor(final Datastore datastore, final Morphia morphia) {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia, Record.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class);
+    return interceptor;
+  }
+}
@@ -0,0 +1,143 @@
+package com.antwerkz.lariat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.antwerkz.lariat.model.Article;
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ArchiveStoreTest extends TestBase {
+  public static final String ARCHIVE_DB_NAME = "lariat_archive_test";
+
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveDispatcher dispatcher;
+
+  public ArchiveStoreTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Book.class, Article.class);
+  }
+
+  @BeforeMethod
+  public void setup() {
+    mongoClient.getDB(ARCHIVE_DB_NAME).dropDatabase();
+  }
+
+  @Test
+  public void inMemory() throws InterruptedException {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = dispatcher.<Record, ObjectId>forClass(Record.class)
+        .withArchiveStore(new InMemoryArchiveStore());
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    datastore.save(record.setContent("v2"));
+    Thread.sleep(10);
+    final Instant instant = Instant.now();
+    Thread.sleep(10);
+    for (int version = 3; version <= 5; version++) {
+      datastore.save(record.setContent("v" + version));
+    }
+
+    assertFalse(datastore.getDB().collectionExists("records_archive"));
+    assertEquals(interceptor.countVersions(record), Record.MAX_ARCHIVE_COUNT);
+    assertEquals(interceptor.findArchivedVersion(record, 3).getContent(), "v3");
+    assertEquals(interceptor.history(record).map(Record::getContent).collect(toList()), asList("v2", "v3", "v4"));
+    assertEquals(interceptor.asOf(Record.class, instant).findFirst().get().getContent(), "v2");
+
+    final Record reverted = interceptor.revert(record);
+    assertEquals(reverted.getContent(), "v4");
+    assertEquals(datastore.get(Record.class, record.getId()).getContent(), "v4");
+    assertFalse(datastore.getDB().collectionExists("records_archive"));
+  }
+
+  @Test
+  public void inMemoryDeltas() {
+    final ArchiveInterceptor<Article, ObjectId> interceptor = dispatcher.<Article, ObjectId>forClass(Article.class)
+        .withArchiveStore(new InMemoryArchiveStore());
+    final Article article = new Article("Title 1", "Body");
+    datastore.save(article);
+    for (int version = 2; version <= 6; version++) {
+      datastore.save(article.setTitle("Title " + version));
+    }
+    for (long version = 2; version <= 5; version++) {
+      assertEquals(interceptor.findArchivedVersion(article, version).getTitle(), "Title " + version);
+    }
+    final long versions = interceptor.countVersions(article);
+    assertTrue(versions >= Article.MAX_ARCHIVE_COUNT && versions < Article.MAX_ARCHIVE_COUNT + Article.KEYFRAME_INTERVAL,
+        "Found " + versions + " versions");
+  }
+
+  @Test
+  public void separateDatabase() {
+    final DB archive = mongoClient.getDB(ARCHIVE_DB_NAME);
+    final MongoArchiveStore store = new MongoArchiveStore(archive, WriteConcern.ACKNOWLEDGED);
+    final ArchiveInterceptor<Book, ObjectId> interceptor = dispatcher.<Book, ObjectId>forClass(Book.class)
+        .withArchiveStore(store)
+        .withServerSideCopy();
+    assertFalse(interceptor.isServerSideCopy(), "Versions cannot be copied server side into another database");
+
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    for (int version = 2; version <= 4; version++) {
+      datastore.save(book.setContent("Value " + version));
+    }
+
+    assertFalse(datastore.getDB().collectionExists("books_archive"));
+    assertEquals(archive.getCollection("books_archive").getWriteConcern(), WriteConcern.ACKNOWLEDGED);
+    assertEquals(interceptor.countVersions(book), 3);
+    assertEquals(interceptor.findArchivedVersion(book, 2).getContent(), "Value 2");
+    assertEquals(interceptor.revertToVersion(book, 1).getContent(), "Value 1");
+  }
+
+  @Test
+  public void prune() {
+    for (final ArchiveStore store : asList(new InMemoryArchiveStore(),
+                                           new MongoArchiveStore(mongoClient.getDB(ARCHIVE_DB_NAME)))) {
+      final ArchiveInterceptor<Book, ObjectId> interceptor = dispatcher.<Book, ObjectId>forClass(Book.class)
+          .withArchiveStore(store);
+      final ArchivedEntity archivedEntity = interceptor.getArchivedEntity(Book.class);
+      final Book book = new Book("Value 1");
+      datastore.save(book);
+      for (int version = 2; version <= 4; version++) {
+        datastore.save(book.setContent("Value " + version));
+      }
+      final ObjectId other = new ObjectId();
+
+      final Map<Object, DBObject> found = store.find(archivedEntity, asList(book.getId(), other), 2);
+      assertEquals(found.keySet(), singleton(book.getId()), store.toString());
+
+      store.prune(archivedEntity, book.getId(), 2);
+      assertEquals(store.count(archivedEntity, book.getId()), 1, store.toString());
+      assertNull(store.find(archivedEntity, book.getId(), 2), store.toString());
+      final List<Object> versions = new ArrayList<>();
+      try (CloseableIterator<DBObject> ascending = store.ascending(archivedEntity, book.getId(), 1, 10,
+          new BasicDBObject("version", 1), 10)) {
+        ascending.forEachRemaining(stored -> versions.add(stored.get("version")));
+      }
+      assertEquals(versions, asList(3L), store.toString());
+    }
+  }
+}
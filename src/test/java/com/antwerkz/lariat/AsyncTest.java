@@ -0,0 +1,198 @@
+package com.antwerkz.lariat;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.antwerkz.lariat.model.Record;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class AsyncTest extends TestBase {
+  @Test
+  public void lookups() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final RecordDao dao = new RecordDao(datastore, interceptor(datastore, morphia));
+    final Record record = record(datastore, 4);
+
+    assertEquals(dao.countVersionsAsync(record).join().longValue(), 3);
+    final List<Record> versions = dao.findArchivedVersionsAsync(record, asList(3L, 1L, 2L)).join();
+    assertEquals(versions.stream().map(Record::getContent).collect(toList()), asList("v3", "v1", "v2"));
+    assertEquals(dao.findArchivedVersionAsync(record, 2).join().getVersion(), 4);
+    try {
+      dao.findArchivedVersionAsync(record, 7).join();
+      fail("Version 7 was never archived");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof NoSuchElementException, e.getCause().toString());
+    }
+
+    final Record reverted = dao.revertAsync(record).join();
+    assertEquals(reverted.getContent(), "v3");
+    assertEquals(datastore.get(Record.class, record.getId()).getContent(), "v3");
+    assertEquals(dao.revertToVersionAsync(reverted, 2).join().getContent(), "v2");
+  }
+
+  @Test
+  public void prune() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final RecordDao dao = new RecordDao(datastore, interceptor(datastore, morphia).withVersionCache(10, 1 << 20));
+    final Record record = record(datastore, 4);
+    assertEquals(dao.countVersions(record), 3);
+    assertEquals(dao.findArchivedVersion(record, 2).getContent(), "v2");
+
+    dao.pruneAsync(record, 2).join();
+    assertEquals(dao.countVersions(record), 1);
+    try {
+      dao.findArchivedVersion(record, 2);
+      fail("Version 2 should have been pruned");
+    } catch (NoSuchElementException ignored) {
+    }
+    assertEquals(dao.findArchivedVersion(record, 3).getContent(), "v3");
+  }
+
+  @Test
+  public void executor() {
+    final AtomicInteger tasks = new AtomicInteger();
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      final Morphia morphia = new Morphia();
+      final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+      final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(datastore, morphia)
+          .withExecutor(command -> {
+            tasks.incrementAndGet();
+            pool.execute(command);
+          })
+          .withAsyncArchiving(10, 2, 5, BackpressurePolicy.BLOCK);
+      assertEquals(tasks.get(), 2, "The archiving workers should run on the executor");
+
+      final Record record = record(datastore, 4);
+      interceptor.flush();
+      assertEquals(interceptor.findArchivedVersionAsync(record, 3).join().getContent(), "v3");
+      assertEquals(tasks.get(), 3);
+
+      interceptor.close();
+      datastore.save(record.setContent("v5"));
+      assertEquals(interceptor.countVersions(record), 3);
+      assertEquals(interceptor.findArchivedVersion(record, 4).getContent(), "v4");
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void overflowOrder() throws InterruptedException {
+    final List<Long> written = new CopyOnWriteArrayList<>();
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
+    try (AsyncArchiver archiver = new AsyncArchiver(1, 1, 1, BackpressurePolicy.SYNCHRONOUS, pool, tasks -> {
+      if (tasks.get(0).getVersion() == 1) {
+        writing.countDown();
+        await(release);
+      }
+      tasks.forEach(task -> written.add(task.getVersion()));
+    })) {
+      final ObjectId id = new ObjectId();
+      archiver.submit(new ArchiveTask(null, id, 1, null));
+      assertTrue(writing.await(10, TimeUnit.SECONDS));
+      archiver.submit(new ArchiveTask(null, id, 2, null));
+      pool.execute(() -> {
+        sleep(100);
+        release.countDown();
+      });
+      archiver.submit(new ArchiveTask(null, id, 3, null));
+      archiver.submit(new ArchiveTask(null, new ObjectId(), 10, null));
+      archiver.flush();
+      assertEquals(written.stream().filter(version -> version < 10).collect(toList()), asList(1L, 2L, 3L),
+          "An overflowing version should wait behind the queued versions of its entity");
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(timeOut = 10000)
+  public void closeWithoutFlush() {
+    final List<Long> written = new CopyOnWriteArrayList<>();
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService pool = Executors.newFixedThreadPool(1);
+    try {
+      final AsyncArchiver archiver = new AsyncArchiver(10, 1, 1, BackpressurePolicy.BLOCK, pool, tasks -> {
+        await(release);
+        tasks.forEach(task -> written.add(task.getVersion()));
+      });
+      final ObjectId id = new ObjectId();
+      for (long version = 1; version <= 5; version++) {
+        archiver.submit(new ArchiveTask(null, id, version, null));
+      }
+      new Thread(() -> {
+        sleep(100);
+        release.countDown();
+      }).start();
+      archiver.close();
+      assertEquals(written, asList(1L, 2L, 3L, 4L, 5L), "Closing should write every queued version");
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void defaultExecutor() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(datastore, morphia);
+    assertSame(interceptor.getExecutor(), DefaultExecutor.get());
+    final String thread = CompletableFuture.supplyAsync(() -> Thread.currentThread().toString(),
+        interceptor.getExecutor()).join();
+    assertTrue(thread.contains("Virtual") || thread.contains("lariat-async"), thread);
+  }
+
+  private ArchiveInterceptor<Record, ObjectId> interceptor(final Datastore datastore, final Morphia morphia) {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia, Record.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class);
+    return interceptor;
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Record record(final Datastore datastore, final int versions) {
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    for (int version = 2; version <= versions; version++) {
+      datastore.save(record.setContent("v" + version));
+    }
+    return record;
+  }
+}
@@ -0,0 +1,152 @@
+package com.antwerkz.lariat;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.LegacyPage;
+import com.antwerkz.lariat.model.Page;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class BucketLayoutTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Page, ObjectId> pageInterceptor;
+
+  private final ArchiveInterceptor<Book, ObjectId> bookInterceptor;
+
+  public BucketLayoutTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    pageInterceptor = new ArchiveInterceptor<>(datastore, morphia, Page.class);
+    bookInterceptor = new ArchiveInterceptor<>(datastore, morphia, Book.class);
+    morphia.getMapper().addInterceptor(pageInterceptor);
+    morphia.getMapper().addInterceptor(bookInterceptor);
+    morphia.map(Page.class, Book.class);
+  }
+
+  @Test
+  public void singleBucket() {
+    final Page page = new Page("Value 1");
+    datastore.save(page);
+    for (int i = 2; i <= 10; i++) {
+      datastore.save(page.setContent("Value " + i));
+      assertEquals(pageInterceptor.countVersions(page), Math.min(i - 1, Page.MAX_ARCHIVE_COUNT));
+    }
+    assertEquals(count("pages_archive"), 1, "Should find a single bucket");
+    for (long version = 7; version <= 9; version++) {
+      assertEquals(pageInterceptor.findArchivedVersion(page, version).getContent(), "Value " + version);
+    }
+    missing(pageInterceptor, page, 6);
+
+    final Page reverted = pageInterceptor.revertToVersion(page, 8);
+    assertEquals(reverted.getContent(), "Value 8");
+    assertEquals(datastore.get(Page.class, page.getId()).getContent(), "Value 8");
+    assertEquals(pageInterceptor.findArchivedVersion(reverted, 10).getContent(), "Value 10");
+  }
+
+  @Test
+  public void overflowBuckets() {
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    for (int i = 2; i <= 20; i++) {
+      datastore.save(book.setContent("Value " + i));
+      assertEquals(bookInterceptor.countVersions(book), Math.min(i - 1, Book.MAX_ARCHIVE_COUNT));
+    }
+    for (long version = 15; version <= 19; version++) {
+      assertEquals(bookInterceptor.findArchivedVersion(book, version).getContent(), "Value " + version);
+    }
+    missing(bookInterceptor, book, 14);
+    assertEquals(count("books_archive"), 3, "Should find the buckets for versions 14-15, 16-17 and 18-19");
+  }
+
+  @Test
+  public void migration() throws UnknownHostException {
+    final Morphia legacyMorphia = new Morphia();
+    final Datastore legacyDatastore = new DatastoreImpl(legacyMorphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<LegacyPage, ObjectId> legacyInterceptor = new ArchiveInterceptor<>(legacyDatastore,
+        legacyMorphia, LegacyPage.class);
+    legacyMorphia.getMapper().addInterceptor(legacyInterceptor);
+    legacyMorphia.map(LegacyPage.class);
+
+    final LegacyPage legacy = new LegacyPage("Value 1");
+    legacyDatastore.save(legacy);
+    for (int i = 2; i <= 4; i++) {
+      legacyDatastore.save(legacy.setContent("Value " + i));
+    }
+    assertEquals(count("pages_archive"), 3);
+
+    assertEquals(new ArchiveMigration(datastore, morphia).migrate(Page.class), 3);
+    assertEquals(count("pages_archive"), 1);
+    final Page page = datastore.get(Page.class, legacy.getId());
+    assertEquals(pageInterceptor.countVersions(page), 3);
+    for (long version = 1; version <= 3; version++) {
+      assertEquals(pageInterceptor.findArchivedVersion(page, version).getContent(), "Value " + version);
+    }
+    datastore.save(page.setContent("Value 5"));
+    assertEquals(pageInterceptor.findArchivedVersion(page, 4).getContent(), "Value 4");
+
+    assertEquals(new ArchiveMigration(legacyDatastore, legacyMorphia).migrate(LegacyPage.class), 3);
+    assertEquals(count("pages_archive"), 3);
+    final LegacyPage migrated = legacyDatastore.get(LegacyPage.class, legacy.getId());
+    for (long version = 2; version <= 4; version++) {
+      assertEquals(legacyInterceptor.findArchivedVersion(migrated, version).getContent(), "Value " + version);
+    }
+  }
+
+  @Test
+  public void resumedMigration() {
+    final Morphia legacyMorphia = new Morphia();
+    final Datastore legacyDatastore = new DatastoreImpl(legacyMorphia, mongoClient, DB_NAME);
+    legacyMorphia.getMapper().addInterceptor(new ArchiveInterceptor<>(legacyDatastore, legacyMorphia,
+        LegacyPage.class));
+    legacyMorphia.map(LegacyPage.class);
+    final LegacyPage legacy = new LegacyPage("Value 1");
+    legacyDatastore.save(legacy);
+    for (int i = 2; i <= 4; i++) {
+      legacyDatastore.save(legacy.setContent("Value " + i));
+    }
+
+    final DBCollection archive = datastore.getDB().getCollection("pages_archive");
+    final List<DBObject> copied = new ArrayList<>();
+    for (final DBObject version : archive.find().sort(new BasicDBObject("version", 1))) {
+      version.removeField("_id");
+      version.removeField(ArchiveInterceptor.ARCHIVE_ID);
+      copied.add(version);
+    }
+    archive.insert(new BasicDBObject(ArchiveInterceptor.ARCHIVE_ID, legacy.getId())
+        .append(BucketLayout.BUCKET, 0L)
+        .append(BucketLayout.VERSIONS, copied));
+
+    assertEquals(new ArchiveMigration(datastore, morphia).migrate(Page.class), 0,
+        "The versions copied before the run stopped should not be copied again");
+    assertEquals(count("pages_archive"), 1);
+    final Page page = datastore.get(Page.class, legacy.getId());
+    assertEquals(pageInterceptor.countVersions(page), 3);
+    assertEquals(((List<?>) archive.findOne().get(BucketLayout.VERSIONS)).size(), 3);
+  }
+
+  private <T> void missing(final ArchiveInterceptor<T, ObjectId> interceptor, final T entity, final long version) {
+    try {
+      interceptor.findArchivedVersion(entity, version);
+      fail("Version " + version + " should have been pruned");
+    } catch (NoSuchElementException ignored) {
+    }
+  }
+
+  private long count(final String name) {
+    return mongoClient.getDB(DB_NAME).getCollection(name).count();
+  }
+}
@@ -0,0 +1,226 @@
+package com.antwerkz.lariat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.antwerkz.lariat.model.Article;
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class BulkRevertTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Record, ObjectId> recordInterceptor;
+
+  private final ArchiveInterceptor<Book, ObjectId> bookInterceptor;
+
+  private final ArchiveInterceptor<Article, ObjectId> articleInterceptor;
+
+  public BulkRevertTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Book.class, Article.class);
+    recordInterceptor = dispatcher.forClass(Record.class);
+    bookInterceptor = dispatcher.forClass(Book.class);
+    articleInterceptor = dispatcher.forClass(Article.class);
+  }
+
+  @Test
+  public void toVersion() {
+    final List<Record> records = records(10, 3);
+    final Record other = new Record("other", "v1");
+    datastore.save(other);
+    datastore.save(other.setContent("v2"));
+
+    final RevertProgress progress = recordInterceptor.bulkRevert(datastore.createQuery(Record.class)
+        .filter("name !=", "other"))
+        .toVersion(2)
+        .withBatchSize(3)
+        .execute();
+    assertEquals(progress.getScanned(), 10);
+    assertEquals(progress.getReverted(), 10);
+    assertEquals(progress.getMissing(), 0);
+    assertEquals(progress.getConflicts(), 0);
+
+    for (final Record record : records) {
+      final Record reverted = datastore.get(Record.class, record.getId());
+      assertEquals(reverted.getContent(), "v2");
+      assertEquals(reverted.getName(), record.getName());
+      assertEquals(reverted.getVersion(), 4);
+      assertEquals(recordInterceptor.findArchivedVersion(reverted, 3).getContent(), "v3");
+    }
+    assertEquals(datastore.get(Record.class, other.getId()).getContent(), "v2");
+  }
+
+  @Test
+  public void toInstant() throws InterruptedException {
+    final List<Record> records = records(6, 1);
+    Thread.sleep(20);
+    final Instant instant = Instant.now();
+    Thread.sleep(20);
+    for (int i = 0; i < records.size(); i += 2) {
+      datastore.save(records.get(i).setContent("changed"));
+      datastore.save(records.get(i).setContent("changed again"));
+    }
+
+    final RevertProgress progress = recordInterceptor.bulkRevert(datastore.createQuery(Record.class))
+        .toInstant(instant)
+        .execute();
+    assertEquals(progress.getScanned(), 6);
+    assertEquals(progress.getReverted(), 3);
+    assertEquals(progress.getMissing(), 3, "Records not saved since the instant are left alone");
+    for (final Record record : records) {
+      assertEquals(datastore.get(Record.class, record.getId()).getContent(), "v1");
+    }
+  }
+
+  @Test
+  public void parallel() {
+    final List<Record> records = records(100, 2);
+    final List<RevertProgress> reported = new ArrayList<>();
+    final RevertProgress progress = recordInterceptor.bulkRevert(datastore.createQuery(Record.class))
+        .toVersion(1)
+        .withBatchSize(7)
+        .withParallelism(4)
+        .withProgress(reported::add)
+        .execute();
+    assertEquals(progress.getReverted(), 100);
+    assertEquals(reported.size(), 15, "Progress should be reported once per batch");
+    assertTrue(progress.getThroughput() > 0);
+    assertEquals(datastore.createQuery(Record.class).filter("content", "v1").countAll(), records.size());
+  }
+
+  @Test
+  public void missing() {
+    records(4, 5);
+    final RevertProgress progress = recordInterceptor.bulkRevert(datastore.createQuery(Record.class))
+        .toVersion(1)
+        .execute();
+    assertEquals(progress.getReverted(), 0);
+    assertEquals(progress.getMissing(), 4, "Version 1 should have been pruned");
+  }
+
+  @Test
+  public void buckets() {
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    for (int i = 2; i <= 5; i++) {
+      datastore.save(book.setContent("Value " + i));
+    }
+    final RevertProgress progress = bookInterceptor.bulkRevert(datastore.createQuery(Book.class))
+        .toVersion(3)
+        .execute();
+    assertEquals(progress.getReverted(), 1);
+    final Book reverted = datastore.get(Book.class, book.getId());
+    assertEquals(reverted.getContent(), "Value 3");
+    assertEquals(bookInterceptor.findArchivedVersion(reverted, 5).getContent(), "Value 5");
+  }
+
+  @Test
+  public void deltas() {
+    final Article article = new Article("Title 1", "Body");
+    datastore.save(article);
+    for (int i = 2; i <= 5; i++) {
+      article.getTags().add("tag" + i);
+      datastore.save(article.setTitle("Title " + i));
+    }
+    articleInterceptor.bulkRevert(datastore.createQuery(Article.class))
+        .toVersion(3)
+        .execute();
+    final Article reverted = datastore.get(Article.class, article.getId());
+    assertEquals(reverted.getTitle(), "Title 3");
+    assertEquals(reverted.getTags().size(), 2);
+    assertEquals(articleInterceptor.findArchivedVersion(reverted, 5).getTitle(), "Title 5");
+  }
+
+  @Test
+  public void conflicts() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final AtomicBoolean beforeRevert = new AtomicBoolean();
+    final AtomicBoolean afterRevert = new AtomicBoolean();
+    final ArchiveInterceptor<Article, ObjectId> interceptor = new ArchiveInterceptor<Article, ObjectId>(datastore,
+        morphia, Article.class) {
+      @Override
+      DBObject findArchived(final ArchivedEntity archivedEntity, final Object id, final long version) {
+        if (beforeRevert.compareAndSet(true, false)) {
+          datastore.save(datastore.get(Article.class, id).setTitle("Concurrent"));
+          afterRevert.set(true);
+        }
+        return super.findArchived(archivedEntity, id, version);
+      }
+
+      @Override
+      void write(final List<ArchiveTask> tasks) {
+        super.write(tasks);
+        if (afterRevert.compareAndSet(true, false)) {
+          datastore.save(datastore.get(Article.class, tasks.get(0).getId()).setTitle("Concurrent"));
+        }
+      }
+    };
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Article.class);
+    final List<Article> articles = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      final Article article = new Article("Title 1", "Body");
+      datastore.save(article);
+      for (int j = 2; j <= 5; j++) {
+        datastore.save(article.setTitle("Title " + j));
+      }
+      articles.add(article);
+    }
+
+    beforeRevert.set(true);
+    final RevertProgress progress = interceptor.bulkRevert(datastore.createQuery(Article.class))
+        .toVersion(3)
+        .execute();
+    assertEquals(progress.getReverted(), 1);
+    assertEquals(progress.getConflicts(), 1);
+    final List<String> prior = new ArrayList<>();
+    for (final Article article : articles) {
+      final Article live = datastore.get(Article.class, article.getId());
+      assertEquals(live.getTitle(), "Concurrent");
+      datastore.save(live.setTitle("Final"));
+      assertEquals(interceptor.findArchivedVersion(live, live.getVersion() - 1).getTitle(), "Concurrent");
+      prior.add(interceptor.findArchivedVersion(live, live.getVersion() - 2).getTitle());
+    }
+    assertEquals(prior, asList("Title 5", "Title 3"), "The conflict should keep its own history");
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void noTarget() {
+    recordInterceptor.bulkRevert(datastore.createQuery(Record.class)).execute();
+  }
+
+  /**
+   * Saves {@code count} records with {@code versions} versions each whose content is "v" and the version number.
+   */
+  private List<Record> records(final int count, final int versions) {
+    final List<Record> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(new Record("record " + i, "v1"));
+    }
+    recordInterceptor.saveAll(records);
+    for (int version = 2; version <= versions; version++) {
+      for (final Record record : records) {
+        record.setContent("v" + version);
+      }
+      recordInterceptor.saveAll(records);
+    }
+    return records;
+  }
+}
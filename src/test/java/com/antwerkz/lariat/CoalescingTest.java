@@ -0,0 +1,80 @@
+package com.antwerkz.lariat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antwerkz.lariat.model.Counter;
+import com.antwerkz.lariat.model.Status;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class CoalescingTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Counter, ObjectId> counterInterceptor;
+
+  private final ArchiveInterceptor<Status, ObjectId> statusInterceptor;
+
+  public CoalescingTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    counterInterceptor = new ArchiveInterceptor<>(datastore, morphia, Counter.class);
+    statusInterceptor = new ArchiveInterceptor<>(datastore, morphia, Status.class);
+    morphia.getMapper().addInterceptor(counterInterceptor);
+    morphia.getMapper().addInterceptor(statusInterceptor);
+    morphia.map(Counter.class, Status.class);
+  }
+
+  @Test
+  public void archiveEvery() {
+    final Counter counter = new Counter();
+    datastore.save(counter);
+    for (int i = 1; i < 21; i++) {
+      datastore.save(counter.setValue(i));
+    }
+    assertEquals(counter.getVersion(), 21);
+    assertEquals(counterInterceptor.countVersions(counter), 3);
+    assertEquals(counterInterceptor.getCoalescedSaves(), 16);
+    for (long version = 10; version <= 20; version += 5) {
+      assertEquals(counterInterceptor.findArchivedVersion(counter, version).getValue(), version - 1);
+    }
+
+    final Counter reverted = counterInterceptor.revert(counter);
+    assertEquals(reverted.getValue(), 19);
+    assertEquals(datastore.get(Counter.class, counter.getId()).getValue(), 19);
+  }
+
+  @Test
+  public void coalesceMillis() throws InterruptedException {
+    final List<Status> statuses = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      statuses.add(new Status());
+    }
+    statusInterceptor.saveAll(statuses);
+    final long start = System.nanoTime();
+    for (int i = 1; i <= 10; i++) {
+      for (final Status status : statuses) {
+        status.setValue(i);
+      }
+      statusInterceptor.saveAll(statuses);
+    }
+    if ((System.nanoTime() - start) / 1_000_000 < Status.WINDOW) {
+      for (final Status status : statuses) {
+        assertEquals(statusInterceptor.countVersions(status), 1);
+        assertEquals(statusInterceptor.findArchivedVersion(status, 1).getValue(), 0);
+      }
+      assertEquals(statusInterceptor.getCoalescedSaves(), 27);
+    }
+
+    Thread.sleep(Status.WINDOW + 100);
+    final Status status = statuses.get(0);
+    datastore.save(status.setValue(11));
+    assertEquals(statusInterceptor.findArchivedVersion(status, 11).getValue(), 10);
+    assertEquals(statusInterceptor.revert(status).getValue(), 10);
+  }
+}
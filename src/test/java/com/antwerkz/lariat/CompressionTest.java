@@ -0,0 +1,93 @@
+package com.antwerkz.lariat;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.antwerkz.lariat.model.Manual;
+import com.antwerkz.lariat.model.Report;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class CompressionTest extends TestBase {
+  private static final String BODY = new String(new char[200]).replace("\0", "A body which compresses well. ");
+
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Report, ObjectId> reportInterceptor;
+
+  private final ArchiveInterceptor<Manual, ObjectId> manualInterceptor;
+
+  public CompressionTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    reportInterceptor = new ArchiveInterceptor<>(datastore, morphia, Report.class);
+    manualInterceptor = new ArchiveInterceptor<>(datastore, morphia, Manual.class);
+    morphia.getMapper().addInterceptor(reportInterceptor);
+    morphia.getMapper().addInterceptor(manualInterceptor);
+    morphia.map(Report.class, Manual.class);
+  }
+
+  @Test
+  public void documents() {
+    final Report report = new Report("Title 0", BODY);
+    final Map<Long, String> expected = new HashMap<>();
+    datastore.save(report);
+    expected.put(report.getVersion(), report.toString());
+    for (int i = 1; i <= 5; i++) {
+      report.setTitle("Title " + i).getSections().add("Section " + i);
+      datastore.save(report);
+      expected.put(report.getVersion(), report.toString());
+    }
+
+    final DBObject stored = mongoClient.getDB(DB_NAME).getCollection("reports_archive")
+        .findOne(new BasicDBObject(ArchiveInterceptor.ARCHIVE_ID, report.getId()).append("version", 5L));
+    assertEquals(stored.keySet(), new HashSet<>(asList("_id", ArchiveInterceptor.ARCHIVE_ID, "version", Compression.PAYLOAD,
+        ArchiveInterceptor.ARCHIVED_AT)));
+    assertTrue(stored.get(Compression.PAYLOAD) instanceof byte[]);
+    assertEquals(reportInterceptor.countVersions(report), Report.MAX_ARCHIVE_COUNT);
+
+    for (long version = 3; version <= 5; version++) {
+      final Report archived = reportInterceptor.findArchivedVersion(report, version);
+      assertEquals(archived.getBody(), BODY);
+      assertEquals(archived.toString().replaceAll("version=\\d+", ""),
+          expected.get(version).replaceAll("version=\\d+", ""));
+    }
+    assertEquals(reportInterceptor.revertToVersion(report, 4).getTitle(), "Title 3");
+
+    final CompressionStats stats = reportInterceptor.getCompressionStats();
+    assertEquals(stats.getCompressedVersions(), 6);
+    assertEquals(stats.getDecompressedVersions(), 4);
+    assertTrue(stats.getRatio() > 10, stats.toString());
+  }
+
+  @Test
+  public void deltaBuckets() {
+    final Manual manual = new Manual("Title 0", BODY);
+    final Map<Long, String> expected = new HashMap<>();
+    datastore.save(manual);
+    expected.put(manual.getVersion(), manual.toString());
+    for (int i = 1; i <= 9; i++) {
+      manual.setTitle("Title " + i).getSections().add("Section " + i);
+      datastore.save(manual);
+      expected.put(manual.getVersion(), manual.toString());
+    }
+
+    for (long version = 7; version <= 9; version++) {
+      final Manual archived = manualInterceptor.findArchivedVersion(manual, version);
+      assertEquals(archived.getBody(), BODY);
+      assertEquals(archived.toString().replaceAll("version=\\d+", ""),
+          expected.get(version).replaceAll("version=\\d+", ""));
+    }
+    assertTrue(manualInterceptor.getCompressionStats().getRatio() > 1);
+  }
+}
@@ -0,0 +1,194 @@
+package com.antwerkz.lariat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.antwerkz.lariat.model.Article;
+import com.antwerkz.lariat.model.Journal;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class DeltaEncodingTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Article, ObjectId> articleInterceptor;
+
+  private final ArchiveInterceptor<Journal, ObjectId> journalInterceptor;
+
+  public DeltaEncodingTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    articleInterceptor = new ArchiveInterceptor<>(datastore, morphia, Article.class);
+    journalInterceptor = new ArchiveInterceptor<>(datastore, morphia, Journal.class);
+    morphia.getMapper().addInterceptor(articleInterceptor);
+    morphia.getMapper().addInterceptor(journalInterceptor);
+    morphia.map(Article.class, Journal.class);
+  }
+
+  @Test
+  public void documents() {
+    final Article article = new Article("Title 0", "A long body which never changes");
+    final Map<Long, String> expected = new HashMap<>();
+    datastore.save(article);
+    expected.put(article.getVersion(), article.toString());
+    for (int i = 1; i <= 20; i++) {
+      change(i, article.setTitle("Title " + i).getTags(), article.getAttributes());
+      datastore.save(article);
+      expected.put(article.getVersion(), article.toString());
+    }
+
+    verify(articleInterceptor, article, expected);
+    final long versions = articleInterceptor.countVersions(article);
+    assertTrue(versions >= Article.MAX_ARCHIVE_COUNT && versions < Article.MAX_ARCHIVE_COUNT + Article.KEYFRAME_INTERVAL,
+        "Found " + versions + " versions");
+
+    final DBObject keyframe = archived("articles_archive", 19);
+    assertEquals(keyframe.get("title"), "Title 18");
+    assertEquals(keyframe.get("body"), "A long body which never changes");
+    final DBObject delta = archived("articles_archive", 20);
+    assertFalse(delta.containsField("title"));
+    assertFalse(delta.containsField("body"));
+
+    final Article reverted = articleInterceptor.revertToVersion(article, 18);
+    assertEquals(reverted.toString().replaceAll("version=\\d+", ""), expected.get(18L).replaceAll("version=\\d+", ""));
+  }
+
+  @Test
+  public void buckets() {
+    final Journal journal = new Journal("Title 0", "A long body which never changes");
+    final Map<Long, String> expected = new HashMap<>();
+    datastore.save(journal);
+    expected.put(journal.getVersion(), journal.toString());
+    for (int i = 1; i <= 20; i++) {
+      change(i, journal.setTitle("Title " + i).getTags(), journal.getAttributes());
+      datastore.save(journal);
+      expected.put(journal.getVersion(), journal.toString());
+    }
+
+    verify(journalInterceptor, journal, expected);
+  }
+
+  @Test
+  public void batches() {
+    final List<Article> articles = new ArrayList<>();
+    final Map<ObjectId, Map<Long, String>> expected = new LinkedHashMap<>();
+    for (int i = 0; i < 3; i++) {
+      articles.add(new Article("Article " + i, "Body " + i));
+    }
+    articleInterceptor.saveAll(articles);
+    for (final Article article : articles) {
+      expected.computeIfAbsent(article.getId(), id -> new HashMap<>()).put(article.getVersion(), article.toString());
+    }
+    for (int i = 1; i <= 8; i++) {
+      for (final Article article : articles) {
+        change(i, article.setTitle(article.getTitle() + " " + i).getTags(), article.getAttributes());
+      }
+      articleInterceptor.saveAll(articles);
+      for (final Article article : articles) {
+        expected.get(article.getId()).put(article.getVersion(), article.toString());
+      }
+    }
+    for (final Article article : articles) {
+      verify(articleInterceptor, article, expected.get(article.getId()));
+    }
+  }
+
+  @Test
+  public void failedSave() {
+    datastore.save(new Article("Taken", "Another body"));
+    Article article = new Article("Title 0", "A long body which never changes");
+    final Map<Long, String> expected = new HashMap<>();
+    datastore.save(article);
+    expected.put(article.getVersion(), article.toString());
+    for (int i = 1; i <= 2; i++) {
+      datastore.save(article.setTitle("Title " + i));
+      expected.put(article.getVersion(), article.toString());
+    }
+    datastore.getDB().getCollection("articles")
+        .createIndex(new BasicDBObject("title", 1), new BasicDBObject("unique", true));
+
+    try {
+      datastore.save(article.setTitle("Taken"));
+      fail("The title should be taken");
+    } catch (MongoException ignored) {
+    }
+    article = datastore.get(Article.class, article.getId());
+    for (int i = 3; i <= 5; i++) {
+      datastore.save(article.setTitle("Title " + i));
+      expected.put(article.getVersion(), article.toString());
+    }
+
+    verify(articleInterceptor, article, expected);
+  }
+
+  @Test
+  public void embeddedChanges() {
+    final List<DBObject> entries = new ArrayList<>();
+    for (long version = 1; version <= 5; version++) {
+      final DBObject next = new BasicDBObject(Deltas.OP, Deltas.SET).append(Deltas.PATH, "attributes.count")
+          .append(Deltas.VALUE, version + 1);
+      final DBObject entry = new BasicDBObject("version", version).append(Deltas.NEXT, Arrays.asList(next));
+      if (Deltas.isKeyframe(3, version)) {
+        entry.put(Deltas.KEYFRAME, true);
+        entry.put("attributes", new BasicDBObject("count", version));
+      }
+      entries.add(entry);
+    }
+
+    final List<DBObject> versions = new ArrayList<>();
+    try (CloseableIterator<DBObject> ascending = Deltas.ascending("version", 1, CloseableIterator.of(entries))) {
+      ascending.forEachRemaining(versions::add);
+    }
+    assertEquals(versions.size(), 5);
+    for (int i = 0; i < versions.size(); i++) {
+      assertEquals(((DBObject) versions.get(i).get("attributes")).get("count"), i + 1L,
+          "Rebuilding later versions should not change version " + (i + 1));
+    }
+    assertEquals(((DBObject) entries.get(0).get("attributes")).get("count"), 1L);
+  }
+
+  private void change(final int i, final List<String> tags, final Map<String, String> attributes) {
+    if (i % 2 == 0) {
+      tags.add("tag" + i);
+    }
+    if (i % 3 == 0) {
+      attributes.put("key" + i, "value" + i);
+    }
+    if (i % 4 == 0 && !attributes.isEmpty()) {
+      attributes.remove(attributes.keySet().iterator().next());
+    }
+    if (i % 7 == 0) {
+      tags.clear();
+      tags.addAll(Arrays.asList("reset", "tags"));
+    }
+  }
+
+  private <T> void verify(final ArchiveInterceptor<T, ObjectId> interceptor, final T entity,
+                          final Map<Long, String> expected) {
+    final long latest = expected.keySet().stream().mapToLong(Long::longValue).max().getAsLong();
+    for (long version = latest - 1; version >= latest - 4; version--) {
+      final T archived = interceptor.findArchivedVersion(entity, version);
+      assertEquals(archived.toString().replaceAll("version=\\d+", ""),
+          expected.get(version).replaceAll("version=\\d+", ""), "Version " + version);
+    }
+  }
+
+  private DBObject archived(final String collection, final long version) {
+    return mongoClient.getDB(DB_NAME).getCollection(collection).findOne(new BasicDBObject("version", version));
+  }
+}
@@ -0,0 +1,78 @@
+package com.antwerkz.lariat;
+
+
+import com.antwerkz.lariat.model.Record;
+import com.antwerkz.lariat.model.Setting;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class FingerprintTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Setting, ObjectId> settingInterceptor;
+
+  private final ArchiveInterceptor<Record, ObjectId> recordInterceptor;
+
+  public FingerprintTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    settingInterceptor = new ArchiveInterceptor<>(datastore, morphia, Setting.class);
+    recordInterceptor = new ArchiveInterceptor<Record, ObjectId>(datastore, morphia, Record.class).withSnapshots(100);
+    morphia.getMapper().addInterceptor(settingInterceptor);
+    morphia.getMapper().addInterceptor(recordInterceptor);
+    morphia.map(Setting.class, Record.class);
+  }
+
+  @Test
+  public void skipUnchanged() {
+    final Setting setting = new Setting("timeout", "10");
+    datastore.save(setting);
+    datastore.save(setting.setValue("20"));
+    datastore.save(setting);
+    datastore.save(setting);
+    assertEquals(settingInterceptor.countVersions(setting), 1);
+    assertEquals(settingInterceptor.getUnchangedSaves(), 2);
+    assertEquals(setting.getVersion(), 4);
+
+    datastore.save(setting.setValue("30"));
+    assertEquals(settingInterceptor.countVersions(setting), 2);
+    assertEquals(settingInterceptor.findArchivedVersion(setting, 1).getValue(), "10");
+    assertEquals(settingInterceptor.findArchivedVersion(setting, 4).getValue(), "20");
+
+    final DBObject archived = mongoClient.getDB(DB_NAME).getCollection("settings_archive")
+        .findOne(new BasicDBObject("version", 4L));
+    assertTrue(archived.get(Fingerprint.FINGERPRINT) instanceof Long, archived.toString());
+  }
+
+  @Test
+  public void saveIfChanged() {
+    final Record record = new Record("Record", "Value 1");
+    datastore.save(record);
+    final long version = record.getVersion();
+    recordInterceptor.saveIfChanged(record);
+    recordInterceptor.saveIfChanged(record);
+    assertEquals(record.getVersion(), version);
+    assertEquals(recordInterceptor.countVersions(record), 0);
+    assertEquals(recordInterceptor.getUnchangedSaves(), 2);
+    assertEquals(recordInterceptor.getSnapshotHits(), 2);
+
+    recordInterceptor.saveIfChanged(record.setContent("Value 2"));
+    assertEquals(record.getVersion(), version + 1);
+    assertEquals(recordInterceptor.countVersions(record), 1);
+    assertEquals(recordInterceptor.findArchivedVersion(record, version).getContent(), "Value 1");
+    assertEquals(recordInterceptor.getSnapshotHits(), 3);
+
+    final Record loaded = datastore.get(Record.class, record.getId());
+    recordInterceptor.saveIfChanged(loaded);
+    assertEquals(loaded.getVersion(), version + 1);
+    assertEquals(recordInterceptor.countVersions(record), 1);
+  }
+}
@@ -0,0 +1,124 @@
+package com.antwerkz.lariat;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.antwerkz.lariat.model.Article;
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.Profile;
+import com.antwerkz.lariat.model.Record;
+import com.antwerkz.lariat.model.Report;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class HistoryTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final RecordDao recordDao;
+
+  private final ArchiveInterceptor<Article, ObjectId> articleInterceptor;
+
+  private final ArchiveInterceptor<Book, ObjectId> bookInterceptor;
+
+  private final ArchiveInterceptor<Report, ObjectId> reportInterceptor;
+
+  private final ArchiveInterceptor<Profile, ObjectId> profileInterceptor;
+
+  public HistoryTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Article.class, Book.class, Report.class, Profile.class);
+    recordDao = new RecordDao(datastore,
+        dispatcher.<Record, ObjectId>forClass(Record.class).withHistoryBatchSize(1));
+    articleInterceptor = dispatcher.forClass(Article.class);
+    bookInterceptor = dispatcher.forClass(Book.class);
+    reportInterceptor = dispatcher.forClass(Report.class);
+    profileInterceptor = dispatcher.forClass(Profile.class);
+  }
+
+  @Test
+  public void documents() {
+    final Record record = new Record("history", "content 1");
+    datastore.save(record);
+    for (int i = 2; i <= 5; i++) {
+      datastore.save(record.setContent("content " + i));
+    }
+    try (Stream<Record> history = recordDao.history(record)) {
+      final List<Record> versions = history.collect(toList());
+      assertEquals(versions.size(), Record.MAX_ARCHIVE_COUNT);
+      for (int i = 0; i < versions.size(); i++) {
+        assertEquals(versions.get(i).getVersion(), i + 2);
+        assertEquals(versions.get(i).getContent(), "content " + (i + 2));
+      }
+    }
+    assertEquals(recordDao.history(record, 3, 3).map(Record::getContent).collect(toList()),
+        singletonList("content 3"));
+    assertEquals(recordDao.<String>fieldHistory(record, "content").collect(toList()),
+        asList(new VersionedValue<>(2, "content 2"), new VersionedValue<>(3, "content 3"),
+            new VersionedValue<>(4, "content 4")));
+    try (Stream<Record> history = recordDao.history(record)) {
+      assertEquals(history.findFirst().get().getContent(), "content 2");
+    }
+  }
+
+  @Test
+  public void deltas() {
+    final Article article = new Article("Title 1", "Body");
+    datastore.save(article);
+    for (int i = 2; i <= 20; i++) {
+      article.getTags().add("tag" + i);
+      datastore.save(article.setTitle("Title " + i));
+    }
+    final List<Article> versions = articleInterceptor.history(article, 16, 19).collect(toList());
+    assertEquals(versions.stream().map(Article::getVersion).collect(toList()), asList(16L, 17L, 18L, 19L));
+    for (final Article version : versions) {
+      assertEquals(version.getTitle(), "Title " + version.getVersion());
+      assertEquals(version.getTags().size(), version.getVersion() - 1);
+      assertEquals(version.toString(), articleInterceptor.findArchivedVersion(article, version.getVersion()).toString()
+          .replaceAll("version=\\d+", "version=" + version.getVersion()));
+    }
+    assertEquals(articleInterceptor.<String>fieldHistory(article, "title").map(VersionedValue::getValue)
+        .reduce((first, second) -> second).get(), "Title 19");
+  }
+
+  @Test
+  public void buckets() {
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    for (int i = 2; i <= 10; i++) {
+      datastore.save(book.setContent("Value " + i));
+    }
+    assertEquals(bookInterceptor.<String>fieldHistory(book, "content").map(VersionedValue::getValue).collect(toList()),
+        asList("Value 5", "Value 6", "Value 7", "Value 8", "Value 9"));
+    assertEquals(bookInterceptor.history(book, 6, 7).map(Book::getContent).collect(toList()),
+        asList("Value 6", "Value 7"));
+  }
+
+  @Test
+  public void compressed() {
+    final Report report = new Report("Title 1", "Body");
+    datastore.save(report);
+    for (int i = 2; i <= 4; i++) {
+      datastore.save(report.setTitle("Title " + i));
+    }
+    assertEquals(reportInterceptor.<String>fieldHistory(report, "title").map(VersionedValue::getValue)
+        .collect(toList()), asList("Title 1", "Title 2", "Title 3"));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unarchivedField() {
+    final Profile profile = new Profile("profile");
+    datastore.save(profile);
+    profileInterceptor.fieldHistory(profile, "cache");
+  }
+}
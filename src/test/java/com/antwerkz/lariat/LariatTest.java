@@ -4,6 +4,10 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.antwerkz.lariat.model.Item;
 import com.antwerkz.lariat.model.Record;
@@ -12,13 +16,17 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
 
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.Datastore;
 import org.mongodb.morphia.DatastoreImpl;
 import org.mongodb.morphia.Morphia;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -170,6 +178,134 @@ public class LariatTest {
     assertEquals(userDao.countVersions(rolledBack), 50, "Should find 50 archived users");
   }
 
+  @Test
+  public void snapshots() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<Record, ObjectId>(datastore, morphia,
+        Record.class).withSnapshots(1);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class);
+
+    final Record record = new Record("Record 1", "Value 1");
+    datastore.save(record);
+    datastore.save(record.setContent("Value 2"));
+    assertEquals(interceptor.getSnapshotHits(), 1);
+
+    final Record loaded = datastore.get(Record.class, record.getId());
+    datastore.save(loaded.setContent("Value 3"));
+    assertEquals(interceptor.getSnapshotHits(), 2);
+    assertEquals(interceptor.getSnapshotMisses(), 0);
+
+    final Record other = new Record("Record 2", "Value 0");
+    datastore.save(other);
+    datastore.save(loaded.setContent("Value 4"));
+    assertEquals(interceptor.getSnapshotHits(), 2);
+    assertEquals(interceptor.getSnapshotMisses(), 1);
+
+    final List<DBObject> archived = get(record);
+    assertEquals(archived.size(), 3);
+    for (int i = 0; i < archived.size(); i++) {
+      evaluate(record, archived.get(i), i + 1);
+    }
+  }
+
+  @Test
+  public void asyncArchiving() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<Record, ObjectId>(datastore, morphia,
+        Record.class).withAsyncArchiving(10, 2, 5, BackpressurePolicy.BLOCK);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class);
+
+    final Record record = new Record("Record 1", "Value 1");
+    datastore.save(record);
+    for (int i = 1; i < 50; i++) {
+      datastore.save(record.setContent("Value " + (i + 1)));
+    }
+    interceptor.flush();
+    validate(record, 49);
+
+    interceptor.close();
+    datastore.save(record.setContent("Value 51"));
+    validate(record, 50);
+    assertEquals(interceptor.getDroppedArchives(), 0);
+    assertEquals(interceptor.getFailedArchives(), 0);
+  }
+
+  @Test
+  public void batchSaves() {
+    morphia.map(Record.class);
+    final List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      records.add(new Record("Record " + i, "Value 1"));
+    }
+    recordDao.saveAll(records);
+    for (int i = 1; i < 6; i++) {
+      for (final Record record : records) {
+        record.setContent("Value " + (i + 1));
+      }
+      recordDao.saveAll(records);
+      for (final Record record : records) {
+        validate(record, i);
+      }
+    }
+    assertEquals(count(ARCH_COLLECTION_NAME), records.size() * Record.MAX_ARCHIVE_COUNT);
+  }
+
+  @Test
+  public void failedBatchSave() {
+    morphia.map(Record.class);
+    final Record first = new Record("Record 1", "Value 1");
+    final Record second = new Record("Record 2", "Value 1");
+    recordDao.saveAll(asList(first, second));
+    recordDao.saveAll(asList(first.setContent("Value 2"), second.setContent("Value 2")));
+    datastore.getDB().getCollection("records")
+        .createIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
+    final long archived = count(ARCH_COLLECTION_NAME);
+
+    second.setName("Record 1");
+    try {
+      recordDao.saveAll(asList(second.setContent("Value 3")));
+      fail("The name should be taken");
+    } catch (MongoException ignored) {
+    }
+    assertEquals(count(ARCH_COLLECTION_NAME), archived, "A failed save should not archive its prior version");
+    assertEquals(recordDao.countVersions(second), 1);
+  }
+
+  @Test
+  public void concurrentSaves() throws Exception {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia, Record.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<Record>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      final int thread = i;
+      futures.add(executor.submit(() -> {
+        final Record record = new Record("Record " + thread, "Value 1");
+        start.await();
+        datastore.save(record);
+        for (int j = 2; j <= 5; j++) {
+          datastore.save(record.setContent("Value " + j));
+        }
+        return record;
+      }));
+    }
+    start.countDown();
+    for (final Future<Record> future : futures) {
+      validate(future.get(), 4);
+    }
+    executor.shutdown();
+    assertSame(interceptor.getArchivedEntity(Record.class), interceptor.getArchivedEntity(Record.class));
+  }
+
   private void validate(final Record record, final long count) {
     final long target = Math.min(count, Record.MAX_ARCHIVE_COUNT);
     assertEquals(recordDao.countVersions(record), target);
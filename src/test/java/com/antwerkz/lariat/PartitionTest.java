@@ -0,0 +1,146 @@
+package com.antwerkz.lariat;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import com.antwerkz.lariat.model.Ledger;
+import com.antwerkz.lariat.model.Reading;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappingException;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class PartitionTest extends TestBase {
+  private static final String ARCHIVE = "readings_archive";
+
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Reading, ObjectId> interceptor;
+
+  public PartitionTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    interceptor = new ArchiveInterceptor<>(datastore, morphia, Reading.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Reading.class, Ledger.class);
+  }
+
+  @Test
+  public void routing() {
+    final Morphia routingMorphia = new Morphia();
+    final Datastore routingDatastore = new DatastoreImpl(routingMorphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Reading, ObjectId> routing = new ArchiveInterceptor<>(routingDatastore, routingMorphia,
+        Reading.class);
+    routingMorphia.getMapper().addInterceptor(routing);
+    routingMorphia.map(Reading.class);
+
+    final Reading reading = new Reading();
+    routingDatastore.save(reading);
+    for (int i = 1; i <= 5; i++) {
+      routingDatastore.save(reading.setValue(i));
+    }
+    final DBCollection partition = db().getCollection(partition(0));
+    assertEquals(partition.count(), 5);
+    assertFalse(db().collectionExists(ARCHIVE));
+    assertTrue(partition.getIndexInfo().stream().anyMatch(index -> index.get("name").equals("archiveId")));
+    assertEquals(routing.countVersions(reading), 5, "Partitioned archives should not prune by count");
+    assertEquals(routing.findArchivedVersion(reading, 3).getValue(), 2);
+  }
+
+  @Test
+  public void fanOut() {
+    final Reading reading = new Reading();
+    datastore.save(reading);
+    for (int i = 1; i <= 3; i++) {
+      datastore.save(reading.setValue(i));
+    }
+    move(1, ARCHIVE);
+    move(2, partition(1));
+
+    final ArchiveInterceptor<Reading, ObjectId> reader = new ArchiveInterceptor<>(datastore, morphia, Reading.class);
+    assertEquals(reader.countVersions(reading), 3);
+    for (long version = 1; version <= 3; version++) {
+      assertEquals(reader.findArchivedVersion(reading, version).getValue(), version - 1);
+    }
+    assertEquals(reader.revertToVersion(reading, 1).getValue(), 0);
+  }
+
+  @Test
+  public void expiry() {
+    db().getCollection(ARCHIVE + "_2000_01").insert(new BasicDBObject(ARCHIVE_ID, new ObjectId()));
+    db().getCollection(ARCHIVE + "_old").insert(new BasicDBObject(ARCHIVE_ID, new ObjectId()));
+    db().getCollection(partition(1)).insert(new BasicDBObject(ARCHIVE_ID, new ObjectId()));
+
+    final ArchiveInterceptor<Reading, ObjectId> fresh = new ArchiveInterceptor<>(datastore, morphia, Reading.class);
+    fresh.getArchivedEntity(Reading.class);
+    assertFalse(db().collectionExists(ARCHIVE + "_2000_01"));
+    assertTrue(db().collectionExists(ARCHIVE + "_old"));
+    assertTrue(db().collectionExists(partition(1)));
+
+    db().getCollection(ARCHIVE + "_1999_12").insert(new BasicDBObject(ARCHIVE_ID, new ObjectId()));
+    final List<String> dropped = fresh.dropExpiredPartitions();
+    assertEquals(dropped, singletonList(ARCHIVE + "_1999_12"));
+  }
+
+  @Test
+  public void names() {
+    final Instant instant = Instant.parse("2026-10-18T12:00:00Z");
+    assertEquals(PartitionPeriod.DAY.partition(ARCHIVE, instant), ARCHIVE + "_2026_10_18");
+    assertEquals(PartitionPeriod.MONTH.partition(ARCHIVE, instant), ARCHIVE + "_2026_10");
+    assertEquals(PartitionPeriod.YEAR.partition(ARCHIVE, instant), ARCHIVE + "_2026");
+    assertEquals(PartitionPeriod.MONTH.end(PartitionPeriod.MONTH.start(ARCHIVE, ARCHIVE + "_2026_12")),
+        Instant.parse("2027-01-01T00:00:00Z"));
+    assertEquals(PartitionPeriod.MONTH.start(ARCHIVE, ARCHIVE + "_2026_13"), null);
+    assertEquals(PartitionPeriod.MONTH.start(ARCHIVE, ARCHIVE + "_2026_10_18"), null);
+  }
+
+  @Test(expectedExceptions = MappingException.class)
+  public void bucketPartitions() {
+    new ArchiveInterceptor<>(datastore, morphia, Ledger.class).getArchivedEntity(Ledger.class);
+  }
+
+  @Test
+  public void unseenPartitions() throws InterruptedException {
+    final Reading reading = new Reading();
+    datastore.save(reading);
+    datastore.save(reading.setValue(1));
+    final ArchiveInterceptor<Reading, ObjectId> reader = new ArchiveInterceptor<>(datastore, morphia, Reading.class);
+    assertEquals(reader.countVersions(reading), 1);
+
+    move(1, partition(1));
+    Thread.sleep(1100);
+    assertEquals(reader.findArchivedVersion(reading, 1).getValue(), 0,
+        "A miss should look for partitions opened since they were last listed");
+    assertEquals(reader.countVersions(reading), 1);
+  }
+
+  private void move(final long version, final String collection) {
+    final DBCollection current = db().getCollection(partition(0));
+    final DBObject archived = current.findOne(new BasicDBObject("version", version));
+    current.remove(new BasicDBObject("_id", archived.get("_id")));
+    db().getCollection(collection).insert(archived);
+  }
+
+  private String partition(final int monthsAgo) {
+    final ZonedDateTime month = ZonedDateTime.now(ZoneOffset.UTC).minusMonths(monthsAgo);
+    return PartitionPeriod.MONTH.partition(ARCHIVE, month.toInstant());
+  }
+
+  private DB db() {
+    return mongoClient.getDB(DB_NAME);
+  }
+}
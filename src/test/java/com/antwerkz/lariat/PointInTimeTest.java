@@ -0,0 +1,185 @@
+package com.antwerkz.lariat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import com.antwerkz.lariat.model.Article;
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.Record;
+import com.antwerkz.lariat.model.Report;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class PointInTimeTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Record, ObjectId> recordInterceptor;
+
+  private final ArchiveInterceptor<Book, ObjectId> bookInterceptor;
+
+  private final ArchiveInterceptor<Article, ObjectId> articleInterceptor;
+
+  private final ArchiveInterceptor<Report, ObjectId> reportInterceptor;
+
+  public PointInTimeTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Book.class, Article.class, Report.class);
+    recordInterceptor = dispatcher.<Record, ObjectId>forClass(Record.class).withHistoryBatchSize(2);
+    bookInterceptor = dispatcher.forClass(Book.class);
+    articleInterceptor = dispatcher.forClass(Article.class);
+    reportInterceptor = dispatcher.forClass(Report.class);
+  }
+
+  @Test
+  public void documents() throws InterruptedException {
+    final Record first = new Record("first", "a1");
+    final Record second = new Record("second", "b1");
+    datastore.save(first);
+    datastore.save(second);
+    final Instant instant = pause();
+
+    datastore.save(first.setContent("a2"));
+    datastore.save(second.setContent("b2"));
+    datastore.delete(second);
+    final Record later = new Record("later", "c1");
+    later.setId(new ObjectId(new Date(System.currentTimeMillis() + 60_000)));
+    datastore.save(later);
+
+    final Map<String, Record> then = asOf(recordInterceptor.asOf(Record.class, instant));
+    assertEquals(then.size(), 2);
+    assertEquals(then.get("first").getContent(), "a1");
+    assertEquals(then.get("first").getVersion(), 1);
+    assertEquals(then.get("second").getContent(), "b1");
+
+    final Map<String, Record> now = asOf(recordInterceptor.asOf(Record.class, Instant.now().plusSeconds(120)));
+    assertEquals(now.keySet().size(), 2);
+    assertEquals(now.get("first").getContent(), "a2");
+    assertEquals(now.get("later").getContent(), "c1");
+  }
+
+  @Test
+  public void parallel() throws InterruptedException {
+    final List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      records.add(new Record("record " + i, "before"));
+    }
+    recordInterceptor.saveAll(records);
+    final Instant instant = pause();
+    for (int i = 0; i < records.size(); i += 2) {
+      datastore.save(records.get(i).setContent("after"));
+    }
+    for (int i = 0; i < records.size(); i += 5) {
+      datastore.delete(records.get(i));
+    }
+
+    final Map<String, Record> sequential = asOf(recordInterceptor.asOf(Record.class, instant));
+    assertEquals(sequential.size(), 50 - 5);
+    assertTrue(sequential.values().stream().allMatch(record -> record.getContent().equals("before")));
+    try (Stream<Record> stream = recordInterceptor.asOf(Record.class, instant, 4)) {
+      final List<Record> parallel = stream.collect(toList());
+      assertEquals(parallel.size(), sequential.size());
+      assertEquals(asOf(parallel.stream()).keySet(), sequential.keySet());
+    }
+  }
+
+  @Test
+  public void buckets() throws InterruptedException {
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    final List<Instant> instants = new ArrayList<>();
+    for (int i = 2; i <= 5; i++) {
+      instants.add(pause());
+      datastore.save(book.setContent("Value " + i));
+    }
+    for (int i = 0; i < instants.size(); i++) {
+      final List<Book> books = bookInterceptor.asOf(Book.class, instants.get(i)).collect(toList());
+      assertEquals(books.size(), 1);
+      assertEquals(books.get(0).getContent(), "Value " + (i + 1));
+    }
+  }
+
+  @Test
+  public void deltas() throws InterruptedException {
+    final Article article = new Article("Title 1", "Body");
+    datastore.save(article);
+    final List<Instant> instants = new ArrayList<>();
+    for (int i = 2; i <= 5; i++) {
+      instants.add(pause());
+      article.getTags().add("tag" + i);
+      datastore.save(article.setTitle("Title " + i));
+    }
+    for (int i = 0; i < instants.size(); i++) {
+      final Article then = articleInterceptor.asOf(Article.class, instants.get(i)).findFirst().get();
+      assertEquals(then.getTitle(), "Title " + (i + 1));
+      assertEquals(then.getTags().size(), i);
+    }
+  }
+
+  @Test
+  public void compressed() throws InterruptedException {
+    final Report report = new Report("Title 1", "Body");
+    datastore.save(report);
+    final Instant instant = pause();
+    datastore.save(report.setTitle("Title 2"));
+    assertEquals(reportInterceptor.asOf(Report.class, instant).findFirst().get().getTitle(), "Title 1");
+  }
+
+  @Test
+  public void ids() {
+    assertTrue(PointInTime.compareIds(1, 2L) < 0);
+    assertTrue(PointInTime.compareIds(2.5, 2L) > 0);
+    assertTrue(PointInTime.compareIds("b", "a") > 0);
+    final ObjectId id = new ObjectId();
+    assertEquals(PointInTime.compareIds(id, new ObjectId(id.toHexString())), 0);
+  }
+
+  @Test
+  public void serverOrder() {
+    assertTrue(PointInTime.compareIds(Long.MAX_VALUE, (double) Long.MAX_VALUE) < 0, "longs compare exactly");
+    assertTrue(PointInTime.compareIds(Double.NaN, Double.NEGATIVE_INFINITY) < 0, "NaN sorts below every number");
+    assertEquals(PointInTime.compareIds(-0.0, 0), 0);
+    assertTrue(PointInTime.compareIds("\uFFFF", "\uD83D\uDE00") < 0, "strings compare by code point");
+    assertTrue(PointInTime.compareIds(10, "1") < 0, "numbers sort before strings");
+    assertTrue(PointInTime.compareIds("z", new BasicDBObject("a", 1)) < 0, "strings sort before documents");
+    assertTrue(PointInTime.compareIds(new BasicDBObject("a", 1), new ObjectId()) < 0,
+        "documents sort before object ids");
+    assertTrue(PointInTime.compareIds(new ObjectId(), new Date(0)) < 0, "object ids sort before dates");
+    assertTrue(PointInTime.compareIds(new BasicDBObject("a", 2), new BasicDBObject("a", 1).append("b", 1)) > 0);
+    assertTrue(PointInTime.compareIds(new BasicDBObject("a", 1), new BasicDBObject("a", 1).append("b", 1)) < 0);
+    assertTrue(PointInTime.compareIds(new BasicDBObject("a", "x"), new BasicDBObject("a", 1)) > 0,
+        "document fields compare by type first");
+    assertTrue(PointInTime.compareIds(new ObjectId("000000000000000000000080"),
+        new ObjectId("00000000000000000000007f")) > 0, "object ids compare as unsigned bytes");
+    assertTrue(PointInTime.compareIds(new UUID(0, 0x80), new UUID(0, 0x7f)) > 0);
+  }
+
+  private Instant pause() throws InterruptedException {
+    Thread.sleep(20);
+    final Instant instant = Instant.now();
+    Thread.sleep(20);
+    return instant;
+  }
+
+  private Map<String, Record> asOf(final Stream<Record> records) {
+    try (Stream<Record> stream = records) {
+      return stream.collect(toMap(Record::getName, record -> record));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.antwerkz.lariat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.antwerkz.lariat.model.Invoice;
+import com.antwerkz.lariat.model.Profile;
+import com.antwerkz.lariat.model.Receipt;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappingException;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class ProjectionTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Profile, ObjectId> profileInterceptor;
+
+  private final ArchiveInterceptor<Invoice, ObjectId> invoiceInterceptor;
+
+  public ProjectionTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    profileInterceptor = new ArchiveInterceptor<>(datastore, morphia, Profile.class);
+    invoiceInterceptor = new ArchiveInterceptor<>(datastore, morphia, Invoice.class);
+    morphia.getMapper().addInterceptor(profileInterceptor);
+    morphia.getMapper().addInterceptor(invoiceInterceptor);
+    morphia.map(Profile.class, Invoice.class);
+  }
+
+  @Test
+  public void exclude() {
+    final Profile profile = new Profile("Name 1").setAvatar(new byte[]{1, 2, 3}).setCache("cache 1");
+    datastore.save(profile);
+    datastore.save(profile.setName("Name 2").setAvatar(new byte[]{4, 5, 6}).setCache("cache 2"));
+    final List<Profile> profiles = Arrays.asList(profile, new Profile("Other"));
+    profileInterceptor.saveAll(profiles);
+    profileInterceptor.saveAll(profiles);
+
+    assertEquals(count("profiles_archive"), 4);
+    try (DBCursor cursor = mongoClient.getDB(DB_NAME).getCollection("profiles_archive").find()) {
+      for (final DBObject archived : cursor) {
+        assertTrue(archived.containsField("name"), archived.toString());
+        assertFalse(archived.containsField("avatar"), archived.toString());
+        assertFalse(archived.containsField("cache"), archived.toString());
+      }
+    }
+
+    final Profile archived = profileInterceptor.findArchivedVersion(profile, 1);
+    assertEquals(archived.getName(), "Name 1");
+    assertEquals(archived.getAvatar(), new byte[]{4, 5, 6});
+    assertEquals(archived.getCache(), "cache 2");
+  }
+
+  @Test
+  public void include() {
+    final Invoice invoice = new Invoice(100).setStatus("open").setNotes("notes 1");
+    datastore.save(invoice);
+    for (int i = 2; i <= 5; i++) {
+      datastore.save(invoice.setTotal(100 * i).setNotes("notes " + i).setStatus(i == 5 ? "paid" : "open"));
+    }
+    final DBObject delta = mongoClient.getDB(DB_NAME).getCollection("invoices_archive")
+        .findOne(new BasicDBObject("version", 4L));
+    assertFalse(delta.toString().contains("notes"), delta.toString());
+    final DBObject keyframe = mongoClient.getDB(DB_NAME).getCollection("invoices_archive")
+        .findOne(new BasicDBObject("version", 3L));
+    assertEquals(keyframe.get("amt"), 300L);
+    assertNull(keyframe.get("notes"));
+
+    for (long version = 3; version <= 4; version++) {
+      final Invoice archived = invoiceInterceptor.findArchivedVersion(invoice, version);
+      assertEquals(archived.getTotal(), 100 * version);
+      assertEquals(archived.getStatus(), "open");
+      assertEquals(archived.getNotes(), "notes 5");
+    }
+  }
+
+  @Test(expectedExceptions = MappingException.class)
+  public void includeAndExclude() {
+    new ArchiveInterceptor<>(datastore, morphia, Receipt.class).getArchivedEntity(Receipt.class);
+  }
+
+  private long count(final String name) {
+    return mongoClient.getDB(DB_NAME).getCollection(name).count();
+  }
+}
@@ -0,0 +1,216 @@
+package com.antwerkz.lariat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import com.antwerkz.lariat.model.Event;
+import com.antwerkz.lariat.model.Shelf;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVE_ID;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class RetentionSweeperTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveDispatcher dispatcher;
+
+  public RetentionSweeperTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Event.class, Shelf.class);
+  }
+
+  @Test
+  public void count() {
+    final ArchiveInterceptor<Event, ObjectId> interceptor = dispatcher.forClass(Event.class);
+    final Event event = event(6);
+    final Event other = event(2);
+    assertEquals(interceptor.countVersions(event), 5, "pruneEvery = 0 leaves retention to the sweeper");
+
+    final SweepProgress progress = interceptor.retentionSweeper(Event.class).run();
+    assertEquals(progress.getEntities(), 2);
+    assertEquals(progress.getVersions(), 6);
+    assertEquals(progress.getTrimmed(), 1);
+    assertEquals(progress.getOrphans(), 0);
+    assertEquals(interceptor.countVersions(event), 3);
+    assertEquals(interceptor.countVersions(other), 1);
+    assertEquals(interceptor.findArchivedVersion(event, 3).getValue(), 2);
+    try {
+      interceptor.findArchivedVersion(event, 2);
+      fail("Version 2 should have been swept");
+    } catch (NoSuchElementException ignored) {
+    }
+    assertNull(checkpoints().findOne(), "A completed pass should remove its checkpoint");
+  }
+
+  @Test
+  public void expired() {
+    final ArchiveInterceptor<Event, ObjectId> interceptor = dispatcher.forClass(Event.class);
+    final Event event = event(4);
+    final Date old = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(Event.MAX_AGE * 2));
+    collection("events_archive").update(new BasicDBObject(ARCHIVE_ID, event.getId())
+            .append("version", new BasicDBObject("$lte", 2)),
+        new BasicDBObject("$set", new BasicDBObject(ARCHIVED_AT, old)), false, true);
+
+    final SweepProgress progress = interceptor.retentionSweeper(Event.class).run();
+    assertEquals(progress.getTrimmed(), 1);
+    assertEquals(interceptor.countVersions(event), 1);
+    assertEquals(interceptor.findArchivedVersion(event, 3).getValue(), 2);
+  }
+
+  @Test
+  public void orphans() {
+    final ArchiveInterceptor<Shelf, ObjectId> interceptor = dispatcher.forClass(Shelf.class);
+    final Shelf kept = shelf();
+    final Shelf deleted = shelf();
+    datastore.delete(deleted);
+    assertTrue(collection("shelves_archive").count(new BasicDBObject(ARCHIVE_ID, deleted.getId())) > 0);
+
+    final SweepProgress progress = interceptor.retentionSweeper(Shelf.class).run();
+    assertEquals(progress.getOrphans(), 1);
+    assertEquals(collection("shelves_archive").count(new BasicDBObject(ARCHIVE_ID, deleted.getId())), 0);
+    assertEquals(interceptor.countVersions(kept), 3);
+  }
+
+  @Test
+  public void buckets() {
+    final ArchiveInterceptor<Shelf, ObjectId> interceptor = dispatcher.forClass(Shelf.class);
+    final Shelf shelf = shelf();
+    age("shelves_archive", 4);
+    assertEquals(interceptor.retentionSweeper(Shelf.class).run().getTrimmed(), 1);
+    assertEquals(interceptor.countVersions(shelf), 1);
+    assertEquals(interceptor.findArchivedVersion(shelf, 5).getValue(), 4);
+
+    age("shelves_archive", 5);
+    interceptor.retentionSweeper(Shelf.class).run();
+    assertEquals(collection("shelves_archive").count(), 0, "Empty buckets should be removed");
+  }
+
+  @Test
+  public void resume() {
+    final ArchiveInterceptor<Event, ObjectId> interceptor = dispatcher.forClass(Event.class);
+    final List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      events.add(event(5));
+    }
+    final RetentionSweeper sweeper = interceptor.retentionSweeper(Event.class)
+        .withBatchSize(2)
+        .withProgress(progress -> {
+          throw new IllegalStateException("stopped");
+        });
+    try {
+      sweeper.run();
+      fail("The listener should have stopped the pass");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "stopped");
+    }
+    final DBObject checkpoint = checkpoints().findOne(new BasicDBObject("_id", "events_archive"));
+    assertNotNull(checkpoint);
+    final List<Long> counts = new ArrayList<>();
+    for (final Event event : events) {
+      counts.add(interceptor.countVersions(event));
+    }
+    assertEquals(counts.stream().filter(count -> count == 3).count(), 2);
+
+    final List<SweepProgress> batches = new ArrayList<>();
+    final SweepProgress progress = sweeper.withProgress(batches::add).run();
+    assertEquals(progress.getEntities(), 3, "The pass should resume after the checkpoint");
+    assertEquals(batches.size(), 2);
+    for (final Event event : events) {
+      assertEquals(interceptor.countVersions(event), 3);
+    }
+    assertNull(checkpoints().findOne());
+  }
+
+  @Test
+  public void rateLimit() {
+    final ArchiveInterceptor<Event, ObjectId> interceptor = dispatcher.forClass(Event.class);
+    event(6);
+    final int rate = 100;
+    final SweepProgress progress = interceptor.retentionSweeper(Event.class).withRateLimit(rate).run();
+    assertTrue(progress.getOperations() >= 8, progress.toString());
+    assertTrue(progress.getElapsedMillis() >= (progress.getOperations() - 1) * 1000 / rate - 1, progress.toString());
+  }
+
+  @Test
+  public void background() throws InterruptedException {
+    final ArchiveInterceptor<Event, ObjectId> interceptor = dispatcher.forClass(Event.class);
+    final Event event = event(6);
+    final RetentionSweeper sweeper = interceptor.retentionSweeper(Event.class).start(1, TimeUnit.HOURS);
+    try {
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (interceptor.countVersions(event) > 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(interceptor.countVersions(event), 3);
+    } finally {
+      sweeper.stop();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void mongoOnly() {
+    new ArchiveInterceptor<>(datastore, morphia, Event.class)
+        .withArchiveStore(new InMemoryArchiveStore())
+        .retentionSweeper(Event.class);
+  }
+
+  private Event event(final int versions) {
+    final Event event = new Event();
+    datastore.save(event);
+    for (int i = 1; i < versions; i++) {
+      datastore.save(event.setValue(i));
+    }
+    return event;
+  }
+
+  private Shelf shelf() {
+    final Shelf shelf = new Shelf();
+    datastore.save(shelf);
+    for (int i = 1; i <= 5; i++) {
+      datastore.save(shelf.setValue(i));
+    }
+    return shelf;
+  }
+
+  /**
+   * Backdates the versions in each bucket up to a version past the maximum age.
+   */
+  private void age(final String archive, final long through) {
+    final Date old = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(Shelf.MAX_AGE * 2));
+    for (final DBObject bucket : collection(archive).find()) {
+      for (final Object version : (List<?>) bucket.get("versions")) {
+        if (((Number) ((DBObject) version).get("version")).longValue() <= through) {
+          ((DBObject) version).put(ARCHIVED_AT, old);
+        }
+      }
+      collection(archive).save(bucket);
+    }
+  }
+
+  private DBCollection checkpoints() {
+    return collection(RetentionSweeper.CHECKPOINTS);
+  }
+
+  private DBCollection collection(final String name) {
+    return datastore.getDB().getCollection(name);
+  }
+}
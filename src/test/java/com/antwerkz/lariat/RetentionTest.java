@@ -0,0 +1,138 @@
+package com.antwerkz.lariat;
+
+import java.util.Date;
+
+import com.antwerkz.lariat.model.Draft;
+import com.antwerkz.lariat.model.Event;
+import com.antwerkz.lariat.model.Gauge;
+import com.antwerkz.lariat.model.Shelf;
+import com.antwerkz.lariat.model.Tick;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappingException;
+import static com.antwerkz.lariat.ArchiveInterceptor.ARCHIVED_AT;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class RetentionTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Event, ObjectId> eventInterceptor;
+
+  private final ArchiveInterceptor<Shelf, ObjectId> shelfInterceptor;
+
+  private final ArchiveInterceptor<Tick, ObjectId> tickInterceptor;
+
+  private final ArchiveInterceptor<Gauge, ObjectId> gaugeInterceptor;
+
+  public RetentionTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    eventInterceptor = new ArchiveInterceptor<>(datastore, morphia, Event.class);
+    shelfInterceptor = new ArchiveInterceptor<>(datastore, morphia, Shelf.class);
+    tickInterceptor = new ArchiveInterceptor<>(datastore, morphia, Tick.class);
+    gaugeInterceptor = new ArchiveInterceptor<>(datastore, morphia, Gauge.class);
+    morphia.getMapper().addInterceptor(eventInterceptor);
+    morphia.getMapper().addInterceptor(shelfInterceptor);
+    morphia.getMapper().addInterceptor(tickInterceptor);
+    morphia.getMapper().addInterceptor(gaugeInterceptor);
+    morphia.map(Event.class, Shelf.class, Tick.class, Gauge.class, Draft.class);
+  }
+
+  @Test
+  public void expiry() {
+    final Event event = new Event();
+    final long start = System.currentTimeMillis();
+    datastore.save(event);
+    for (int i = 1; i <= 5; i++) {
+      datastore.save(event.setValue(i));
+    }
+    assertEquals(expiry("events_archive"), Event.MAX_AGE);
+    assertEquals(eventInterceptor.countVersions(event), 5, "pruneEvery = 0 should leave retention to the TTL index");
+    for (final DBObject archived : collection("events_archive").find()) {
+      assertTrue(((Date) archived.get(ARCHIVED_AT)).getTime() >= start);
+    }
+    assertEquals(eventInterceptor.findArchivedVersion(event, 3).getValue(), 2);
+  }
+
+  @Test
+  public void bucketExpiry() {
+    final Shelf shelf = new Shelf();
+    datastore.save(shelf);
+    for (int i = 1; i <= 5; i++) {
+      datastore.save(shelf.setValue(i));
+    }
+    assertEquals(expiry("shelves_archive"), Shelf.MAX_AGE);
+    final DBObject bucket = collection("shelves_archive").findOne();
+    assertTrue(bucket.get(ARCHIVED_AT) instanceof Date);
+    assertEquals(shelfInterceptor.countVersions(shelf), 3);
+    assertEquals(shelfInterceptor.findArchivedVersion(shelf, 5).getValue(), 4);
+  }
+
+  @Test
+  public void pruneEvery() {
+    final Tick tick = new Tick();
+    datastore.save(tick);
+    for (int i = 1; i <= 20; i++) {
+      datastore.save(tick.setValue(i));
+      final long archived = tick.getVersion() - 1;
+      final long expected = archived < Tick.PRUNE_EVERY
+                            ? archived
+                            : Tick.MAX_ARCHIVE_COUNT + archived % Tick.PRUNE_EVERY;
+      assertEquals(tickInterceptor.countVersions(tick), expected, "Archived version " + archived);
+    }
+    assertEquals(tickInterceptor.findArchivedVersion(tick, tick.getVersion() - 1).getValue(), 19);
+  }
+
+  @Test
+  public void pruneEveryWithGaps() {
+    final Gauge gauge = new Gauge();
+    datastore.save(gauge);
+    for (int i = 1; i <= 20; i++) {
+      datastore.save(gauge.setValue(i));
+      datastore.save(gauge);
+      final long expected = i < Gauge.PRUNE_EVERY ? i : Gauge.MAX_ARCHIVE_COUNT + i % Gauge.PRUNE_EVERY;
+      assertEquals(gaugeInterceptor.countVersions(gauge), expected, "Archived versions " + i);
+    }
+    assertEquals(gaugeInterceptor.findArchivedVersion(gauge, gauge.getVersion() - 2).getValue(), 19);
+  }
+
+  @Test
+  public void pruneEverySharedSlots() {
+    final ArchivedEntity archivedEntity = new ArchiveInterceptor<>(datastore, morphia, Gauge.class)
+        .getArchivedEntity(Gauge.class);
+    final int[] unpruned = new int[5000];
+    for (int round = 0; round < 3 * Gauge.PRUNE_EVERY; round++) {
+      for (int id = 0; id < unpruned.length; id++) {
+        unpruned[id] = archivedEntity.shouldPrune(id, round + 1) ? 0 : unpruned[id] + 1;
+        assertTrue(unpruned[id] < Gauge.PRUNE_EVERY, "Id " + id + " has gone unpruned for too long");
+      }
+    }
+  }
+
+  @Test(expectedExceptions = MappingException.class)
+  public void expiringDeltas() {
+    new ArchiveInterceptor<>(datastore, morphia, Draft.class).getArchivedEntity(Draft.class);
+  }
+
+  private long expiry(final String name) {
+    for (final DBObject index : collection(name).getIndexInfo()) {
+      if (index.containsField("expireAfterSeconds")) {
+        assertEquals(index.get("key"), new BasicDBObject(ARCHIVED_AT, 1));
+        return ((Number) index.get("expireAfterSeconds")).longValue();
+      }
+    }
+    return -1;
+  }
+
+  private DBCollection collection(final String name) {
+    return mongoClient.getDB(DB_NAME).getCollection(name);
+  }
+}
@@ -0,0 +1,141 @@
+package com.antwerkz.lariat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.antwerkz.lariat.model.Blob;
+import com.antwerkz.lariat.model.Invoice;
+import com.antwerkz.lariat.model.Profile;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+public class ServerSideCopyTest extends TestBase {
+  /**
+   * Set to skip the {@code $merge} tests against servers older than 4.2.  Without it they fail rather than skip so CI
+   * can't quietly lose the only coverage of the server side copy.
+   */
+  public static final String SKIP_MERGE = "lariat.skipMerge";
+
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveInterceptor<Blob, ObjectId> interceptor;
+
+  public ServerSideCopyTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    interceptor = new ArchiveInterceptor<Blob, ObjectId>(datastore, morphia, Blob.class).withServerSideCopy();
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Blob.class, Invoice.class, Profile.class);
+  }
+
+  @Test
+  public void pipeline() {
+    final ArchivedEntity archivedEntity = new ArchivedEntity(morphia.getMapper().getMappedClass(Profile.class));
+    final Map<Object, Long> versions = new LinkedHashMap<>();
+    versions.put(new ObjectId(), 3L);
+    versions.put(new ObjectId(), 5L);
+    final List<DBObject> pipeline = ServerSideCopy.pipeline(archivedEntity, archivedEntity.getCollection(), versions);
+
+    assertEquals(pipeline.size(), 4);
+    assertEquals(pipeline.get(0).keySet(), singleton("$match"));
+    final List<?> or = (List<?>) ((DBObject) pipeline.get(0).get("$match")).get("$or");
+    assertEquals(or.size(), 2);
+    int index = 0;
+    for (final Entry<Object, Long> entry : versions.entrySet()) {
+      final DBObject match = (DBObject) or.get(index++);
+      assertEquals(match.get("_id"), entry.getKey());
+      assertEquals(match.get(archivedEntity.getFieldName()), entry.getValue());
+    }
+
+    assertEquals(pipeline.get(1).keySet(), singleton("$addFields"));
+    final DBObject addFields = (DBObject) pipeline.get(1).get("$addFields");
+    assertEquals(addFields.get(ArchiveInterceptor.ARCHIVE_ID), "$_id");
+    assertEquals(addFields.get(ArchiveInterceptor.ARCHIVED_AT), "$$NOW");
+
+    assertEquals(pipeline.get(2).keySet(), singleton("$project"));
+    final DBObject project = (DBObject) pipeline.get(2).get("$project");
+    assertEquals(project.get("_id"), 0);
+    assertEquals(project.get("avatar"), 0);
+    assertEquals(project.get("cache"), 0);
+    assertFalse(project.containsField(ArchiveInterceptor.ARCHIVE_ID));
+
+    assertEquals(pipeline.get(3).keySet(), singleton("$merge"));
+    final DBObject merge = (DBObject) pipeline.get(3).get("$merge");
+    assertEquals(merge.get("into"), "profiles_archive");
+    assertEquals(merge.get("on"), asList(ArchiveInterceptor.ARCHIVE_ID, archivedEntity.getFieldName()));
+    assertEquals(merge.get("whenMatched"), "keepExisting");
+    assertEquals(merge.get("whenNotMatched"), "insert");
+  }
+
+  @Test
+  public void singleVersionPipeline() {
+    final ArchivedEntity archivedEntity = new ArchivedEntity(morphia.getMapper().getMappedClass(Invoice.class));
+    final ObjectId id = new ObjectId();
+    final List<DBObject> pipeline = ServerSideCopy.pipeline(archivedEntity, "invoices_archive", singletonMap(id, 2L));
+
+    final DBObject match = (DBObject) pipeline.get(0).get("$match");
+    assertFalse(match.containsField("$or"));
+    assertEquals(match.get("_id"), id);
+    assertEquals(match.get(archivedEntity.getFieldName()), 2L);
+
+    final DBObject project = (DBObject) pipeline.get(2).get("$project");
+    assertEquals(project.get("_id"), 0);
+    assertEquals(project.get("amt"), 1);
+    assertEquals(project.get("status"), 1);
+    assertEquals(project.get(ArchiveInterceptor.ARCHIVE_ID), 1);
+    assertEquals(project.get(ArchiveInterceptor.ARCHIVED_AT), 1);
+    assertEquals(((DBObject) pipeline.get(3).get("$merge")).get("into"), "invoices_archive");
+  }
+
+  @Test
+  public void copies() {
+    if (!interceptor.isServerSideCopy()) {
+      if (Boolean.getBoolean(SKIP_MERGE)) {
+        throw new SkipException("The server does not support $merge");
+      }
+      fail("The server does not support $merge; run against MongoDB 4.2+ or set -D" + SKIP_MERGE + "=true");
+    }
+    final Blob blob = new Blob("Some data");
+    datastore.save(blob);
+    for (int i = 1; i <= 5; i++) {
+      datastore.save(blob.setRevision(i));
+    }
+    assertEquals(interceptor.countVersions(blob), 3);
+    for (long version = 3; version <= 5; version++) {
+      assertEquals(interceptor.findArchivedVersion(blob, version).getRevision(), version - 1);
+    }
+
+    final List<Blob> blobs = new ArrayList<>();
+    blobs.add(blob);
+    blobs.add(new Blob("More data"));
+    interceptor.saveAll(blobs);
+    assertEquals(interceptor.findArchivedVersion(blob, 6).getRevision(), 5);
+  }
+
+  @Test
+  public void fallback() {
+    if (interceptor.isServerSideCopy()) {
+      throw new SkipException("The server supports $merge");
+    }
+    final Blob blob = new Blob("Some data");
+    datastore.save(blob);
+    datastore.save(blob.setRevision(1));
+    assertEquals(interceptor.findArchivedVersion(blob, 1).getRevision(), 0);
+    assertFalse(ServerSideCopy.isSupported(datastore.getDB()));
+  }
+}
@@ -0,0 +1,34 @@
+package com.antwerkz.lariat;
+
+import java.net.UnknownHostException;
+
+import com.mongodb.MongoClient;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+
+/**
+ * Shares one client per test class against {@value #DB_NAME}, which is dropped before each test.
+ */
+public abstract class TestBase {
+  public static final String DB_NAME = "lariat_test";
+
+  protected final MongoClient mongoClient;
+
+  protected TestBase() {
+    try {
+      mongoClient = new MongoClient();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  @BeforeMethod
+  public void dropDatabase() {
+    mongoClient.getDB(DB_NAME).dropDatabase();
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void closeClient() {
+    mongoClient.close();
+  }
+}
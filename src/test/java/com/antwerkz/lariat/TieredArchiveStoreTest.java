@@ -0,0 +1,220 @@
+package com.antwerkz.lariat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.antwerkz.lariat.model.Book;
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TieredArchiveStoreTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveDispatcher dispatcher;
+
+  private Path directory;
+
+  public TieredArchiveStoreTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Book.class);
+  }
+
+  @BeforeMethod
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("lariat-segments");
+  }
+
+  @AfterMethod
+  public void cleanup() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (final Path path : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  public void offload() throws InterruptedException {
+    final TieredArchiveStore store = store();
+    final ArchiveInterceptor<Record, ObjectId> interceptor = dispatcher.<Record, ObjectId>forClass(Record.class)
+        .withArchiveStore(store);
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    datastore.save(record.setContent("v2"));
+    datastore.save(record.setContent("v3"));
+    final Instant cutoff = pause();
+    datastore.save(record.setContent("v4"));
+
+    assertEquals(store.offload(Record.class, cutoff), 2);
+    assertEquals(datastore.getDB().getCollection("records_archive").count(), 1);
+    assertTrue(Files.exists(directory.resolve("records_archive").resolve("0000000001" + Segment.SUFFIX)));
+
+    assertEquals(interceptor.findArchivedVersion(record, 1).getContent(), "v1");
+    assertEquals(interceptor.findArchivedVersion(record, 3).getContent(), "v3");
+    assertEquals(interceptor.countVersions(record), 3);
+    assertEquals(interceptor.history(record).map(Record::getContent).collect(toList()), asList("v1", "v2", "v3"));
+    assertEquals(interceptor.revertToVersion(record, 2).getContent(), "v2");
+    assertEquals(interceptor.asOf(Record.class, cutoff.minusMillis(1)).findFirst().get().getContent(), "v3");
+  }
+
+  @Test
+  public void buckets() throws InterruptedException {
+    final TieredArchiveStore store = store();
+    final ArchiveInterceptor<Book, ObjectId> interceptor = dispatcher.<Book, ObjectId>forClass(Book.class)
+        .withArchiveStore(store);
+    final Book book = new Book("Value 1");
+    datastore.save(book);
+    datastore.save(book.setContent("Value 2"));
+    datastore.save(book.setContent("Value 3"));
+    final Instant cutoff = pause();
+    datastore.save(book.setContent("Value 4"));
+
+    assertEquals(store.offload(Book.class, cutoff), 2);
+    assertEquals(interceptor.countVersions(book), 3);
+    assertEquals(interceptor.findArchivedVersion(book, 1).getContent(), "Value 1");
+    assertEquals(interceptor.findArchivedVersion(book, 3).getContent(), "Value 3");
+    assertEquals(store.getHotStore().count(interceptor.getArchivedEntity(Book.class), book.getId()), 1);
+  }
+
+  @Test
+  public void sparseIndex() throws InterruptedException, IOException {
+    final TieredArchiveStore store = store().withBlockSize(256).withSegmentSize(2048);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = dispatcher.<Record, ObjectId>forClass(Record.class)
+        .withArchiveStore(store);
+    final List<Record> records = Stream.generate(() -> new Record("record", "v1")).limit(50).collect(toList());
+    for (final Record record : records) {
+      datastore.save(record);
+      datastore.save(record.setContent("v2"));
+      datastore.save(record.setContent("v3"));
+    }
+    final Instant cutoff = pause();
+
+    assertEquals(store.offload(Record.class, cutoff), 100);
+    assertEquals(datastore.getDB().getCollection("records_archive").count(), 0);
+    try (Stream<Path> segments = Files.list(directory.resolve("records_archive"))) {
+      assertTrue(segments.count() > 1, "The offload should have been split into several segments");
+    }
+    for (final Record record : records) {
+      assertEquals(interceptor.findArchivedVersion(record, 1).getContent(), "v1");
+      assertEquals(interceptor.findArchivedVersion(record, 2).getContent(), "v2");
+      assertEquals(interceptor.countVersions(record), 2);
+    }
+  }
+
+  @Test
+  public void coldHistory() throws InterruptedException {
+    final TieredArchiveStore store = store().withBlockSize(128).withSegmentSize(512);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = dispatcher.<Record, ObjectId>forClass(Record.class)
+        .withArchiveStore(store);
+    final List<Record> records = Stream.generate(() -> new Record("record", "v1")).limit(5).collect(toList());
+    for (final Record record : records) {
+      datastore.save(record);
+      datastore.save(record.setContent("v2"));
+      datastore.save(record.setContent("v3"));
+    }
+    store.offload(Record.class, pause());
+    for (final Record record : records) {
+      datastore.save(record.setContent("v4"));
+    }
+
+    final ArchivedEntity archivedEntity = interceptor.getArchivedEntity(Record.class);
+    for (final Record record : records) {
+      assertEquals(interceptor.history(record).map(Record::getContent).collect(toList()), asList("v1", "v2", "v3"));
+      assertEquals(interceptor.history(record, 2, 2).map(Record::getContent).collect(toList()), asList("v2"));
+      final List<Long> versions = new ArrayList<>();
+      try (CloseableIterator<DBObject> ascending = store.ascending(archivedEntity, record.getId(), 1, 3, null, 10)) {
+        ascending.forEachRemaining(stored -> versions.add(((Number) stored.get("version")).longValue()));
+      }
+      assertEquals(versions, asList(1L, 2L, 3L));
+    }
+  }
+
+  @Test
+  public void windows() {
+    final Segment.Writer writer = new Segment.Writer(directory.resolve("windows" + Segment.SUFFIX), "version", 200);
+    for (int id = 1; id <= 20; id++) {
+      for (long version = 3; version >= 1; version--) {
+        writer.append(new BasicDBObject(ArchiveInterceptor.ARCHIVE_ID, id)
+            .append("version", version)
+            .append("content", "record " + id + " v" + version));
+      }
+    }
+    writer.seal();
+
+    final Segment segment = Segment.open(directory.resolve("windows" + Segment.SUFFIX), 64);
+    assertEquals(segment.getVersions(), 60);
+    for (int id = 1; id <= 20; id++) {
+      assertEquals(segment.find(id, 2).get("content"), "record " + id + " v2");
+      assertEquals(segment.count(id), 3);
+    }
+    long scanned = 0;
+    try (CloseableIterator<DBObject> scan = segment.scan()) {
+      while (scan.hasNext()) {
+        scan.next();
+        scanned++;
+      }
+    }
+    assertEquals(scanned, 60);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unknownClass() {
+    store().offload(Record.class, Instant.now());
+  }
+
+  @Test
+  public void reopen() throws InterruptedException {
+    final Record record = new Record("record", "v1");
+    final ArchiveInterceptor<Record, ObjectId> interceptor = dispatcher.<Record, ObjectId>forClass(Record.class)
+        .withArchiveStore(store());
+    datastore.save(record);
+    datastore.save(record.setContent("v2"));
+    final Instant cutoff = pause();
+    final ArchivedEntity archivedEntity = interceptor.getArchivedEntity(Record.class);
+    ((TieredArchiveStore) interceptor.getArchiveStore()).offload(Record.class, cutoff);
+    interceptor.getArchiveStore().prune(archivedEntity, new ObjectId(), 5);
+
+    final TieredArchiveStore reopened = store();
+    interceptor.withArchiveStore(reopened);
+    assertEquals(interceptor.findArchivedVersion(record, 1).getContent(), "v1");
+
+    reopened.prune(archivedEntity, record.getId(), 1);
+    assertNull(reopened.find(archivedEntity, record.getId(), 1));
+    assertNull(store().find(archivedEntity, record.getId(), 1), "Pruning should survive reopening the segments");
+    assertEquals(store().count(archivedEntity, record.getId()), 0);
+  }
+
+  private TieredArchiveStore store() {
+    return new TieredArchiveStore(new MongoArchiveStore(datastore.getDB()), directory);
+  }
+
+  private Instant pause() throws InterruptedException {
+    Thread.sleep(10);
+    final Instant instant = Instant.now();
+    Thread.sleep(10);
+    return instant;
+  }
+}
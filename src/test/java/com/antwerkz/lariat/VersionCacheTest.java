@@ -0,0 +1,145 @@
+package com.antwerkz.lariat;
+
+import java.util.NoSuchElementException;
+
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class VersionCacheTest extends TestBase {
+  private final Morphia morphia = new Morphia();
+
+  private final Datastore datastore;
+
+  private final ArchiveDispatcher dispatcher;
+
+  public VersionCacheTest() {
+    datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class);
+  }
+
+  @Test
+  public void hits() {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(100, 1 << 20);
+    final Record record = record(3);
+    assertEquals(interceptor.findArchivedVersion(record, 2).getContent(), "v2");
+    mongoClient.getDB(DB_NAME).getCollection("records_archive").remove(new BasicDBObject());
+    assertEquals(interceptor.findArchivedVersion(record, 2).getContent(), "v2", "Version 2 should be cached");
+    assertEquals(interceptor.findArchivedVersion(record, 2).getVersion(), 3);
+
+    final VersionCacheStats stats = interceptor.getVersionCacheStats();
+    assertEquals(stats.getHits(), 2);
+    assertEquals(stats.getMisses(), 1);
+    assertEquals(stats.getSize(), 1);
+    assertTrue(stats.getWeight() > 0);
+  }
+
+  @Test
+  public void counts() {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(100, 1 << 20);
+    final Record record = record(2);
+    assertEquals(interceptor.countVersions(record), 1);
+    assertEquals(interceptor.countVersions(record), 1);
+    datastore.save(record.setContent("v3"));
+    assertEquals(interceptor.countVersions(record), 2, "Archiving should drop the cached count");
+    assertEquals(interceptor.getVersionCacheStats().getHits(), 1);
+  }
+
+  @Test
+  public void pruned() {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(100, 1 << 20);
+    final Record record = record(4);
+    assertEquals(interceptor.findArchivedVersion(record, 1).getContent(), "v1");
+    assertEquals(interceptor.findArchivedVersion(record, 3).getContent(), "v3");
+    datastore.save(record.setContent("v5"));
+    try {
+      interceptor.findArchivedVersion(record, 1);
+      fail("Version 1 should have been pruned");
+    } catch (NoSuchElementException ignored) {
+    }
+    assertEquals(interceptor.findArchivedVersion(record, 3).getContent(), "v3");
+    final VersionCacheStats stats = interceptor.getVersionCacheStats();
+    assertEquals(stats.getInvalidations(), 1);
+    assertEquals(stats.getHits(), 1, "Version 3 is still retained and should stay cached");
+  }
+
+  @Test
+  public void evictions() {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(2, 1 << 20);
+    final Record record = record(4);
+    for (long version = 1; version <= 3; version++) {
+      interceptor.findArchivedVersion(record, version);
+    }
+    assertEquals(interceptor.getVersionCacheStats().getEvictions(), 1);
+    assertEquals(interceptor.getVersionCacheStats().getSize(), 2);
+    interceptor.findArchivedVersion(record, 3);
+    interceptor.findArchivedVersion(record, 1);
+    assertEquals(interceptor.getVersionCacheStats().getHits(), 1, "Version 1 should have been evicted");
+  }
+
+  @Test
+  public void weight() {
+    final ArchiveInterceptor<Record, ObjectId> interceptor = interceptor(100, 1);
+    final Record record = record(2);
+    interceptor.findArchivedVersion(record, 1);
+    interceptor.findArchivedVersion(record, 1);
+    final VersionCacheStats stats = interceptor.getVersionCacheStats();
+    assertEquals(stats.getHits(), 0, "Versions heavier than the cache should not be cached");
+    assertEquals(stats.getSize(), 0);
+  }
+
+  @Test
+  public void generations() {
+    final VersionCache cache = new VersionCache(100, 1 << 20);
+    final long first = cache.generation("records_archive", 1);
+    final long second = cache.generation("records_archive", 2);
+    cache.invalidate("records_archive", 2, 1);
+    cache.putCount(first, "records_archive", 1, 3);
+    cache.putCount(second, "records_archive", 2, 3);
+    assertEquals(cache.getCount("records_archive", 1), Long.valueOf(3), "Other ids should still be cached");
+    assertNull(cache.getCount("records_archive", 2), "Reads of an invalidated id should not be cached");
+  }
+
+  @Test
+  public void copies() {
+    final VersionCache cache = new VersionCache(100, 1 << 20);
+    final DBObject attributes = new BasicDBObject("color", "red");
+    final DBObject version = new BasicDBObject("name", "record").append("attributes", attributes)
+        .append("tags", new BasicDBList());
+    cache.putVersion(cache.generation("records_archive", 1), "records_archive", 1, 1, version);
+    attributes.put("color", "blue");
+
+    final DBObject cached = cache.getVersion("records_archive", 1, 1);
+    assertEquals(((DBObject) cached.get("attributes")).get("color"), "red");
+    ((DBObject) cached.get("attributes")).put("color", "green");
+    ((BasicDBList) cached.get("tags")).add("tag");
+    final DBObject again = cache.getVersion("records_archive", 1, 1);
+    assertEquals(((DBObject) again.get("attributes")).get("color"), "red");
+    assertTrue(((BasicDBList) again.get("tags")).isEmpty());
+  }
+
+  private ArchiveInterceptor<Record, ObjectId> interceptor(final int maxEntries, final long maxWeight) {
+    return dispatcher.<Record, ObjectId>forClass(Record.class).withVersionCache(maxEntries, maxWeight);
+  }
+
+  private Record record(final int versions) {
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    for (int version = 2; version <= versions; version++) {
+      datastore.save(record.setContent("v" + version));
+    }
+    return record;
+  }
+}
@@ -0,0 +1,122 @@
+package com.antwerkz.lariat;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.antwerkz.lariat.model.Draft;
+import com.antwerkz.lariat.model.Event;
+import com.antwerkz.lariat.model.Page;
+import com.antwerkz.lariat.model.Record;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappingException;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class WarmUpTest extends TestBase {
+  @Test
+  public void interceptor() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Object, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia, Object.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class, Page.class, Event.class, Draft.class);
+
+    final WarmUpReport report = interceptor.warmUp(1, TimeUnit.MINUTES);
+    assertFalse(report.isComplete(), report.toString());
+    assertEquals(report.getTimings().keySet(),
+        new HashSet<>(asList("records_archive", "pages_archive", "events_archive")));
+    assertTrue(report.getPending().isEmpty());
+    assertEquals(report.getFailures().keySet().size(), 1);
+    assertTrue(report.getFailures().get(Draft.class.getName()) instanceof MappingException);
+
+    assertTrue(indexed(datastore, "records_archive", DocumentLayout.INDEX_NAME));
+    assertTrue(indexed(datastore, "pages_archive", BucketLayout.INDEX_NAME));
+    assertTrue(indexed(datastore, "events_archive", DocumentLayout.INDEX_NAME));
+    assertTrue(interceptor.getArchivedEntity(Record.class).isArchived());
+  }
+
+  @Test
+  public void ownClassesOnly() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<>(datastore, morphia, Record.class);
+    morphia.getMapper().addInterceptor(interceptor);
+    morphia.map(Record.class, Page.class, Draft.class);
+
+    final WarmUpReport report = interceptor.warmUp(1, TimeUnit.MINUTES);
+    assertTrue(report.isComplete(), report.toString());
+    assertEquals(report.getTimings().keySet(), new HashSet<>(asList("records_archive")));
+    interceptor.createIndexes();
+    assertTrue(indexed(datastore, "records_archive", DocumentLayout.INDEX_NAME));
+    assertFalse(datastore.getDB().collectionExists("pages_archive"));
+  }
+
+  @Test
+  public void dispatcher() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Page.class);
+
+    final WarmUpReport report = dispatcher.warmUp(1, TimeUnit.MINUTES);
+    assertTrue(report.isComplete(), report.toString());
+    assertEquals(report.getTimings().size(), 2);
+    assertEquals(dispatcher.getInterceptors().size(), 2);
+    assertTrue(indexed(datastore, "pages_archive", BucketLayout.INDEX_NAME));
+
+    final Record record = new Record("record", "v1");
+    datastore.save(record);
+    datastore.save(record.setContent("v2"));
+    assertEquals(dispatcher.forClass(Record.class).findArchivedVersion(record, 1).getContent(), "v1");
+  }
+
+  @Test
+  public void dispatcherExecutor() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final AtomicInteger tasks = new AtomicInteger();
+    final Executor executor = command -> {
+      tasks.incrementAndGet();
+      command.run();
+    };
+    final ArchiveDispatcher dispatcher = new ArchiveDispatcher(datastore, morphia).withExecutor(executor);
+    morphia.getMapper().addInterceptor(dispatcher);
+    morphia.map(Record.class, Page.class);
+
+    assertTrue(dispatcher.warmUp(1, TimeUnit.MINUTES).isComplete());
+    assertEquals(tasks.get(), 2);
+    assertSame(dispatcher.forClass(Record.class).getExecutor(), executor);
+  }
+
+  @Test
+  public void timeout() {
+    final Morphia morphia = new Morphia();
+    final Datastore datastore = new DatastoreImpl(morphia, mongoClient, DB_NAME);
+    final ArchiveInterceptor<Record, ObjectId> interceptor = new ArchiveInterceptor<Record, ObjectId>(datastore, morphia,
+        Record.class).withExecutor(command -> {
+        });
+    morphia.map(Record.class);
+
+    final WarmUpReport report = interceptor.warmUp(10, TimeUnit.MILLISECONDS);
+    assertFalse(report.isComplete());
+    assertEquals(report.getPending(), asList(Record.class.getName()));
+    assertTrue(report.getTimings().isEmpty());
+  }
+
+  private boolean indexed(final Datastore datastore, final String collection, final String index) {
+    final List<DBObject> indexes = datastore.getDB().getCollection(collection).getIndexInfo();
+    return indexes.stream().anyMatch(info -> index.equals(info.get("name")));
+  }
+}
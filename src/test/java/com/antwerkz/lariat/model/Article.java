@@ -0,0 +1,77 @@
+package com.antwerkz.lariat.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "articles", noClassnameStored = true)
+public class Article {
+    public static final int MAX_ARCHIVE_COUNT = 4;
+
+    public static final int KEYFRAME_INTERVAL = 3;
+
+    @Id
+    private ObjectId id;
+    private String title;
+    private String body;
+    private List<String> tags = new ArrayList<>();
+    private Map<String, String> attributes = new LinkedHashMap<>();
+    @Version
+    @Archived(count = Article.MAX_ARCHIVE_COUNT, keyframeInterval = Article.KEYFRAME_INTERVAL)
+    private long version;
+
+    public Article() {
+    }
+
+    public Article(final String title, final String body) {
+        this.title = title;
+        this.body = body;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Article setTitle(final String title) {
+        this.title = title;
+        return this;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Article setBody(final String body) {
+        this.body = body;
+        return this;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Article{id=%s, title='%s', tags=%s, attributes=%s, version=%d}", id, title, tags, attributes,
+            version);
+    }
+}
@@ -0,0 +1,46 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "blobs", noClassnameStored = true)
+public class Blob {
+    @Id
+    private ObjectId id;
+    private int revision;
+    private String data;
+    @Version
+    @Archived(count = 3)
+    private long version;
+
+    public Blob() {
+    }
+
+    public Blob(final String data) {
+        this.data = data;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public Blob setRevision(final int revision) {
+        this.revision = revision;
+        return this;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,49 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.StorageLayout;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "books", noClassnameStored = true)
+public class Book {
+    public static final int MAX_ARCHIVE_COUNT = 5;
+
+    @Id
+    private ObjectId id;
+    private String content;
+    @Version
+    @Archived(count = Book.MAX_ARCHIVE_COUNT, layout = StorageLayout.BUCKET, bucketSize = 2)
+    private long version;
+
+    public Book() {
+    }
+
+    public Book(final String content) {
+        this.content = content;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public Book setContent(final String content) {
+        this.content = content;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Book{id=%s, content='%s', version=%d}", id, content, version);
+    }
+}
@@ -0,0 +1,34 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "counters", noClassnameStored = true)
+public class Counter {
+    @Id
+    private ObjectId id;
+    private long value;
+    @Version
+    @Archived(count = 3, archiveEvery = 5)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public Counter setValue(final long value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,17 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "drafts", noClassnameStored = true)
+public class Draft {
+    @Id
+    private ObjectId id;
+    private String text;
+    @Version
+    @Archived(maxAgeSeconds = 60, keyframeInterval = 2)
+    private long version;
+}
@@ -0,0 +1,36 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "events", noClassnameStored = true)
+public class Event {
+    public static final long MAX_AGE = 3600;
+
+    @Id
+    private ObjectId id;
+    private int value;
+    @Version
+    @Archived(count = 3, maxAgeSeconds = Event.MAX_AGE, pruneEvery = 0)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Event setValue(final int value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
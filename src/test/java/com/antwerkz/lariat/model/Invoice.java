@@ -0,0 +1,63 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Property;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "invoices", noClassnameStored = true)
+public class Invoice {
+    @Id
+    private ObjectId id;
+    @Property("amt")
+    private long total;
+    private String status;
+    private String notes;
+    @Version
+    @Archived(count = 3, include = {"total", "status"}, keyframeInterval = 2)
+    private long version;
+
+    public Invoice() {
+    }
+
+    public Invoice(final long total) {
+        this.total = total;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Invoice setTotal(final long total) {
+        this.total = total;
+        return this;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Invoice setStatus(final String status) {
+        this.status = status;
+        return this;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public Invoice setNotes(final String notes) {
+        this.notes = notes;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
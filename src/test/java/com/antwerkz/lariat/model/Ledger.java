@@ -0,0 +1,19 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.PartitionPeriod;
+import com.antwerkz.lariat.StorageLayout;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "ledgers", noClassnameStored = true)
+public class Ledger {
+    @Id
+    private ObjectId id;
+    private long balance;
+    @Version
+    @Archived(partitionBy = PartitionPeriod.DAY, layout = StorageLayout.BUCKET)
+    private long version;
+}
@@ -0,0 +1,48 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "pages", noClassnameStored = true)
+public class LegacyPage {
+    public static final int MAX_ARCHIVE_COUNT = 3;
+
+    @Id
+    private ObjectId id;
+    private String content;
+    @Version
+    @Archived(count = LegacyPage.MAX_ARCHIVE_COUNT, collection = "pages_archive")
+    private long version;
+
+    public LegacyPage() {
+    }
+
+    public LegacyPage(final String content) {
+        this.content = content;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public LegacyPage setContent(final String content) {
+        this.content = content;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LegacyPage{id=%s, content='%s', version=%d}", id, content, version);
+    }
+}
@@ -0,0 +1,65 @@
+package com.antwerkz.lariat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.DeflateCompression;
+import com.antwerkz.lariat.StorageLayout;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "manuals", noClassnameStored = true)
+public class Manual {
+    public static final int MAX_ARCHIVE_COUNT = 3;
+
+    @Id
+    private ObjectId id;
+    private String title;
+    private String body;
+    private List<String> sections = new ArrayList<>();
+    @Version
+    @Archived(count = Manual.MAX_ARCHIVE_COUNT, compression = DeflateCompression.class, keyframeInterval = 2,
+        layout = StorageLayout.BUCKET, bucketSize = 2)
+    private long version;
+
+    public Manual() {
+    }
+
+    public Manual(final String title, final String body) {
+        this.title = title;
+        this.body = body;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Manual setTitle(final String title) {
+        this.title = title;
+        return this;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public List<String> getSections() {
+        return sections;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Manual{id=%s, title='%s', sections=%s, version=%d}", id, title, sections, version);
+    }
+}
@@ -0,0 +1,49 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.StorageLayout;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "pages", noClassnameStored = true)
+public class Page {
+    public static final int MAX_ARCHIVE_COUNT = 3;
+
+    @Id
+    private ObjectId id;
+    private String content;
+    @Version
+    @Archived(count = Page.MAX_ARCHIVE_COUNT, layout = StorageLayout.BUCKET)
+    private long version;
+
+    public Page() {
+    }
+
+    public Page(final String content) {
+        this.content = content;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public Page setContent(final String content) {
+        this.content = content;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Page{id=%s, content='%s', version=%d}", id, content, version);
+    }
+}
@@ -0,0 +1,63 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.NotArchived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "profiles", noClassnameStored = true)
+public class Profile {
+    @Id
+    private ObjectId id;
+    private String name;
+    @NotArchived
+    private byte[] avatar;
+    private String cache;
+    @Version
+    @Archived(count = 3, exclude = "cache")
+    private long version;
+
+    public Profile() {
+    }
+
+    public Profile(final String name) {
+        this.name = name;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Profile setName(final String name) {
+        this.name = name;
+        return this;
+    }
+
+    public byte[] getAvatar() {
+        return avatar;
+    }
+
+    public Profile setAvatar(final byte[] avatar) {
+        this.avatar = avatar;
+        return this;
+    }
+
+    public String getCache() {
+        return cache;
+    }
+
+    public Profile setCache(final String cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,37 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.PartitionPeriod;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "readings", noClassnameStored = true)
+public class Reading {
+    public static final long MAX_AGE = 90L * 24 * 60 * 60;
+
+    @Id
+    private ObjectId id;
+    private int value;
+    @Version
+    @Archived(count = 3, partitionBy = PartitionPeriod.MONTH, maxAgeSeconds = Reading.MAX_AGE)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Reading setValue(final int value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,18 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "receipts", noClassnameStored = true)
+public class Receipt {
+    @Id
+    private ObjectId id;
+    private long total;
+    private String notes;
+    @Version
+    @Archived(include = "total", exclude = "notes")
+    private long version;
+}
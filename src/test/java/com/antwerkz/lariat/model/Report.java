@@ -0,0 +1,63 @@
+package com.antwerkz.lariat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.DeflateCompression;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "reports", noClassnameStored = true)
+public class Report {
+    public static final int MAX_ARCHIVE_COUNT = 3;
+
+    @Id
+    private ObjectId id;
+    private String title;
+    private String body;
+    private List<String> sections = new ArrayList<>();
+    @Version
+    @Archived(count = Report.MAX_ARCHIVE_COUNT, compression = DeflateCompression.class)
+    private long version;
+
+    public Report() {
+    }
+
+    public Report(final String title, final String body) {
+        this.title = title;
+        this.body = body;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Report setTitle(final String title) {
+        this.title = title;
+        return this;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public List<String> getSections() {
+        return sections;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Report{id=%s, title='%s', sections=%s, version=%d}", id, title, sections, version);
+    }
+}
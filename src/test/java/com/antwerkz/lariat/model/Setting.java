@@ -0,0 +1,47 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "settings", noClassnameStored = true)
+public class Setting {
+    @Id
+    private ObjectId id;
+    private String name;
+    private String value;
+    @Version
+    @Archived(count = 3, skipUnchanged = true)
+    private long version;
+
+    public Setting() {
+    }
+
+    public Setting(final String name, final String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public Setting setValue(final String value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,37 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import com.antwerkz.lariat.StorageLayout;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "shelves", noClassnameStored = true)
+public class Shelf {
+    public static final long MAX_AGE = 600;
+
+    @Id
+    private ObjectId id;
+    private int value;
+    @Version
+    @Archived(count = 3, maxAgeSeconds = Shelf.MAX_AGE, layout = StorageLayout.BUCKET)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Shelf setValue(final int value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
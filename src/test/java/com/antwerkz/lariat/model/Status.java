@@ -0,0 +1,36 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "statuses", noClassnameStored = true)
+public class Status {
+    public static final long WINDOW = 1000;
+
+    @Id
+    private ObjectId id;
+    private long value;
+    @Version
+    @Archived(count = 3, coalesceMillis = Status.WINDOW)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public Status setValue(final long value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,38 @@
+package com.antwerkz.lariat.model;
+
+import com.antwerkz.lariat.Archived;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Version;
+
+@Entity(value = "ticks", noClassnameStored = true)
+public class Tick {
+    public static final int MAX_ARCHIVE_COUNT = 3;
+
+    public static final int PRUNE_EVERY = 4;
+
+    @Id
+    private ObjectId id;
+    private int value;
+    @Version
+    @Archived(count = Tick.MAX_ARCHIVE_COUNT, pruneEvery = Tick.PRUNE_EVERY)
+    private long version;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Tick setValue(final int value) {
+        this.value = value;
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}